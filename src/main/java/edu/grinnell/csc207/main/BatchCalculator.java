@@ -0,0 +1,138 @@
+package edu.grinnell.csc207.main;
+
+import edu.grinnell.csc207.util.CommandExecutor;
+import edu.grinnell.csc207.util.CommandFrameReader;
+import edu.grinnell.csc207.util.OutputPipeline;
+import edu.grinnell.csc207.util.ScriptOptimizer;
+
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class represents a calculator that reads commands from stdin without
+ * prompting, and writes results on a separate thread.
+ *
+ * With the argument --binary, commands are read from stdin and results and
+ * errors written to stdout as binary frames, in the form defined by WireFormat.
+ * With the argument --optimize, the whole script is read and rewritten by
+ * ScriptOptimizer before any of it runs. With the argument --workers=N, the
+ * whole script is read and split by ScriptSharder among N worker processes,
+ * as described in BatchCoordinator.
+ *
+ * @author David William Stroud
+ */
+public class BatchCalculator {
+  /**
+   * The argument selecting binary frames rather than text.
+   */
+  static final String BINARY_FLAG = "--binary";
+  /**
+   * The argument selecting optimization of the whole script.
+   */
+  static final String OPTIMIZE_FLAG = "--optimize";
+  /**
+   * The prefix of the argument giving the number of worker processes.
+   */
+  private static final String WORKERS_FLAG = "--workers=";
+  /**
+   * The argument run by each worker process, which reads the state in which
+   * to start, then a blank line, then its commands, all as text.
+   */
+  static final String WORKER_FLAG = "--worker";
+  /**
+   * The number of results that may wait to be written.
+   */
+  private static final int CAPACITY = 4096;
+  /**
+   * The size of the output buffer, in bytes.
+   */
+  private static final int BUFFER_SIZE = 65536;
+
+  /**
+   * Starts the batch calculator.
+   * @param args The command-line arguments.
+   * @throws IOException Can throw an IOException if there is an error reading stdin.
+   */
+  public static void main(String[] args) throws IOException {
+    List<String> flags = Arrays.asList(args);
+    boolean binary = flags.contains(BatchCalculator.BINARY_FLAG);
+    boolean optimize = flags.contains(BatchCalculator.OPTIMIZE_FLAG);
+    boolean worker = flags.contains(BatchCalculator.WORKER_FLAG);
+    int workers = 1;
+    for (String flag : args) {
+      if (flag.startsWith(BatchCalculator.WORKERS_FLAG)) {
+        workers = Integer.parseInt(flag.substring(BatchCalculator.WORKERS_FLAG.length()));
+      } // if
+    } // for
+
+    FileChannel stdout = new FileOutputStream(FileDescriptor.out).getChannel();
+    CommandExecutor executor = new CommandExecutor();
+    CommandFrameReader frames = (binary && !worker)
+        ? new CommandFrameReader(new FileInputStream(FileDescriptor.in).getChannel())
+        : null;
+    BufferedReader stdin = (frames != null)
+        ? null
+        : new BufferedReader(new InputStreamReader(System.in));
+
+    if (worker) {
+      StringBuilder snapshot = new StringBuilder();
+      String line = stdin.readLine();
+      while (line != null && !line.isEmpty()) {
+        snapshot.append(line).append('\n');
+        line = stdin.readLine();
+      } // while
+      executor.restoreState(new BufferedReader(new StringReader(snapshot.toString())));
+    } // if
+
+    List<String> script = null;
+    if (optimize || workers > 1) {
+      script = new ArrayList<>();
+      String command = (frames != null) ? frames.next() : stdin.readLine();
+      while (command != null) {
+        script.add(command);
+        command = (frames != null) ? frames.next() : stdin.readLine();
+      } // while
+      if (workers > 1 && BatchCoordinator.run(script, workers, binary, optimize, stdout)) {
+        return;
+      } // if
+    } // if
+
+    OutputPipeline output = new OutputPipeline(stdout, System.err,
+        BatchCalculator.CAPACITY, BatchCalculator.BUFFER_SIZE, binary);
+    if (script != null) {
+      for (String statement : optimize ? ScriptOptimizer.optimize(script) : script) {
+        BatchCalculator.execute(executor, statement, output);
+      } // for
+    } else {
+      String command = (frames != null) ? frames.next() : stdin.readLine();
+      while (command != null) {
+        BatchCalculator.execute(executor, command, output);
+        command = (frames != null) ? frames.next() : stdin.readLine();
+      } // while
+    } // if-else
+    output.close();
+  } // main(String[])
+
+  /**
+   * Executes a command, reporting any unexpected failure.
+   * @param executor The executor with which to run the command.
+   * @param command The command.
+   * @param output The pipeline to which to send output and errors.
+   */
+  private static void execute(CommandExecutor executor, String command, OutputPipeline output) {
+    try {
+      executor.execute(command, false, output);
+    } catch (Exception e) {
+      output.error("Error: Error while executing command " + command);
+    } // try-catch
+  } // execute(CommandExecutor, String, OutputPipeline)
+} // class BatchCalculator
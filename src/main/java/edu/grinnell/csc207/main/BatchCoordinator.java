@@ -0,0 +1,154 @@
+package edu.grinnell.csc207.main;
+
+import edu.grinnell.csc207.util.ScriptSharder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class runs a batch script on several worker processes, each a
+ * BatchCalculator with its own heap and garbage collector.
+ *
+ * The script is split by ScriptSharder into segments that need no state
+ * computed by earlier ones. Each worker is sent, through a pipe to its
+ * stdin, the snapshot of the registers its segment needs, a blank
+ * line, and then the segment. Workers run at once, and their output is
+ * spooled to temporary files, so that it need not fit in this process,
+ * then copied to this process's output in the order of the segments.
+ *
+ * @author David William Stroud
+ */
+public final class BatchCoordinator {
+  /**
+   * The prefix of the name of each temporary output file.
+   */
+  private static final String TEMP_PREFIX = "batch-worker";
+
+  private BatchCoordinator() { } // BatchCoordinator()
+
+  /**
+   * Runs a script on worker processes, writing its output as running it in
+   * one process would.
+   * @param script The commands of the script.
+   * @param workers The largest number of workers to start.
+   * @param binary Whether to write results and errors as binary frames.
+   * @param optimize Whether each worker optimizes its segment.
+   * @param stdout The channel to which to write results.
+   * @return Whether the script was run, rather than being left to run in
+   *   this process because it does not split, or holds multi-line commands.
+   * @throws IOException If a worker cannot be started or its output copied.
+   */
+  static boolean run(List<String> script, int workers, boolean binary, boolean optimize,
+      FileChannel stdout) throws IOException {
+    for (String command : script) {
+      if (command.indexOf('\n') != -1 || command.indexOf('\r') != -1) {
+        return false;
+      } // if
+    } // for
+    List<ScriptSharder.Segment> segments = ScriptSharder.shard(script, workers);
+    if (segments.size() < 2) {
+      return false;
+    } // if
+
+    List<String> command = BatchCoordinator.workerCommand(binary, optimize);
+    int n = segments.size();
+    Process[] processes = new Process[n];
+    File[] outs = new File[n];
+    File[] errs = new File[n];
+    Thread[] feeders = new Thread[n];
+    for (int k = 0; k < n; k++) {
+      outs[k] = File.createTempFile(BatchCoordinator.TEMP_PREFIX, ".out");
+      errs[k] = File.createTempFile(BatchCoordinator.TEMP_PREFIX, ".err");
+      outs[k].deleteOnExit();
+      errs[k].deleteOnExit();
+      Process process = new ProcessBuilder(command)
+          .redirectOutput(outs[k])
+          .redirectError(errs[k])
+          .start();
+      ScriptSharder.Segment segment = segments.get(k);
+      processes[k] = process;
+      feeders[k] = new Thread(() -> BatchCoordinator.feed(process, segment));
+      feeders[k].start();
+    } // for
+
+    for (int k = 0; k < n; k++) {
+      try {
+        feeders[k].join();
+        if (processes[k].waitFor() != 0) {
+          System.err.println("Error: Worker " + k + " failed");
+        } // if
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for worker " + k, e);
+      } // try-catch
+      try (FileChannel out = FileChannel.open(outs[k].toPath(), StandardOpenOption.READ)) {
+        long position = 0;
+        long size = out.size();
+        while (position < size) {
+          position += out.transferTo(position, size - position, stdout);
+        } // while
+      } // try
+      Files.copy(errs[k].toPath(), System.err);
+      System.err.flush();
+      Files.delete(outs[k].toPath());
+      Files.delete(errs[k].toPath());
+    } // for
+    return true;
+  } // run(List<String>, int, boolean, boolean, FileChannel)
+
+  /**
+   * Builds the command that starts a worker, in the same JVM as this
+   * process, with the same heap and system property settings.
+   * @param binary Whether the worker writes binary frames.
+   * @param optimize Whether the worker optimizes its segment.
+   * @return The command and its arguments.
+   */
+  private static List<String> workerCommand(boolean binary, boolean optimize) {
+    List<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + File.separator + "bin"
+        + File.separator + "java");
+    for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+      if (arg.startsWith("-X") || arg.startsWith("-D")) {
+        command.add(arg);
+      } // if
+    } // for
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(BatchCalculator.class.getName());
+    command.add(BatchCalculator.WORKER_FLAG);
+    if (binary) {
+      command.add(BatchCalculator.BINARY_FLAG);
+    } // if
+    if (optimize) {
+      command.add(BatchCalculator.OPTIMIZE_FLAG);
+    } // if
+    return command;
+  } // workerCommand(boolean, boolean)
+
+  /**
+   * Writes a segment to the stdin of its worker, then closes it.
+   * @param process The worker.
+   * @param segment The segment.
+   */
+  private static void feed(Process process, ScriptSharder.Segment segment) {
+    try (Writer in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()))) {
+      in.write(segment.snapshot());
+      in.write('\n');
+      for (String command : segment.commands()) {
+        in.write(command);
+        in.write('\n');
+      } // for
+    } catch (IOException e) {
+      // The worker has exited, as after a QUIT, and its exit status is checked
+    } // try-catch
+  } // feed(Process, ScriptSharder.Segment)
+} // class BatchCoordinator
@@ -0,0 +1,155 @@
+package edu.grinnell.csc207.util;
+
+/**
+ * This class represents an affine map, x to scale * x + shift, such as the
+ * body of a REPEAT command that only updates one register.
+ *
+ * Applying the map n times is itself an affine map, found by repeatedly
+ * composing the map with itself, so a recurrence can be fast-forwarded in
+ * O(log n) steps rather than n. As with a power, a result that could have
+ * more than BigFraction.MAX_POWER_BITS bits is refused rather than computed.
+ *
+ * @author David William Stroud
+ */
+final class AffineMap {
+  /**
+   * The map that leaves every value as it is.
+   */
+  private static final AffineMap IDENTITY = new AffineMap(BigFraction.ONE, BigFraction.ZERO);
+
+  /**
+   * The factor by which the map multiplies its argument.
+   */
+  private final BigFraction scale;
+  /**
+   * The value the map adds after multiplying.
+   */
+  private final BigFraction shift;
+
+  /**
+   * Creates the map x to scale1 * x + shift1.
+   * @param scale1 The factor by which the map multiplies its argument.
+   * @param shift1 The value the map adds after multiplying.
+   */
+  private AffineMap(BigFraction scale1, BigFraction shift1) {
+    this.scale = scale1;
+    this.shift = shift1;
+  } // AffineMap(BigFraction, BigFraction)
+
+  /**
+   * Finds the affine map computed by an expression from the value of one
+   * register, if the expression computes one.
+   * @param tokens The tokens of the expression.
+   * @param slot The slot of the register that is the argument of the map.
+   * @param registers The registers holding every other register in the expression.
+   * @return The map, or null if the expression is not affine in the register,
+   *   or might divide by zero.
+   */
+  static AffineMap detect(Token[] tokens, int slot, BFRegisterSet registers) {
+    if (tokens.length % 2 == 0) {
+      return null;
+    } // if
+    // The value so far is scale * x + shift
+    BigFraction scale = BigFraction.ZERO;
+    BigFraction shift = BigFraction.ZERO;
+    for (int i = 0; i < tokens.length; i += 2) {
+      Token operand = tokens[i];
+      if (!operand.isNumeric()) {
+        return null;
+      } // if
+      boolean argument = operand.getSlot() == slot;
+      BigFraction value = argument ? null : operand.getAsFraction(registers);
+      if (value != null && value.denominator().signum() == 0) {
+        return null;
+      } // if
+      Token.TokenType type = (i == 0) ? Token.TokenType.ADD : tokens[i - 1].getType();
+
+      if (type == Token.TokenType.ADD) {
+        scale = argument ? scale.add(BigFraction.ONE) : scale;
+        shift = argument ? shift : shift.add(value);
+      } else if (type == Token.TokenType.SUBTRACT) {
+        scale = argument ? scale.subtract(BigFraction.ONE) : scale;
+        shift = argument ? shift : shift.subtract(value);
+      } else if (type == Token.TokenType.MULTIPLY && argument) {
+        if (scale.signum() != 0) {
+          return null;
+        } // if
+        scale = shift;
+        shift = BigFraction.ZERO;
+      } else if (type == Token.TokenType.MULTIPLY) {
+        scale = scale.multiply(value);
+        shift = shift.multiply(value);
+      } else if (type == Token.TokenType.DIVIDE && !argument && value.signum() != 0) {
+        scale = scale.divide(value);
+        shift = shift.divide(value);
+      } else if (type == Token.TokenType.POWER && !argument && scale.signum() == 0
+          && CommandExecutor.isValidExponent(value)
+          && shift.canPow(CommandExecutor.exponent(value))
+          && (shift.signum() != 0 || value.signum() >= 0)) {
+        shift = shift.pow(CommandExecutor.exponent(value));
+      } else {
+        return null;
+      } // if-else chain
+    } // for
+    return new AffineMap(scale, shift);
+  } // detect(Token[], int, BFRegisterSet)
+
+  /**
+   * Applies this map to a value.
+   * @param value The value.
+   * @return scale * value + shift.
+   */
+  BigFraction apply(BigFraction value) {
+    return this.scale.multiply(value).add(this.shift);
+  } // apply(BigFraction)
+
+  /**
+   * Returns the map that applies first, then this map.
+   * @param first The map to apply first.
+   * @return The composition of this map with first.
+   */
+  AffineMap after(AffineMap first) {
+    return new AffineMap(this.scale.multiply(first.scale),
+        this.scale.multiply(first.shift).add(this.shift));
+  } // after(AffineMap)
+
+  /**
+   * Determines whether this map may be applied n times to a value, which is
+   * refused if the result could have more than BigFraction.MAX_POWER_BITS
+   * bits. The result is scale^n * value plus at most n terms of the form
+   * scale^i * shift, so unless the scale is 0, 1, or -1, its bits grow with n.
+   * @param n The number of times to apply this map.
+   * @param value The value to which to apply it.
+   * @return Whether power(n).apply(value) is small enough to compute.
+   */
+  boolean canPower(long n, BigFraction value) {
+    // The n terms, and the denominator of their sum, add at most 2 * 64 bits
+    long extra = (long) value.bits() + this.shift.bits() + 2 * Long.SIZE;
+    int scaleBits = this.scale.bits();
+    if (scaleBits <= 1) {
+      return extra <= BigFraction.MAX_POWER_BITS;
+    } // if
+    return n <= (BigFraction.MAX_POWER_BITS - extra) / scaleBits;
+  } // canPower(long, BigFraction)
+
+  /**
+   * Returns the map that applies this map n times, by repeated squaring.
+   * @param n The number of times to apply this map.
+   * @return This map applied n times.
+   * @throws BudgetExceededException If the command computing it is over budget.
+   */
+  AffineMap power(long n) {
+    AffineMap result = AffineMap.IDENTITY;
+    AffineMap square = this;
+    for (long remaining = n; remaining > 0; remaining >>= 1) {
+      Budget.checkpoint();
+      if ((remaining & 1) != 0) {
+        result = square.after(result);
+      } // if
+      if (remaining > 1) {
+        square = square.after(square);
+      } // if
+    } // for
+    return result;
+  } // power(long)
+} // class AffineMap
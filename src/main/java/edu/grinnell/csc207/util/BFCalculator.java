@@ -1,20 +1,59 @@
 package edu.grinnell.csc207.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
 /**
  * This class represents a calculator.
  *
+ * While values fit in longs and are kept exact, the calculator also holds
+ * them as a long numerator and denominator, and the long versions of add,
+ * subtract, multiply and divide work on those without BigInteger. They fall
+ * back to fractions when a result would overflow.
+ *
  * @author David William Stroud
  */
 public class BFCalculator {
   /**
-   * The most recently computed value stored in this calculator.
+   * The most recently computed value stored in this calculator,
+   * or null if it is only held in decimal form.
    */
   private BigFraction lastValue;
 
+  /**
+   * The most recently computed value in decimal form,
+   * or null if it is only held as a fraction.
+   */
+  private BigDecimal decimalValue = null;
+
+  /**
+   * The largest denominator that a computed value may have before it is
+   * replaced by the closest approximation, or null if values are kept exact.
+   */
+  private BigInteger maxDenominator = null;
+
+  /**
+   * Whether the most recently computed value is also held in smallNumerator
+   * and smallDenominator.
+   */
+  private boolean small = false;
+
+  /**
+   * The signed numerator of the most recently computed value, if small.
+   */
+  private long smallNumerator;
+
+  /**
+   * The positive denominator of the most recently computed value, if small.
+   */
+  private long smallDenominator;
+
   /**
    * Creates a BFCalculator with the most recently computed value set to 0.
    */
   public BFCalculator() {
     this.lastValue = BigFraction.ZERO;
+    this.setSmall(this.lastValue);
   } // BFCalculator()
 
   /**
@@ -24,22 +63,277 @@ public class BFCalculator {
    */
   public BFCalculator(BigFraction lastValue1) {
     this.lastValue = lastValue1;
+    this.setSmall(lastValue1);
   } // BFCalculator(BigFraction)
 
+  /**
+   * Creates a BFCalculator with the most recently computed value set to lastValue1,
+   * which approximates any computed value whose denominator exceeds maxDenominator1.
+   *
+   * @param lastValue1 The most recently computed value to use.
+   * @param maxDenominator1 The largest denominator to keep exactly, or null to
+   *   keep every value exact.
+   */
+  public BFCalculator(BigFraction lastValue1, BigInteger maxDenominator1) {
+    this.lastValue = lastValue1;
+    this.maxDenominator = maxDenominator1;
+    this.setSmall(lastValue1);
+  } // BFCalculator(BigFraction, BigInteger)
+
+  /**
+   * Creates a BFCalculator with the most recently computed value set to lastValue1,
+   * kept in decimal form for as long as the operands allow.
+   *
+   * @param lastValue1 The most recently computed value to use.
+   */
+  public BFCalculator(BigDecimal lastValue1) {
+    this.lastValue = null;
+    this.decimalValue = lastValue1;
+  } // BFCalculator(BigDecimal)
+
+  /**
+   * Restarts this calculator with the most recently computed value set to
+   * lastValue1, which approximates any computed value whose denominator
+   * exceeds maxDenominator1.
+   *
+   * @param lastValue1 The most recently computed value to use.
+   * @param maxDenominator1 The largest denominator to keep exactly, or null to
+   *   keep every value exact.
+   */
+  public void reset(BigFraction lastValue1, BigInteger maxDenominator1) {
+    this.lastValue = lastValue1;
+    this.decimalValue = null;
+    this.maxDenominator = maxDenominator1;
+    this.setSmall(lastValue1);
+  } // reset(BigFraction, BigInteger)
+
+  /**
+   * Restarts this calculator with the most recently computed value set to
+   * numerator/denominator, keeping computed values exact.
+   *
+   * @param numerator The signed numerator of the value, in lowest terms.
+   * @param denominator The positive denominator of the value, in lowest terms.
+   */
+  public void reset(long numerator, long denominator) {
+    this.lastValue = null;
+    this.decimalValue = null;
+    this.maxDenominator = null;
+    this.small = true;
+    this.smallNumerator = numerator;
+    this.smallDenominator = denominator;
+  } // reset(long, long)
+
+  /**
+   * Restarts this calculator with the most recently computed value set to
+   * lastValue1, kept in decimal form for as long as the operands allow.
+   *
+   * @param lastValue1 The most recently computed value to use.
+   */
+  public void reset(BigDecimal lastValue1) {
+    this.lastValue = null;
+    this.decimalValue = lastValue1;
+    this.maxDenominator = null;
+    this.small = false;
+  } // reset(BigDecimal)
+
+  /**
+   * Sets the most recently computed value, approximating it if its
+   * denominator is too large.
+   * @param val The newly computed value.
+   */
+  private void set(BigFraction val) {
+    this.decimalValue = null;
+    if (this.maxDenominator == null) {
+      this.lastValue = val;
+    } else {
+      this.lastValue = val.limitDenominator(this.maxDenominator);
+    } // if-else
+    this.setSmall(this.lastValue);
+  } // set(BigFraction)
+
+  /**
+   * Also holds val in smallNumerator and smallDenominator, if it fits and
+   * values are kept exact.
+   * @param val The most recently computed value.
+   */
+  private void setSmall(BigFraction val) {
+    this.small = this.maxDenominator == null && val.isSmall();
+    if (this.small) {
+      this.smallNumerator = val.smallNumerator();
+      this.smallDenominator = val.smallDenominator();
+    } // if
+  } // setSmall(BigFraction)
+
+  /**
+   * Sets the most recently computed value, held only in small form.
+   * @param numerator The signed numerator of the value, in lowest terms.
+   * @param denominator The positive denominator of the value, in lowest terms.
+   * @throws ArithmeticException If numerator is Long.MIN_VALUE, whose
+   *   magnitude does not fit in a long.
+   */
+  private void setSmall(long numerator, long denominator) {
+    if (numerator == Long.MIN_VALUE) {
+      // Its sign cannot be moved to the denominator, so leave it to BigInteger
+      throw new ArithmeticException("long overflow");
+    } // if
+    this.lastValue = null;
+    this.decimalValue = null;
+    this.smallNumerator = numerator;
+    this.smallDenominator = denominator;
+  } // setSmall(long, long)
+
   /**
    * Gets the most recently computed value.
    * @return The most recently value.
    */
   public BigFraction get() {
+    if (this.lastValue == null) {
+      this.lastValue = this.small
+          ? BigFraction.valueOfReduced(this.smallNumerator, this.smallDenominator)
+          : BigFraction.valueOf(this.decimalValue);
+    } // if
     return this.lastValue;
   } // get()
 
+  /**
+   * Computes the greatest common divisor of two non-negative longs.
+   * @param first The first long.
+   * @param second The second long.
+   * @return The greatest common divisor of first and second.
+   */
+  private static long gcd(long first, long second) {
+    long a = first;
+    long b = second;
+    while (b != 0) {
+      long rem = a % b;
+      a = b;
+      b = rem;
+    } // while
+    return a;
+  } // gcd(long, long)
+
+  /**
+   * Adds numerator/denominator to the most recently computed value, which is
+   * small, without BigInteger.
+   * @param numerator The signed numerator of the value to add, in lowest terms.
+   * @param denominator The positive denominator of the value to add, in lowest terms.
+   * @throws ArithmeticException If the result does not fit in longs.
+   */
+  private void addSmall(long numerator, long denominator) {
+    if (this.smallDenominator == 1 && denominator == 1) {
+      // Whole numbers need no common denominator, and no gcd
+      this.setSmall(Math.addExact(this.smallNumerator, numerator), 1);
+      return;
+    } // if
+    // Only the common factor of the denominators can divide the sum
+    long common = BFCalculator.gcd(this.smallDenominator, denominator);
+    long thisScale = denominator / common;
+    long resultNumerator = Math.addExact(
+        Math.multiplyExact(this.smallNumerator, thisScale),
+        Math.multiplyExact(numerator, this.smallDenominator / common));
+    if (resultNumerator == 0) {
+      this.setSmall(0, 1);
+      return;
+    } // if
+    long reduce = BFCalculator.gcd(Math.absExact(resultNumerator), common);
+    this.setSmall(resultNumerator / reduce,
+        Math.multiplyExact(this.smallDenominator / reduce, thisScale));
+  } // addSmall(long, long)
+
+  /**
+   * Multiplies the most recently computed value, which is small, by
+   * numerator/denominator without BigInteger.
+   * @param numerator The signed numerator of the multiplier, in lowest terms.
+   * @param denominator The positive denominator of the multiplier, in lowest terms.
+   * @throws ArithmeticException If the result does not fit in longs.
+   */
+  private void multiplySmall(long numerator, long denominator) {
+    // Cancelling across the two fractions leaves the product in lowest terms
+    long first = BFCalculator.gcd(Math.absExact(this.smallNumerator), denominator);
+    long second = BFCalculator.gcd(Math.absExact(numerator), this.smallDenominator);
+    this.setSmall(
+        Math.multiplyExact(this.smallNumerator / first, numerator / second),
+        Math.multiplyExact(this.smallDenominator / second, denominator / first));
+  } // multiplySmall(long, long)
+
+  /**
+   * Adds numerator/denominator to the most recently computed value.
+   * @param numerator The signed numerator of the value to add, in lowest terms.
+   * @param denominator The positive denominator of the value to add, in lowest terms.
+   */
+  public void add(long numerator, long denominator) {
+    if (this.small) {
+      try {
+        this.addSmall(numerator, denominator);
+        return;
+      } catch (ArithmeticException err) {
+        // Too large for longs
+      } // try-catch
+    } // if
+    this.add(BigFraction.valueOfReduced(numerator, denominator));
+  } // add(long, long)
+
+  /**
+   * Subtracts numerator/denominator from the most recently computed value.
+   * @param numerator The signed numerator of the value to subtract, in lowest terms.
+   * @param denominator The positive denominator of the value to subtract, in lowest terms.
+   */
+  public void subtract(long numerator, long denominator) {
+    if (this.small) {
+      try {
+        this.addSmall(Math.negateExact(numerator), denominator);
+        return;
+      } catch (ArithmeticException err) {
+        // Too large for longs
+      } // try-catch
+    } // if
+    this.subtract(BigFraction.valueOfReduced(numerator, denominator));
+  } // subtract(long, long)
+
+  /**
+   * Multiplies the most recently computed value by numerator/denominator.
+   * @param numerator The signed numerator of the multiplier, in lowest terms.
+   * @param denominator The positive denominator of the multiplier, in lowest terms.
+   */
+  public void multiply(long numerator, long denominator) {
+    if (this.small) {
+      try {
+        this.multiplySmall(numerator, denominator);
+        return;
+      } catch (ArithmeticException err) {
+        // Too large for longs
+      } // try-catch
+    } // if
+    this.multiply(BigFraction.valueOfReduced(numerator, denominator));
+  } // multiply(long, long)
+
+  /**
+   * Divides the most recently computed value by numerator/denominator.
+   * @param numerator The signed numerator of the divisor, in lowest terms.
+   * @param denominator The positive denominator of the divisor, in lowest terms.
+   */
+  public void divide(long numerator, long denominator) {
+    if (this.small && numerator != 0) {
+      try {
+        if (numerator < 0) {
+          this.multiplySmall(Math.negateExact(denominator), Math.negateExact(numerator));
+        } else {
+          this.multiplySmall(denominator, numerator);
+        } // if-else
+        return;
+      } catch (ArithmeticException err) {
+        // Too large for longs
+      } // try-catch
+    } // if
+    this.divide(BigFraction.valueOfReduced(numerator, denominator));
+  } // divide(long, long)
+
   /**
    * Adds val to the most recently computed value.
    * @param val The fraction to which to add to the most recently computed value.
    */
   public void add(BigFraction val) {
-    this.lastValue = this.lastValue.add(val);
+    this.set(this.get().add(val));
   } // add(BigFraction)
 
   /**
@@ -47,7 +341,7 @@ public class BFCalculator {
    * @param val The fraction by which to subtract the most recently computed value.
    */
   public void subtract(BigFraction val) {
-    this.lastValue = this.lastValue.subtract(val);
+    this.set(this.get().subtract(val));
   } // subtract(BigFraction)
 
   /**
@@ -55,7 +349,7 @@ public class BFCalculator {
    * @param val The fraction by which to multiply the most recently computed value.
    */
   public void multiply(BigFraction val) {
-    this.lastValue = this.lastValue.multiply(val);
+    this.set(this.get().multiply(val));
   } // multiply(BigFraction)
 
   /**
@@ -63,13 +357,136 @@ public class BFCalculator {
    * @param val The fraction by which to divide the most recently computed value.
    */
   public void divide(BigFraction val) {
-    this.lastValue = this.lastValue.divide(val);
+    this.set(this.get().divide(val));
   } // divide(BigFraction)
 
+  /**
+   * Sets the most recently computed value, which is held in decimal form.
+   * @param val The newly computed value.
+   */
+  private void setDecimal(BigDecimal val) {
+    this.decimalValue = val;
+    this.lastValue = null;
+    this.small = false;
+  } // setDecimal(BigDecimal)
+
+  /**
+   * Adds val to the most recently computed value, staying in decimal form
+   * if the most recently computed value is in decimal form.
+   * @param val The decimal to add to the most recently computed value.
+   */
+  public void add(BigDecimal val) {
+    if (this.decimalValue == null) {
+      this.add(BigFraction.valueOf(val));
+    } else {
+      this.setDecimal(this.decimalValue.add(val));
+    } // if-else
+  } // add(BigDecimal)
+
+  /**
+   * Subtracts val from the most recently computed value, staying in decimal
+   * form if the most recently computed value is in decimal form.
+   * @param val The decimal by which to subtract the most recently computed value.
+   */
+  public void subtract(BigDecimal val) {
+    if (this.decimalValue == null) {
+      this.subtract(BigFraction.valueOf(val));
+    } else {
+      this.setDecimal(this.decimalValue.subtract(val));
+    } // if-else
+  } // subtract(BigDecimal)
+
+  /**
+   * Multiplies the most recently computed value by val, staying in decimal
+   * form if the most recently computed value is in decimal form.
+   * @param val The decimal by which to multiply the most recently computed value.
+   */
+  public void multiply(BigDecimal val) {
+    if (this.decimalValue == null) {
+      this.multiply(BigFraction.valueOf(val));
+    } else {
+      this.setDecimal(this.decimalValue.multiply(val));
+    } // if-else
+  } // multiply(BigDecimal)
+
+  /**
+   * Raises the most recently computed value to the power of exponent.
+   * @param exponent The power to which to raise the most recently computed value.
+   * @throws ArithmeticException If the power is too large to compute; see canPower.
+   */
+  public void power(int exponent) {
+    if (this.decimalValue != null && exponent >= 0
+        && Math.max(1, this.decimalValue.unscaledValue().bitLength()) * (long) exponent
+            <= BigFraction.MAX_POWER_BITS) {
+      this.setDecimal(this.decimalValue.pow(exponent));
+      return;
+    } // if
+    this.set(this.get().pow(exponent));
+  } // power(int)
+
+  /**
+   * Determines whether the most recently computed value may be raised to
+   * the power of exponent, which is refused if the result would be too large.
+   * @param exponent The power.
+   * @return Whether power(exponent) will compute the power.
+   */
+  boolean canPower(int exponent) {
+    return this.get().canPow(exponent);
+  } // canPower(int)
+
+  /**
+   * Replaces the most recently computed value with 1 if it is less than val,
+   * and 0 otherwise.
+   * @param val The fraction with which to compare the most recently computed value.
+   */
+  public void lessThan(BigFraction val) {
+    this.set(BigFraction.valueOf(this.get().compareTo(val) < 0));
+  } // lessThan(BigFraction)
+
+  /**
+   * Replaces the most recently computed value with 1 if it is greater than val,
+   * and 0 otherwise.
+   * @param val The fraction with which to compare the most recently computed value.
+   */
+  public void greaterThan(BigFraction val) {
+    this.set(BigFraction.valueOf(this.get().compareTo(val) > 0));
+  } // greaterThan(BigFraction)
+
+  /**
+   * Replaces the most recently computed value with 1 if it is equal to val,
+   * and 0 otherwise.
+   * @param val The fraction with which to compare the most recently computed value.
+   */
+  public void equalTo(BigFraction val) {
+    this.set(BigFraction.valueOf(this.get().compareTo(val) == 0));
+  } // equalTo(BigFraction)
+
+  /**
+   * Replaces the most recently computed value with val if val is smaller.
+   * @param val The fraction with which to compare the most recently computed value.
+   */
+  public void min(BigFraction val) {
+    if (this.get().compareTo(val) > 0) {
+      this.set(val);
+    } // if
+  } // min(BigFraction)
+
+  /**
+   * Replaces the most recently computed value with val if val is larger.
+   * @param val The fraction with which to compare the most recently computed value.
+   */
+  public void max(BigFraction val) {
+    if (this.get().compareTo(val) < 0) {
+      this.set(val);
+    } // if
+  } // max(BigFraction)
+
   /**
    * Resets the most recently computed value to zero.
    */
   public void clear() {
     this.lastValue = BigFraction.ZERO;
+    this.decimalValue = null;
+    this.setSmall(this.lastValue);
   } // clear()
 } // class BFCalculator
@@ -5,13 +5,105 @@ import java.util.Arrays;
 /**
  * This class represents a set of registers for use in a calculator.
  *
+ * Registers whose values fit in longs also keep them as a long numerator
+ * and denominator, so that calculators can work on them without BigInteger.
+ *
+ * Besides the single letters 'a' to 'z', registers may have longer names,
+ * such as total or x_2. Each name is interned once into a slot shared by
+ * every register set, and the set keeps its values in arrays indexed by
+ * slot, which grow as new names are stored. A register that has never been
+ * stored holds zero.
+ *
+ * A register set belongs to the thread that stores into it, but any thread
+ * may read a consistent Snapshot of every register with one volatile read.
+ * Stores only mark the set as changed; publish then copies the small array
+ * of values into a new snapshot, so that every store made by a command is
+ * published at once, and readers never block or slow the thread storing.
+ *
  * @author David William Stroud
  */
 public class BFRegisterSet {
   /**
-   * A representation of the registers in this set as a 26-length array.
+   * An immutable copy of the values of every register in a set.
    */
-  private final BigFraction[] registers = new BigFraction['z' - 'a' + 1];
+  public static final class Snapshot {
+    /**
+     * The snapshot of a set that has published nothing, in which every
+     * register holds zero.
+     */
+    private static final Snapshot EMPTY = new Snapshot(new BigFraction[0], 0);
+
+    /**
+     * The value of each register, indexed by slot.
+     */
+    private final BigFraction[] values;
+    /**
+     * The number of snapshots published before this one.
+     */
+    private final long version;
+
+    /**
+     * Creates a snapshot, which takes ownership of values1.
+     * @param values1 The value of each register, indexed by slot.
+     * @param version1 The number of snapshots published before this one.
+     */
+    private Snapshot(BigFraction[] values1, long version1) {
+      this.values = values1;
+      this.version = version1;
+    } // Snapshot(BigFraction[], long)
+
+    /**
+     * Returns the number of slots in this snapshot. Every register in a
+     * later slot holds zero.
+     * @return The number of slots.
+     */
+    public int size() {
+      return this.values.length;
+    } // size()
+
+    /**
+     * Retrieves the value of the register in a slot.
+     * @param slot The slot of the register.
+     * @return The fraction that was inside that register.
+     */
+    public BigFraction get(int slot) {
+      return (slot < this.values.length) ? this.values[slot] : BigFraction.ZERO;
+    } // get(int)
+
+    /**
+     * Returns the version of this snapshot, which grows by one with each
+     * publication, so that readers can tell whether anything has changed.
+     * @return The number of snapshots published before this one.
+     */
+    public long version() {
+      return this.version;
+    } // version()
+  } // class Snapshot
+
+  /**
+   * The value of each register in this set, indexed by slot.
+   */
+  private BigFraction[] registers = new BigFraction[SymbolTable.LETTERS];
+  /**
+   * Whether each register also holds its value in smallNumerators and smallDenominators.
+   */
+  private boolean[] small = new boolean[SymbolTable.LETTERS];
+  /**
+   * The signed numerator of each small register.
+   */
+  private long[] smallNumerators = new long[SymbolTable.LETTERS];
+  /**
+   * The positive denominator of each small register.
+   */
+  private long[] smallDenominators = new long[SymbolTable.LETTERS];
+  /**
+   * The most recently published snapshot of this set.
+   */
+  private volatile Snapshot published = Snapshot.EMPTY;
+  /**
+   * Whether any register has been stored since the last publication.
+   */
+  private boolean changed = false;
 
   private static int charToInt(char val) {
     return val - 'a';
@@ -22,17 +114,125 @@ public class BFRegisterSet {
    */
   public BFRegisterSet() {
     Arrays.fill(this.registers, BigFraction.ZERO);
+    Arrays.fill(this.small, true);
+    Arrays.fill(this.smallDenominators, 1);
   } // BFRegisterSet()
 
+  /**
+   * Returns the slot of a register, giving it one if it has none.
+   * @param name The name of the register.
+   * @return The slot of the register.
+   * @throws IllegalArgumentException If name is not the name of a register:
+   *   a lowercase letter followed by lowercase letters, digits, and underscores.
+   * @throws BudgetExceededException If the name is new and there are
+   *   already getMaxNames names longer than a single letter.
+   */
+  public static int slotOf(String name) {
+    if (!Token.isName(name, 0, name.length())) {
+      throw new IllegalArgumentException("Invalid register name: " + name);
+    } // if
+    return SymbolTable.intern(name);
+  } // slotOf(String)
+
+  /**
+   * Returns the name of the register in a slot.
+   * @param slot The slot.
+   * @return The name of the register in that slot.
+   */
+  public static String nameOf(int slot) {
+    return SymbolTable.name(slot);
+  } // nameOf(int)
+
+  /**
+   * Sets the largest number of register names longer than a single letter,
+   * which are shared by every register set and never forgotten.
+   * @param limit The limit.
+   */
+  public static void setMaxNames(int limit) {
+    SymbolTable.setMaxNames(limit);
+  } // setMaxNames(int)
+
+  /**
+   * Returns the largest number of register names longer than a single letter.
+   * @return The limit.
+   */
+  public static int getMaxNames() {
+    return SymbolTable.getMaxNames();
+  } // getMaxNames()
+
+  /**
+   * Returns the number of slots this set has room for. Every register in a
+   * later slot holds zero.
+   * @return The number of slots.
+   */
+  public int size() {
+    return this.registers.length;
+  } // size()
+
+  /**
+   * Makes room for a slot, filling new slots with zero.
+   * @param slot The slot.
+   */
+  private void ensureCapacity(int slot) {
+    int oldLength = this.registers.length;
+    int length = Math.max(slot + 1, 2 * oldLength);
+    this.registers = Arrays.copyOf(this.registers, length);
+    this.small = Arrays.copyOf(this.small, length);
+    this.smallNumerators = Arrays.copyOf(this.smallNumerators, length);
+    this.smallDenominators = Arrays.copyOf(this.smallDenominators, length);
+    Arrays.fill(this.registers, oldLength, length, BigFraction.ZERO);
+    Arrays.fill(this.small, oldLength, length, true);
+    Arrays.fill(this.smallDenominators, oldLength, length, 1);
+  } // ensureCapacity(int)
+
   /**
    * Stores val into register.
    * @param register The register into which to store val, as a char from 'a' to 'z'.
    * @param val The value to store into the register.
    */
   public void store(char register, BigFraction val) {
-    this.registers[BFRegisterSet.charToInt(register)] = val;
+    this.store(BFRegisterSet.charToInt(register), val);
   } // store(char, BigFraction)
 
+  /**
+   * Stores val into the register in a slot.
+   * @param slot The slot of the register into which to store val.
+   * @param val The value to store into the register.
+   */
+  public void store(int slot, BigFraction val) {
+    if (slot >= this.registers.length) {
+      this.ensureCapacity(slot);
+    } // if
+    this.registers[slot] = val;
+    this.changed = true;
+    this.small[slot] = val.isSmall();
+    if (this.small[slot]) {
+      this.smallNumerators[slot] = val.smallNumerator();
+      this.smallDenominators[slot] = val.smallDenominator();
+    } // if
+  } // store(int, BigFraction)
+
+  /**
+   * Publishes the values of every register as a new snapshot, if any has
+   * been stored since the last publication. Called by the thread that
+   * stores into this set.
+   */
+  public void publish() {
+    if (this.changed) {
+      this.published = new Snapshot(this.registers.clone(), this.published.version + 1);
+      this.changed = false;
+    } // if
+  } // publish()
+
+  /**
+   * Returns the most recently published snapshot of this set. May be called
+   * from any thread.
+   * @return The snapshot.
+   */
+  public Snapshot snapshot() {
+    return this.published;
+  } // snapshot()
+
   /**
    * Retrieves the value stored in register.
    * @param register The register to retrieve, as a char from 'a' to 'z'.
@@ -41,4 +241,67 @@ public class BFRegisterSet {
   public BigFraction get(char register) {
     return this.registers[BFRegisterSet.charToInt(register)];
   } // get(char)
+
+  /**
+   * Determines whether the value in register fits in longs.
+   * @param register The register to check, as a char from 'a' to 'z'.
+   * @return Whether smallNumerator and smallDenominator hold the value in register.
+   */
+  public boolean isSmall(char register) {
+    return this.small[BFRegisterSet.charToInt(register)];
+  } // isSmall(char)
+
+  /**
+   * Retrieves the signed numerator of a register whose value fits in longs.
+   * @param register The register to retrieve, as a char from 'a' to 'z'.
+   * @return The numerator of the fraction inside that register.
+   */
+  public long smallNumerator(char register) {
+    return this.smallNumerators[BFRegisterSet.charToInt(register)];
+  } // smallNumerator(char)
+
+  /**
+   * Retrieves the positive denominator of a register whose value fits in longs.
+   * @param register The register to retrieve, as a char from 'a' to 'z'.
+   * @return The denominator of the fraction inside that register.
+   */
+  public long smallDenominator(char register) {
+    return this.smallDenominators[BFRegisterSet.charToInt(register)];
+  } // smallDenominator(char)
+
+  /**
+   * Retrieves the value stored in the register in a slot.
+   * @param slot The slot of the register to retrieve.
+   * @return The fraction inside that register.
+   */
+  public BigFraction get(int slot) {
+    return (slot < this.registers.length) ? this.registers[slot] : BigFraction.ZERO;
+  } // get(int)
+
+  /**
+   * Determines whether the value in the register in a slot fits in longs.
+   * @param slot The slot of the register to check.
+   * @return Whether smallNumerator and smallDenominator hold the value in the register.
+   */
+  public boolean isSmall(int slot) {
+    return slot >= this.small.length || this.small[slot];
+  } // isSmall(int)
+
+  /**
+   * Retrieves the signed numerator of a register in a slot whose value fits in longs.
+   * @param slot The slot of the register to retrieve.
+   * @return The numerator of the fraction inside that register.
+   */
+  public long smallNumerator(int slot) {
+    return (slot < this.smallNumerators.length) ? this.smallNumerators[slot] : 0;
+  } // smallNumerator(int)
+
+  /**
+   * Retrieves the positive denominator of a register in a slot whose value fits in longs.
+   * @param slot The slot of the register to retrieve.
+   * @return The denominator of the fraction inside that register.
+   */
+  public long smallDenominator(int slot) {
+    return (slot < this.smallDenominators.length) ? this.smallDenominators[slot] : 1;
+  } // smallDenominator(int)
 } // class BFRegisterSet
@@ -1,5 +1,6 @@
 package edu.grinnell.csc207.util;
 
+import java.math.BigDecimal;
 import java.math.BigInteger;
 
 /**
@@ -9,7 +10,7 @@ import java.math.BigInteger;
  * @author David William Stroud
  * @author Moses Milenge
  */
-public class BigFraction {
+public class BigFraction implements Comparable<BigFraction> {
   // +------------------+---------------------------------------------
   // | Design Decisions |
   // +------------------+
@@ -32,11 +33,37 @@ public class BigFraction {
    * A BigFraction that is equal to 0.
    */
   public static final BigFraction ZERO = new BigFraction(0, 1);
+  /**
+   * A BigFraction that is equal to 1.
+   */
+  public static final BigFraction ONE = new BigFraction(1, 1);
   /**
    * A BigFraction that is equal to -1.
    */
   public static final BigFraction NEGATIVE_ONE = new BigFraction(-1, 1);
 
+  /**
+   * Five, the odd prime factor of ten.
+   */
+  private static final BigInteger FIVE = BigInteger.valueOf(5);
+
+  /**
+   * The whole number -1.
+   */
+  private static final BigInteger MINUS_ONE = BigInteger.ONE.negate();
+
+  /**
+   * Fractions whose numerator and denominator have at most this many bits
+   * also fit in longs, with room to negate them.
+   */
+  private static final int SMALL_BITS = 62;
+
+  /**
+   * The most bits in the numerator or denominator of a power. Larger powers
+   * are refused rather than computed.
+   */
+  static final long MAX_POWER_BITS = 67_108_864L;
+
   // +--------+-------------------------------------------------------
   // | Fields |
   // +--------+
@@ -101,10 +128,133 @@ public class BigFraction {
     this.simplify();
   } // BigFraction
 
+  /**
+   * Build a new fraction with numerator num and denominator denom, which
+   * the caller guarantees are already in simplified form.
+   *
+   * @param numerator
+   *   The numerator of the fraction.
+   * @param denominator
+   *   The denominator of the fraction.
+   * @param simplified
+   *   Unused; distinguishes this constructor from the simplifying one.
+   */
+  private BigFraction(BigInteger numerator, BigInteger denominator, boolean simplified) {
+    this.num = numerator;
+    this.denom = denominator;
+  } // BigFraction(BigInteger, BigInteger, boolean)
+
+  /**
+   * Build a new fraction with the same value as a decimal number.
+   *
+   * @param val
+   *   The decimal number.
+   *
+   * @return The fraction equal to val.
+   */
+  public static BigFraction valueOf(BigDecimal val) {
+    if (val.scale() <= 0) {
+      return BigFraction.valueOfInteger(val.toBigIntegerExact());
+    } // if
+    return new BigFraction(val.unscaledValue(), BigInteger.TEN.pow(val.scale()));
+  } // valueOf(BigDecimal)
+
+  /**
+   * Returns the fraction representing a truth value.
+   *
+   * @param val
+   *   The truth value.
+   *
+   * @return 1 if val is true, and 0 otherwise.
+   */
+  public static BigFraction valueOf(boolean val) {
+    return val ? BigFraction.ONE : BigFraction.ZERO;
+  } // valueOf(boolean)
+
+  /**
+   * Build a new fraction from a numerator and denominator which the caller
+   * guarantees are in lowest terms, with the denominator positive.
+   *
+   * @param numerator
+   *   The signed numerator of the fraction.
+   * @param denominator
+   *   The positive denominator of the fraction.
+   *
+   * @return The fraction numerator/denominator.
+   */
+  static BigFraction valueOfReduced(long numerator, long denominator) {
+    // Negating Long.MIN_VALUE overflows, so take the magnitude as a BigInteger
+    return new BigFraction(BigInteger.valueOf(numerator).abs(),
+        BigInteger.valueOf((numerator < 0) ? -denominator : denominator), true);
+  } // valueOfReduced(long, long)
+
+  /**
+   * Build a new whole number fraction.
+   *
+   * @param val
+   *   The whole number.
+   *
+   * @return The fraction val/1.
+   */
+  private static BigFraction valueOfInteger(BigInteger val) {
+    return new BigFraction(val.abs(),
+        (val.signum() < 0) ? BigFraction.MINUS_ONE : BigInteger.ONE, true);
+  } // valueOfInteger(BigInteger)
+
+  /**
+   * Determine whether a whole number is 1 or -1.
+   *
+   * @param val
+   *   The whole number.
+   *
+   * @return Whether val is 1 or -1.
+   */
+  private static boolean isUnit(BigInteger val) {
+    return val.equals(BigInteger.ONE) || val.equals(BigFraction.MINUS_ONE);
+  } // isUnit(BigInteger)
+
   // +---------+------------------------------------------------------
   // | Methods |
   // +---------+
 
+  /**
+   * Determine whether this fraction's numerator and denominator fit in longs.
+   *
+   * @return Whether smallNumerator and smallDenominator hold this fraction.
+   */
+  boolean isSmall() {
+    return this.num.bitLength() <= BigFraction.SMALL_BITS
+        && this.denom.bitLength() <= BigFraction.SMALL_BITS;
+  } // isSmall()
+
+  /**
+   * Returns the number of bits in the larger of the numerator and denominator.
+   * @return The number of bits.
+   */
+  int bits() {
+    return Math.max(this.num.bitLength(), this.denom.bitLength());
+  } // bits()
+
+  /**
+   * Get the numerator of this fraction as a long carrying the sign of the
+   * fraction, if isSmall.
+   *
+   * @return The signed numerator.
+   */
+  long smallNumerator() {
+    long numerator = Math.abs(this.num.longValue());
+    return (this.num.signum() * this.denom.signum() < 0) ? -numerator : numerator;
+  } // smallNumerator()
+
+  /**
+   * Get the denominator of this fraction as a positive long, if isSmall.
+   *
+   * @return The positive denominator.
+   */
+  long smallDenominator() {
+    return Math.abs(this.denom.longValue());
+  } // smallDenominator()
+
   /**
    * Mutates this fraction such that it is in simplified form.
    */
@@ -127,6 +277,15 @@ public class BigFraction {
     this.denom = denomAbs.divide(gcd).multiply(BigInteger.valueOf(numeratorSign * denominatorSign));
   } // simplify()
 
+  /**
+   * Get the numerator of this fraction, carrying the sign of the fraction.
+   *
+   * @return The signed numerator.
+   */
+  private BigInteger signedNumerator() {
+    return (this.denom.signum() < 0) ? this.num.negate() : this.num;
+  } // signedNumerator()
+
   /**
    * Express this fraction as a double.
    *
@@ -136,6 +295,36 @@ public class BigFraction {
     return this.num.doubleValue() / this.denom.doubleValue();
   } // doubleValue()
 
+  /**
+   * Express this fraction as an exact decimal number, if possible.
+   *
+   * @return The fraction as a decimal number, or null if its decimal
+   *   expansion does not terminate, or its denominator is zero.
+   */
+  public BigDecimal toBigDecimal() {
+    if (this.denom.signum() == 0) {
+      return null;
+    } // if
+    BigInteger rest = this.denominator().abs();
+    int twos = rest.getLowestSetBit();
+    rest = rest.shiftRight(twos);
+    int fives = 0;
+    while (!rest.equals(BigInteger.ONE)) {
+      BigInteger[] quotRem = rest.divideAndRemainder(BigFraction.FIVE);
+      if (quotRem[1].signum() != 0) {
+        return null;
+      } // if
+      rest = quotRem[0];
+      fives++;
+    } // while
+
+    int scale = Math.max(twos, fives);
+    BigInteger unscaled = this.signedNumerator()
+        .shiftLeft(scale - twos)
+        .multiply(BigFraction.FIVE.pow(scale - fives));
+    return new BigDecimal(unscaled, scale);
+  } // toBigDecimal()
+
   /**
    * Add another faction to this fraction.
    *
@@ -145,9 +334,41 @@ public class BigFraction {
    * @return The result of the addition.
    */
   public BigFraction add(BigFraction addend) {
+    FractionEvent event = FractionEvent.start(this, addend);
+    BigFraction result = this.addUntraced(addend);
+    FractionEvent.finish(event, FractionEvent.ADD, result);
+    Budget.checkResult(result);
+    return result;
+  } // add(BigFraction)
+
+  /**
+   * Add another fraction to this fraction, without recording an event.
+   *
+   * @param addend
+   *   The fraction to add.
+   *
+   * @return The result of the addition.
+   */
+  private BigFraction addUntraced(BigFraction addend) {
     BigInteger resultNumerator;
     BigInteger resultDenominator;
 
+    if (BigFraction.isUnit(this.denom) && BigFraction.isUnit(addend.denom)) {
+      // Whole numbers need no common denominator, and no simplifying
+      return BigFraction.valueOfInteger(
+          this.signedNumerator().add(addend.signedNumerator()));
+    } // if
+
+    if (ParallelMultiplier.isLarge(this.num, this.denom)
+        || ParallelMultiplier.isLarge(addend.num, addend.denom)) {
+      // The three products are independent, so compute them at the same time
+      BigInteger[] products = ParallelMultiplier.multiplyPairs(
+          this.denom, addend.denom,
+          this.num, addend.denom,
+          addend.num, this.denom);
+      return new BigFraction(products[1].add(products[2]), products[0]);
+    } // if
+
     // The denominator of the result is the product of this object's
     // denominator and addend's denominator
     resultDenominator = this.denom.multiply(addend.denom);
@@ -157,7 +378,7 @@ public class BigFraction {
 
     // Return the computed value
     return new BigFraction(resultNumerator, resultDenominator);
-  } // add(BigFraction)
+  } // addUntraced(BigFraction)
 
   /**
    * Get the denominator of this fraction.
@@ -216,11 +437,34 @@ public class BigFraction {
    * @return The multiplied fraction.
    */
   public BigFraction multiply(BigFraction other) {
+    FractionEvent event = FractionEvent.start(this, other);
+    BigFraction result = this.multiplyUntraced(other);
+    FractionEvent.finish(event, FractionEvent.MULTIPLY, result);
+    Budget.checkResult(result);
+    return result;
+  } // multiply(BigFraction)
+
+  /**
+   * Multiply this fraction by another fraction, without recording an event.
+   *
+   * @param other
+   *   The fraction by which to multiply.
+   *
+   * @return The result of the multiplication.
+   */
+  private BigFraction multiplyUntraced(BigFraction other) {
+    if (ParallelMultiplier.isLarge(this.num, this.denom)
+        || ParallelMultiplier.isLarge(other.num, other.denom)) {
+      BigInteger[] products = ParallelMultiplier.multiplyPairs(
+          this.numerator(), other.numerator(),
+          this.denominator(), other.denominator());
+      return new BigFraction(products[0], products[1]);
+    } // if
     return new BigFraction(
         this.numerator().multiply(other.numerator()),
         this.denominator().multiply(other.denominator())
     );
-  } // multiply(BigFraction)
+  } // multiplyUntraced(BigFraction)
 
   /**
    * Returns the fractional portion of this fraction as a mixed number.
@@ -272,4 +516,219 @@ public class BigFraction {
   public BigFraction divide(BigFraction other) {
     return this.multiply(other.reciprocal());
   } // divide(BigFraction)
+
+  /**
+   * Determines whether this fraction is a whole number.
+   * @return Whether this fraction is a whole number.
+   */
+  public boolean isInteger() {
+    return BigFraction.isUnit(this.denom);
+  } // isInteger()
+
+  /**
+   * Bounds the bits in the numerator and denominator of a power of this
+   * fraction. Powers of 0, 1, and -1 are no larger than they are.
+   * @param exponent The power.
+   * @return The most bits in the numerator or denominator of the power.
+   */
+  private long powerBits(int exponent) {
+    int bits = this.bits();
+    return (bits <= 1) ? bits : bits * Math.abs((long) exponent);
+  } // powerBits(int)
+
+  /**
+   * Determines whether this fraction may be raised to a power, which is
+   * refused if its numerator or denominator could have more than
+   * MAX_POWER_BITS bits, or if the exponent cannot be negated.
+   * @param exponent The power.
+   * @return Whether pow(exponent) will compute the power.
+   */
+  boolean canPow(int exponent) {
+    return exponent != Integer.MIN_VALUE
+        && this.powerBits(exponent) <= BigFraction.MAX_POWER_BITS;
+  } // canPow(int)
+
+  /**
+   * Raises this fraction to an integer power.
+   *
+   * Since this fraction is always simplified, and the numerator and denominator
+   * share no factors, their powers share no factors either. Hence, the result
+   * does not need to be simplified again.
+   *
+   * Records a FractionEvent if this fraction is large; see Tracing.
+   *
+   * @param exponent The power to which to raise this fraction.
+   * @return This fraction raised to the power of exponent.
+   * @throws ArithmeticException If the power is too large to compute; see canPow.
+   */
+  public BigFraction pow(int exponent) {
+    // Refuse a power over budget before spending the time to compute it
+    Budget.checkBits(this.powerBits(exponent));
+    if (!this.canPow(exponent)) {
+      throw new ArithmeticException("Power too large");
+    } // if
+    FractionEvent event = FractionEvent.start(this, null);
+    BigFraction result = this.powUntraced(exponent);
+    FractionEvent.finish(event, FractionEvent.POWER, result);
+    return result;
+  } // pow(int)
+
+  /**
+   * Raises this fraction to an integer power, without recording an event.
+   *
+   * @param exponent The power to which to raise this fraction.
+   * @return This fraction raised to the power of exponent.
+   */
+  private BigFraction powUntraced(int exponent) {
+    if (exponent < 0) {
+      return this.reciprocal().pow(-exponent);
+    } // if
+
+    return new BigFraction(
+        this.numerator().pow(exponent),
+        this.denominator().pow(exponent),
+        true
+    );
+  } // powUntraced(int)
+
+  /**
+   * Returns the absolute value of this fraction.
+   * @return The absolute value of this fraction.
+   */
+  public BigFraction abs() {
+    if (this.denominator().signum() >= 0) {
+      return this;
+    } // if
+    return new BigFraction(this.numerator(), this.denominator().negate(), true);
+  } // abs()
+
+  /**
+   * Compares this fraction to another fraction.
+   * @param other The fraction to compare to this fraction.
+   * @return A negative number, zero, or a positive number if this fraction is
+   *   less than, equal to, or greater than other, respectively.
+   */
+  public int compareTo(BigFraction other) {
+    int sign = this.signum();
+    int otherSign = other.signum();
+    if (sign != otherSign) {
+      return Integer.compare(sign, otherSign);
+    } else if (sign == 0) {
+      return 0;
+    } // if-else chain
+
+    // The magnitude of num/denom lies in [2^(n - d - 1), 2^(n - d + 1)), where
+    // n and d are the bit lengths of num and denom. When the ranges of the two
+    // fractions do not overlap, the bit lengths decide the comparison.
+    BigInteger denomAbs = this.denominator().abs();
+    BigInteger otherDenomAbs = other.denominator().abs();
+    long scale = (long) this.numerator().bitLength() - denomAbs.bitLength();
+    long otherScale = (long) other.numerator().bitLength() - otherDenomAbs.bitLength();
+    if (scale - otherScale >= 2) {
+      return sign;
+    } else if (otherScale - scale >= 2) {
+      return -sign;
+    } // if-else chain
+
+    return sign * this.numerator().multiply(otherDenomAbs)
+        .compareTo(other.numerator().multiply(denomAbs));
+  } // compareTo(BigFraction)
+
+  /**
+   * Returns the sign of this fraction.
+   * @return -1, 0, or 1 if this fraction is negative, zero, or positive, respectively.
+   */
+  public int signum() {
+    return (this.numerator().signum() == 0) ? 0 : this.denominator().signum();
+  } // signum()
+
+  /**
+   * Finds the closest fraction to this fraction whose denominator is at most max.
+   *
+   * The search walks the continued-fraction expansion of this fraction, and
+   * picks between the last convergent that fits and the best semiconvergent
+   * after it.
+   *
+   * @param max The largest permitted denominator. Must be positive.
+   * @return The closest fraction to this fraction with a denominator of at most max.
+   */
+  public BigFraction limitDenominator(BigInteger max) {
+    if (this.denominator().abs().compareTo(max) <= 0) {
+      return this;
+    } // if
+
+    BigInteger n = this.numerator();
+    BigInteger d = this.denominator().abs();
+    BigInteger p0 = BigInteger.ZERO;
+    BigInteger q0 = BigInteger.ONE;
+    BigInteger p1 = BigInteger.ONE;
+    BigInteger q1 = BigInteger.ZERO;
+    while (true) {
+      BigInteger[] quotRem = n.divideAndRemainder(d);
+      BigInteger q2 = q0.add(quotRem[0].multiply(q1));
+      if (q2.compareTo(max) > 0) {
+        break;
+      } // if
+      BigInteger p2 = p0.add(quotRem[0].multiply(p1));
+      p0 = p1;
+      q0 = q1;
+      p1 = p2;
+      q1 = q2;
+      n = d;
+      d = quotRem[1];
+    } // while
+
+    BigInteger k = max.subtract(q0).divide(q1);
+    BigFraction lower = new BigFraction(p0.add(k.multiply(p1)), q0.add(k.multiply(q1)));
+    BigFraction upper = new BigFraction(p1, q1);
+    int sign = this.denominator().signum();
+    if (sign < 0) {
+      lower = lower.negate();
+      upper = upper.negate();
+    } // if
+
+    if (upper.subtract(this).abs().compareTo(lower.subtract(this).abs()) <= 0) {
+      return upper;
+    } // if
+    return lower;
+  } // limitDenominator(BigInteger)
+
+  /**
+   * Finds the first convergent of the continued-fraction expansion of this
+   * fraction that lies within tolerance of this fraction.
+   *
+   * @param tolerance The largest permitted distance from this fraction. Must be
+   *   non-negative.
+   * @return A fraction with a small denominator that is within tolerance of
+   *   this fraction.
+   */
+  public BigFraction bestApproximation(BigFraction tolerance) {
+    BigInteger n = this.numerator();
+    BigInteger d = this.denominator().abs();
+    BigInteger p0 = BigInteger.ZERO;
+    BigInteger q0 = BigInteger.ONE;
+    BigInteger p1 = BigInteger.ONE;
+    BigInteger q1 = BigInteger.ZERO;
+    BigFraction approximation = this;
+    while (d.signum() != 0) {
+      BigInteger[] quotRem = n.divideAndRemainder(d);
+      BigInteger p2 = p0.add(quotRem[0].multiply(p1));
+      BigInteger q2 = q0.add(quotRem[0].multiply(q1));
+      p0 = p1;
+      q0 = q1;
+      p1 = p2;
+      q1 = q2;
+      n = d;
+      d = quotRem[1];
+
+      approximation = new BigFraction(p1, q1);
+      if (this.denominator().signum() < 0) {
+        approximation = approximation.negate();
+      } // if
+      if (approximation.subtract(this).abs().compareTo(tolerance) <= 0) {
+        break;
+      } // if
+    } // while
+    return approximation;
+  } // bestApproximation(BigFraction)
 } // class BigFraction
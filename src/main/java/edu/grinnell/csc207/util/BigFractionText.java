@@ -0,0 +1,278 @@
+package edu.grinnell.csc207.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class reads and writes fractions as text, one character at a time,
+ * so that huge fractions never need to be held as one String.
+ *
+ * Digits are grouped into chunks of eighteen, each held in a long. Chunks
+ * are combined into a BigInteger (and split back out of one) by halves,
+ * so that most of the work is in a few large multiplications or divisions,
+ * which BigInteger performs in less than quadratic time.
+ *
+ * @author David William Stroud
+ */
+public final class BigFractionText {
+  /**
+   * The number of decimal digits in one chunk.
+   */
+  private static final int CHUNK_DIGITS = 18;
+  /**
+   * Ten to the power of CHUNK_DIGITS.
+   */
+  private static final long CHUNK_BASE = 1_000_000_000_000_000_000L;
+  /**
+   * The radix in which numbers are written.
+   */
+  private static final int RADIX = 10;
+  /**
+   * The initial number of chunks a literal may hold before growing.
+   */
+  private static final int INITIAL_CHUNKS = 16;
+  /**
+   * Integers below this many bits are written with BigInteger.toString.
+   */
+  private static final int SMALL_BITS = 4096;
+
+  /**
+   * The powers 10^(18 * 2^k) for k = 0, 1, 2, and so on, computed as needed.
+   */
+  private static BigInteger[] powers = {BigInteger.valueOf(BigFractionText.CHUNK_BASE)};
+
+  /**
+   * A source of characters.
+   */
+  private interface CharSource {
+    /**
+     * Reads the next character.
+     * @return The next character, or -1 at the end of the input.
+     * @throws IOException If the character cannot be read.
+     */
+    int next() throws IOException;
+  } // interface CharSource
+
+  private BigFractionText() { } // BigFractionText()
+
+  /**
+   * Returns 10^(18 * 2^k).
+   * @param k The exponent of the exponent.
+   * @return 10^(18 * 2^k).
+   */
+  private static synchronized BigInteger power(int k) {
+    if (k >= BigFractionText.powers.length) {
+      int old = BigFractionText.powers.length;
+      BigFractionText.powers = Arrays.copyOf(BigFractionText.powers, k + 1);
+      for (int i = old; i <= k; i++) {
+        BigFractionText.powers[i] =
+            BigFractionText.powers[i - 1].multiply(BigFractionText.powers[i - 1]);
+      } // for
+    } // if
+    return BigFractionText.powers[k];
+  } // power(int)
+
+  /**
+   * Reads a fraction, such as -22/7 or 42, from a reader. The character
+   * that ends the fraction, if any, is consumed. The reader should be buffered.
+   * @param in The reader.
+   * @return The fraction.
+   * @throws IOException If the reader fails.
+   * @throws NumberFormatException If the text is not a fraction.
+   */
+  public static BigFraction read(Reader in) throws IOException {
+    return BigFractionText.parse(in::read);
+  } // read(Reader)
+
+  /**
+   * Reads a fraction, such as -22/7 or 42, written in ASCII from a buffer.
+   * The character that ends the fraction, if any, is left in the buffer.
+   * @param in The buffer.
+   * @return The fraction.
+   * @throws NumberFormatException If the text is not a fraction.
+   */
+  public static BigFraction read(ByteBuffer in) {
+    try {
+      BigFraction result = BigFractionText.parse(
+          () -> in.hasRemaining() ? Byte.toUnsignedInt(in.get()) : -1);
+      if (in.position() > 0 && !BigFractionText.isDigit(in.get(in.position() - 1))) {
+        in.position(in.position() - 1);
+      } // if
+      return result;
+    } catch (IOException err) {
+      // Reading a ByteBuffer cannot fail
+      throw new IllegalStateException(err);
+    } // try-catch
+  } // read(ByteBuffer)
+
+  /**
+   * Determines whether c is a decimal digit.
+   * @param c The character.
+   * @return Whether c is a digit.
+   */
+  private static boolean isDigit(int c) {
+    return c >= '0' && c <= '9';
+  } // isDigit(int)
+
+  /**
+   * Reads a fraction.
+   * @param in The source of characters.
+   * @return The fraction.
+   * @throws IOException If the source fails.
+   */
+  private static BigFraction parse(CharSource in) throws IOException {
+    int[] next = {in.next()};
+    BigInteger numerator = BigFractionText.parseInteger(in, next);
+    BigInteger denominator = BigInteger.ONE;
+    if (next[0] == '/') {
+      next[0] = in.next();
+      denominator = BigFractionText.parseInteger(in, next);
+    } // if
+    return new BigFraction(numerator, denominator);
+  } // parse(CharSource)
+
+  /**
+   * Reads a whole number.
+   * @param in The source of characters.
+   * @param next Holds the first character of the number, and is updated to
+   *   hold the character after the number.
+   * @return The number.
+   * @throws IOException If the source fails.
+   */
+  private static BigInteger parseInteger(CharSource in, int[] next) throws IOException {
+    boolean negative = false;
+    if (next[0] == '-' || next[0] == '+') {
+      negative = next[0] == '-';
+      next[0] = in.next();
+    } // if
+    if (!BigFractionText.isDigit(next[0])) {
+      throw new NumberFormatException("Expected a digit");
+    } // if
+
+    long[] chunks = new long[BigFractionText.INITIAL_CHUNKS];
+    int count = 0;
+    long chunk = 0;
+    int digits = 0;
+    while (BigFractionText.isDigit(next[0])) {
+      chunk = chunk * BigFractionText.RADIX + (next[0] - '0');
+      digits++;
+      if (digits == BigFractionText.CHUNK_DIGITS) {
+        if (count == chunks.length) {
+          chunks = Arrays.copyOf(chunks, 2 * count);
+        } // if
+        chunks[count++] = chunk;
+        chunk = 0;
+        digits = 0;
+      } // if
+      next[0] = in.next();
+    } // while
+
+    BigInteger result;
+    if (count == 0) {
+      result = BigInteger.valueOf(chunk);
+    } else {
+      result = BigFractionText.combine(chunks, 0, count);
+      if (digits > 0) {
+        result = result.multiply(BigInteger.TEN.pow(digits)).add(BigInteger.valueOf(chunk));
+      } // if
+    } // if-else
+    return negative ? result.negate() : result;
+  } // parseInteger(CharSource, int[])
+
+  /**
+   * Combines chunks of eighteen digits into one number.
+   * @param chunks The chunks, most significant first.
+   * @param from The index of the first chunk to combine.
+   * @param to The index just past the last chunk to combine.
+   * @return The number written by the chunks.
+   */
+  private static BigInteger combine(long[] chunks, int from, int to) {
+    int count = to - from;
+    if (count == 1) {
+      return BigInteger.valueOf(chunks[from]);
+    } // if
+    // Split so that the low part has a power-of-two number of chunks
+    int lowCount = Integer.highestOneBit(count - 1);
+    int split = to - lowCount;
+    BigInteger high = BigFractionText.combine(chunks, from, split);
+    BigInteger low = BigFractionText.combine(chunks, split, to);
+    return high.multiply(BigFractionText.power(Integer.numberOfTrailingZeros(lowCount)))
+        .add(low);
+  } // combine(long[], int, int)
+
+  /**
+   * Writes a fraction in the same form as BigFraction.toString.
+   * @param value The fraction.
+   * @param out The writer.
+   * @throws IOException If the writer fails.
+   */
+  public static void write(BigFraction value, Writer out) throws IOException {
+    BigInteger numerator = value.numerator();
+    BigInteger denominator = value.denominator();
+    if (denominator.signum() < 0) {
+      numerator = numerator.negate();
+      denominator = denominator.negate();
+    } // if
+
+    if (numerator.signum() == 0) {
+      out.write('0');
+      return;
+    } // if
+    if (numerator.signum() < 0) {
+      out.write('-');
+    } // if
+    BigFractionText.writeInteger(numerator.abs(), out);
+    if (!denominator.equals(BigInteger.ONE)) {
+      out.write('/');
+      BigFractionText.writeInteger(denominator, out);
+    } // if
+  } // write(BigFraction, Writer)
+
+  /**
+   * Writes a non-negative whole number.
+   * @param value The number.
+   * @param out The writer.
+   * @throws IOException If the writer fails.
+   */
+  private static void writeInteger(BigInteger value, Writer out) throws IOException {
+    if (value.bitLength() < BigFractionText.SMALL_BITS) {
+      out.write(value.toString());
+      return;
+    } // if
+
+    int k = 0;
+    while (BigFractionText.power(k + 1).compareTo(value) <= 0) {
+      k++;
+    } // while
+    BigInteger[] quotRem = value.divideAndRemainder(BigFractionText.power(k));
+    BigFractionText.writeInteger(quotRem[0], out);
+    BigFractionText.writeChunks(quotRem[1], k, out);
+  } // writeInteger(BigInteger, Writer)
+
+  /**
+   * Writes a non-negative number below 10^(18 * 2^k), padded with zeros to
+   * exactly 18 * 2^k digits.
+   * @param value The number.
+   * @param k The exponent of the number of chunks.
+   * @param out The writer.
+   * @throws IOException If the writer fails.
+   */
+  private static void writeChunks(BigInteger value, int k, Writer out) throws IOException {
+    if (k == 0) {
+      String digits = Long.toString(value.longValue());
+      for (int i = digits.length(); i < BigFractionText.CHUNK_DIGITS; i++) {
+        out.write('0');
+      } // for
+      out.write(digits);
+      return;
+    } // if
+
+    BigInteger[] quotRem = value.divideAndRemainder(BigFractionText.power(k - 1));
+    BigFractionText.writeChunks(quotRem[0], k - 1, out);
+    BigFractionText.writeChunks(quotRem[1], k - 1, out);
+  } // writeChunks(BigInteger, int, Writer)
+} // class BigFractionText
@@ -0,0 +1,356 @@
+package edu.grinnell.csc207.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * This class represents the resources one command may use: wall time, the
+ * bits in each computed fraction, and bytes allocated by its thread.
+ *
+ * Budgets are enforced cooperatively. CommandExecutor starts a budget for
+ * each command on the thread that runs it, and checks it between operations;
+ * BigFraction checks the size of each sum and product, and refuses a power
+ * too large to fit, before computing it. A command over budget is stopped
+ * with a BudgetExceededException, which CommandExecutor reports as an error,
+ * so that one runaway command cannot stall every other command and session
+ * of the process.
+ *
+ * Work a command hands to other threads, such as fork-join tasks and
+ * parallel streams, is checked against the budget of the command only if
+ * it runs through call or run with the budget captured by current. Each
+ * such part gets a child budget with the same deadline and bits, which
+ * counts the bytes allocated by its own thread, and adds them to those of
+ * the command when the part finishes. Parts running at the same time may
+ * each use what is left, so they may overrun the bytes by a little before
+ * the command is stopped.
+ *
+ * Each budget is 0, meaning unlimited, unless set, and may also be given
+ * with the calculator.budgetMillis, calculator.budgetBits, and
+ * calculator.budgetBytes system properties.
+ *
+ * @author David William Stroud
+ */
+public final class Budget {
+  /**
+   * The number of nanoseconds in a millisecond.
+   */
+  private static final long NANOS_PER_MILLI = 1_000_000L;
+
+  /**
+   * The budget of the command running on each thread, if any.
+   */
+  private static final ThreadLocal<Budget> CURRENT = new ThreadLocal<>();
+  /**
+   * The source of the bytes allocated by each thread, or null if the JVM
+   * cannot count them.
+   */
+  private static final com.sun.management.ThreadMXBean THREADS = Budget.threads();
+
+  /**
+   * The most milliseconds a command may run, or 0 for no limit.
+   */
+  private static volatile long maxMillis = Long.getLong("calculator.budgetMillis", 0);
+  /**
+   * The most bits in the numerator or denominator of any fraction a command
+   * computes, or 0 for no limit.
+   */
+  private static volatile long maxBits = Long.getLong("calculator.budgetBits", 0);
+  /**
+   * The most bytes a command may allocate, or 0 for no limit.
+   */
+  private static volatile long maxBytes = Long.getLong("calculator.budgetBytes", 0);
+  /**
+   * Whether any budget is set.
+   */
+  private static volatile boolean enabled = Budget.anySet();
+
+  /**
+   * The budget started for the command, which is this budget unless this is
+   * the budget of part of the command running on another thread.
+   */
+  private final Budget root;
+  /**
+   * The thread running the command, if this is its root budget.
+   */
+  private final Thread owner;
+  /**
+   * The bytes allocated by parts of the command on other threads, once
+   * they finish, if this is a root budget.
+   */
+  private final LongAdder charged;
+  /**
+   * The bytes allocated by the thread when this budget started.
+   */
+  private final long startBytes;
+  /**
+   * The time by which the command must finish, as given by System.nanoTime.
+   */
+  private final long deadline;
+  /**
+   * The most bits in any fraction the command computes.
+   */
+  private final long bits;
+  /**
+   * The count of bytes allocated by the thread, together with the bytes
+   * charged to the root budget, past which the command must stop.
+   */
+  private final long bytes;
+
+  /**
+   * Creates the root budget of a command starting now on the current thread.
+   * @param deadline1 The time by which the command must finish.
+   * @param bits1 The most bits in any fraction the command computes.
+   * @param bytes1 The count of allocated bytes past which the command must stop.
+   */
+  private Budget(long deadline1, long bits1, long bytes1) {
+    this.root = this;
+    this.owner = Thread.currentThread();
+    this.charged = new LongAdder();
+    this.startBytes = 0;
+    this.deadline = deadline1;
+    this.bits = bits1;
+    this.bytes = bytes1;
+  } // Budget(long, long, long)
+
+  /**
+   * Creates the budget of part of a command starting now on the current
+   * thread, which may use whatever the command has left.
+   * @param root1 The root budget of the command.
+   */
+  private Budget(Budget root1) {
+    this.root = root1;
+    this.owner = null;
+    this.charged = null;
+    this.deadline = root1.deadline;
+    this.bits = root1.bits;
+    if (root1.bytes == Long.MAX_VALUE) {
+      this.startBytes = 0;
+      this.bytes = Long.MAX_VALUE;
+    } else {
+      // Leave this thread what the command's thread has not yet allocated,
+      // less what parts are charged, which check adds on both threads
+      long used = Budget.THREADS.getThreadAllocatedBytes(root1.owner.getId());
+      this.startBytes = Budget.THREADS.getCurrentThreadAllocatedBytes();
+      this.bytes = this.startBytes + root1.bytes - used;
+    } // if-else
+  } // Budget(Budget)
+
+  /**
+   * Finds the source of allocation counts, if the JVM has one.
+   * @return The thread bean, or null if it cannot count allocated bytes.
+   */
+  private static com.sun.management.ThreadMXBean threads() {
+    if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean bean =
+          (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+        return bean;
+      } // if
+    } // if
+    return null;
+  } // threads()
+
+  /**
+   * Determines whether any budget is set.
+   * @return Whether any budget is set.
+   */
+  private static boolean anySet() {
+    return Budget.maxMillis > 0 || Budget.maxBits > 0
+        || (Budget.maxBytes > 0 && Budget.THREADS != null);
+  } // anySet()
+
+  /**
+   * Sets the most milliseconds a command may run.
+   * @param millis The budget, or 0 for no limit.
+   */
+  public static void setMaxMillis(long millis) {
+    Budget.maxMillis = millis;
+    Budget.enabled = Budget.anySet();
+  } // setMaxMillis(long)
+
+  /**
+   * Returns the most milliseconds a command may run.
+   * @return The budget, or 0 for no limit.
+   */
+  public static long getMaxMillis() {
+    return Budget.maxMillis;
+  } // getMaxMillis()
+
+  /**
+   * Sets the most bits in the numerator or denominator of any fraction a
+   * command computes.
+   * @param bits1 The budget, or 0 for no limit.
+   */
+  public static void setMaxBits(long bits1) {
+    Budget.maxBits = bits1;
+    Budget.enabled = Budget.anySet();
+  } // setMaxBits(long)
+
+  /**
+   * Returns the most bits in the numerator or denominator of any fraction a
+   * command computes.
+   * @return The budget, or 0 for no limit.
+   */
+  public static long getMaxBits() {
+    return Budget.maxBits;
+  } // getMaxBits()
+
+  /**
+   * Sets the most bytes a command may allocate. Ignored if the JVM cannot
+   * count the bytes allocated by a thread.
+   * @param bytes1 The budget, or 0 for no limit.
+   */
+  public static void setMaxBytes(long bytes1) {
+    Budget.maxBytes = bytes1;
+    Budget.enabled = Budget.anySet();
+  } // setMaxBytes(long)
+
+  /**
+   * Returns the most bytes a command may allocate.
+   * @return The budget, or 0 for no limit.
+   */
+  public static long getMaxBytes() {
+    return Budget.maxBytes;
+  } // getMaxBytes()
+
+  /**
+   * Starts the budget of a command on the current thread, if any budget is set.
+   * @return The budget, or null if there is none.
+   */
+  static Budget start() {
+    if (!Budget.enabled) {
+      return null;
+    } // if
+    long millis = Budget.maxMillis;
+    long allowed = Budget.maxBytes;
+    Budget budget = new Budget(
+        (millis > 0) ? System.nanoTime() + millis * Budget.NANOS_PER_MILLI : Long.MAX_VALUE,
+        (Budget.maxBits > 0) ? Budget.maxBits : Long.MAX_VALUE,
+        (allowed > 0 && Budget.THREADS != null)
+            ? Budget.THREADS.getCurrentThreadAllocatedBytes() + allowed
+            : Long.MAX_VALUE);
+    Budget.CURRENT.set(budget);
+    return budget;
+  } // start()
+
+  /**
+   * Returns the budget of the command running on the current thread, to be
+   * handed to parts of the command run on other threads.
+   * @return The budget, or null if there is none.
+   */
+  static Budget current() {
+    return Budget.enabled ? Budget.CURRENT.get() : null;
+  } // current()
+
+  /**
+   * Runs part of a command, which may have been handed to another thread,
+   * under the budget of the command.
+   * @param <T> The type of the result of the part.
+   * @param budget The budget of the command, as returned by current, or null.
+   * @param part The part of the command.
+   * @return The result of the part.
+   * @throws BudgetExceededException If the command is over budget.
+   */
+  static <T> T call(Budget budget, Supplier<T> part) {
+    if (budget == null) {
+      return part.get();
+    } // if
+    Budget previous = Budget.CURRENT.get();
+    if (previous != null && previous.root == budget.root) {
+      // Already under the budget, as when a thread joining a task runs it
+      return part.get();
+    } // if
+    Budget child = new Budget(budget.root);
+    Budget.CURRENT.set(child);
+    try {
+      return part.get();
+    } finally {
+      if (child.bytes != Long.MAX_VALUE) {
+        budget.root.charged.add(Budget.THREADS.getCurrentThreadAllocatedBytes()
+            - child.startBytes);
+      } // if
+      if (previous == null) {
+        Budget.CURRENT.remove();
+      } else {
+        Budget.CURRENT.set(previous);
+      } // if-else
+    } // try-finally
+  } // call(Budget, Supplier<T>)
+
+  /**
+   * Runs part of a command, which may have been handed to another thread,
+   * under the budget of the command.
+   * @param budget The budget of the command, as returned by current, or null.
+   * @param part The part of the command.
+   * @throws BudgetExceededException If the command is over budget.
+   */
+  static void run(Budget budget, Runnable part) {
+    Budget.call(budget, () -> {
+      part.run();
+      return null;
+    });
+  } // run(Budget, Runnable)
+
+  /**
+   * Ends this budget, once its command has finished.
+   */
+  void finish() {
+    Budget.CURRENT.remove();
+  } // finish()
+
+  /**
+   * Stops the command if it has run out of time or allocated too much.
+   * @throws BudgetExceededException If the command is over budget.
+   */
+  void check() {
+    if (this.deadline != Long.MAX_VALUE && System.nanoTime() - this.deadline > 0) {
+      throw new BudgetExceededException(CommandError.TIME_BUDGET);
+    } // if
+    if (this.bytes != Long.MAX_VALUE && Budget.THREADS.getCurrentThreadAllocatedBytes()
+        + this.root.charged.sum() > this.bytes) {
+      throw new BudgetExceededException(CommandError.MEMORY_BUDGET);
+    } // if
+  } // check()
+
+  /**
+   * Stops the command on the current thread, if any, if it has run out of
+   * time or allocated too much.
+   * @throws BudgetExceededException If the command is over budget.
+   */
+  static void checkpoint() {
+    if (Budget.enabled) {
+      Budget budget = Budget.CURRENT.get();
+      if (budget != null) {
+        budget.check();
+      } // if
+    } // if
+  } // checkpoint()
+
+  /**
+   * Stops the command on the current thread, if any, if a fraction it
+   * computes or is about to compute has too many bits.
+   * @param resultBits The bits in the larger of the numerator and denominator.
+   * @throws BudgetExceededException If the fraction is over budget.
+   */
+  static void checkBits(long resultBits) {
+    if (Budget.enabled) {
+      Budget budget = Budget.CURRENT.get();
+      if (budget != null && resultBits > budget.bits) {
+        throw new BudgetExceededException(CommandError.BITS_BUDGET);
+      } // if
+    } // if
+  } // checkBits(long)
+
+  /**
+   * Stops the command on the current thread, if any, if a fraction it
+   * computed has too many bits.
+   * @param result The fraction.
+   * @throws BudgetExceededException If the fraction is over budget.
+   */
+  static void checkResult(BigFraction result) {
+    if (Budget.enabled) {
+      Budget.checkBits(result.bits());
+    } // if
+  } // checkResult(BigFraction)
+} // class Budget
@@ -0,0 +1,36 @@
+package edu.grinnell.csc207.util;
+
+/**
+ * This exception is thrown when a command uses more of a resource than its
+ * Budget allows, or would name more registers than the calculator allows.
+ *
+ * @author David William Stroud
+ */
+public class BudgetExceededException extends RuntimeException {
+  /**
+   * The version of the serialized form of this class.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The kind of budget that was exceeded.
+   */
+  private final CommandError code;
+
+  /**
+   * Creates an exception for a budget that was exceeded.
+   * @param code1 The error describing the budget.
+   */
+  public BudgetExceededException(CommandError code1) {
+    super(code1.getMessage());
+    this.code = code1;
+  } // BudgetExceededException(CommandError)
+
+  /**
+   * Returns the error describing the budget that was exceeded.
+   * @return The error.
+   */
+  public CommandError getCode() {
+    return this.code;
+  } // getCode()
+} // class BudgetExceededException
@@ -0,0 +1,68 @@
+package edu.grinnell.csc207.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class represents an error sink that writes the description of each
+ * error to a stream, buffering errors until it is flushed. It may be shared
+ * between threads.
+ *
+ * @author David William Stroud
+ */
+public class BufferedErrorSink implements ErrorSink {
+  /**
+   * The text written before the description of every error.
+   */
+  private static final String ERROR_PREFIX = "Error: ";
+  /**
+   * The text that follows every error.
+   */
+  private static final String LINE_SEPARATOR = System.lineSeparator();
+
+  /**
+   * The buffered destination of errors.
+   */
+  private final Writer out;
+
+  /**
+   * Creates an error sink writing to stream.
+   * @param stream The stream to which to write errors.
+   */
+  public BufferedErrorSink(OutputStream stream) {
+    this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+  } // BufferedErrorSink(OutputStream)
+
+  /**
+   * Buffers the description of an error.
+   * @param code The kind of error.
+   * @param command The command that caused the error.
+   * @param start The index in command at which the offending text starts.
+   * @param end The index in command just past the end of the offending text.
+   */
+  public synchronized void error(CommandError code, String command, int start, int end) {
+    try {
+      this.out.write(BufferedErrorSink.ERROR_PREFIX);
+      this.out.write(code.getMessage());
+      this.out.write(BufferedErrorSink.LINE_SEPARATOR);
+    } catch (IOException err) {
+      throw new UncheckedIOException(err);
+    } // try-catch
+  } // error(CommandError, String, int, int)
+
+  /**
+   * Writes out every buffered error.
+   */
+  public synchronized void flush() {
+    try {
+      this.out.flush();
+    } catch (IOException err) {
+      throw new UncheckedIOException(err);
+    } // try-catch
+  } // flush()
+} // class BufferedErrorSink
@@ -0,0 +1,115 @@
+package edu.grinnell.csc207.util;
+
+/**
+ * The kinds of errors that a calculator command can cause.
+ *
+ * @author David William Stroud
+ */
+public enum CommandError {
+  /**
+   * A STORE command was not followed by exactly one register.
+   */
+  STORE_FORMAT("STORE command not in format STORE <register>."),
+  /**
+   * A STORE command named something that is not a register.
+   */
+  INVALID_REGISTER("Invalid register in STORE command."),
+  /**
+   * A LIMIT command was not followed by a whole number.
+   */
+  LIMIT_FORMAT("LIMIT command not in format LIMIT <denominator>."),
+  /**
+   * A LIMIT command was followed by zero or a negative number.
+   */
+  NONPOSITIVE_LIMIT("Denominator limit must be positive."),
+  /**
+   * A DECIMAL command was followed by something other than ON or OFF.
+   */
+  DECIMAL_FORMAT("DECIMAL command not in format DECIMAL ON or DECIMAL OFF."),
+  /**
+   * A word in an expression is neither an operator, a register, nor a number.
+   */
+  NOT_A_NUMBER("Expected number but found non-number."),
+  /**
+   * An expression started with an operator.
+   */
+  FIRST_NOT_NUMERIC("First token is not numeric."),
+  /**
+   * An expression ended with an operator.
+   */
+  UNFINISHED("Command ended mid-instruction."),
+  /**
+   * An operator was followed by something other than a number or register.
+   */
+  EXPECTED_NUMERIC("Non-numeric token given when numeric token was expected."),
+  /**
+   * A number or register was followed by something other than an operator.
+   */
+  EXPECTED_OPERATOR("Non-operator token given when operator token was expected."),
+  /**
+   * An expression contained no tokens.
+   */
+  EMPTY_COMMAND("Empty command given."),
+  /**
+   * The ^ operator was given an exponent that is not a small whole number.
+   */
+  INVALID_EXPONENT("Exponent must be an integer."),
+  /**
+   * An IF was not followed by a THEN and an ELSE.
+   */
+  CONDITIONAL_FORMAT("IF expression not in format "
+      + "IF <condition> THEN <expression> ELSE <expression>."),
+  /**
+   * A matrix command was not followed by rows of numbers of the right shape.
+   */
+  MATRIX_FORMAT("Matrix not in format <row> | <row> | ..., with rows of equal length."),
+  /**
+   * A matrix to be inverted or solved has no inverse.
+   */
+  SINGULAR_MATRIX("Matrix is singular."),
+  /**
+   * A REPEAT was not followed by a count and at least one statement.
+   */
+  REPEAT_FORMAT("REPEAT command not in format REPEAT <count> [PRINT] <statements>."),
+  /**
+   * A command ran longer than its time budget.
+   */
+  TIME_BUDGET("Command ran out of time."),
+  /**
+   * A command computed a fraction with more bits than its budget allows.
+   */
+  BITS_BUDGET("Command computed a value too large."),
+  /**
+   * A command allocated more memory than its budget allows.
+   */
+  MEMORY_BUDGET("Command ran out of memory."),
+  /**
+   * A POLY was not followed by coefficients, a bar, and points.
+   */
+  POLY_FORMAT("POLY command not in format POLY <coefficients> | <points>."),
+  /**
+   * A power would be too large to compute.
+   */
+  POWER_TOO_LARGE("Power too large to compute."),
+  /**
+   * A new register name would exceed the limit on register names.
+   */
+  TOO_MANY_NAMES("Too many register names.");
+
+  /**
+   * The human-readable description of this error.
+   */
+  private final String message;
+
+  CommandError(String message1) {
+    this.message = message1;
+  } // CommandError(String)
+
+  /**
+   * Returns the human-readable description of this error.
+   * @return The description of this error.
+   */
+  public String getMessage() {
+    return this.message;
+  } // getMessage()
+} // enum CommandError
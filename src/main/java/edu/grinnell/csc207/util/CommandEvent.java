@@ -0,0 +1,115 @@
+package edu.grinnell.csc207.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * This class represents a Java Flight Recorder event for one command run by
+ * a CommandExecutor. The time of each phase is summed over every statement
+ * of the command.
+ *
+ * @author David William Stroud
+ */
+@Name("edu.grinnell.csc207.Command")
+@Label("Calculator Command")
+@Category("Calculator")
+@Description("A command run by a CommandExecutor")
+final class CommandEvent extends Event {
+  /**
+   * The hash code of the text of the command.
+   */
+  @Label("Command Hash")
+  private int commandHash;
+
+  /**
+   * The time spent parsing the command.
+   */
+  @Label("Parse Time")
+  @Timespan(Timespan.NANOSECONDS)
+  private long parseNanos;
+
+  /**
+   * The time spent evaluating the command.
+   */
+  @Label("Evaluate Time")
+  @Timespan(Timespan.NANOSECONDS)
+  private long evaluateNanos;
+
+  /**
+   * The time spent writing or queueing the output of the command.
+   */
+  @Label("Output Time")
+  @Timespan(Timespan.NANOSECONDS)
+  private long outputNanos;
+
+  /**
+   * The number of bits in the numerator and denominator of the last result.
+   */
+  @Label("Result Bits")
+  private int resultBits;
+
+  /**
+   * Starts an event for a command, if it is sampled and the event is enabled.
+   * @param command The command.
+   * @param count The number of commands the executor has run, including this one.
+   * @return The started event, or null if the command is not recorded.
+   */
+  static CommandEvent start(String command, long count) {
+    if (count % Tracing.getSampleInterval() != 0) {
+      return null;
+    } // if
+    CommandEvent event = new CommandEvent();
+    if (!event.isEnabled()) {
+      return null;
+    } // if
+    event.commandHash = command.hashCode();
+    event.begin();
+    return event;
+  } // start(String, long)
+
+  /**
+   * Adds to the time spent parsing the command.
+   * @param nanos The time spent, in nanoseconds.
+   */
+  void addParse(long nanos) {
+    this.parseNanos += nanos;
+  } // addParse(long)
+
+  /**
+   * Adds to the time spent evaluating the command.
+   * @param nanos The time spent, in nanoseconds.
+   */
+  void addEvaluate(long nanos) {
+    this.evaluateNanos += nanos;
+  } // addEvaluate(long)
+
+  /**
+   * Adds to the time spent writing or queueing the output of the command.
+   * @param nanos The time spent, in nanoseconds.
+   */
+  void addOutput(long nanos) {
+    this.outputNanos += nanos;
+  } // addOutput(long)
+
+  /**
+   * Records the bits of a result of the command.
+   * @param result The result.
+   */
+  void result(BigFraction result) {
+    this.resultBits = result.numerator().bitLength() + result.denominator().bitLength();
+  } // result(BigFraction)
+
+  /**
+   * Ends the event and records it, if it passes the recording's thresholds.
+   */
+  void finish() {
+    this.end();
+    if (this.shouldCommit()) {
+      this.commit();
+    } // if
+  } // finish()
+} // class CommandEvent
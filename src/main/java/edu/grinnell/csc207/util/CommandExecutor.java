@@ -1,6 +1,14 @@
 package edu.grinnell.csc207.util;
 
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * This class executes calculator commands.
@@ -11,11 +19,68 @@ public class CommandExecutor {
   /**
    * The prefix for the STORE command.
    */
-  private static final String STORE_PREFIX = "STORE ";
+  static final String STORE_PREFIX = "STORE ";
+  /**
+   * The prefix for the LIMIT command.
+   */
+  static final String LIMIT_PREFIX = "LIMIT ";
+  /**
+   * The prefix for the DECIMAL command.
+   */
+  static final String DECIMAL_PREFIX = "DECIMAL ";
+  /**
+   * The prefix for the DET command, which computes a determinant.
+   */
+  static final String DETERMINANT_PREFIX = "DET ";
+  /**
+   * The prefix for the INV command, which inverts a matrix.
+   */
+  static final String INVERSE_PREFIX = "INV ";
+  /**
+   * The prefix for the SOLVE command, which solves a linear system given
+   * as an augmented matrix.
+   */
+  static final String SOLVE_PREFIX = "SOLVE ";
+  /**
+   * The prefix for the POLY command, which evaluates a polynomial at one
+   * or more points.
+   */
+  static final String POLY_PREFIX = "POLY ";
+  /**
+   * The prefix for the REPEAT command, which runs the rest of the line
+   * a number of times.
+   */
+  static final String REPEAT_PREFIX = "REPEAT ";
+  /**
+   * The word after the count of a REPEAT command that prints the result of
+   * every statement, rather than only the last.
+   */
+  private static final String PRINT_PREFIX = "PRINT ";
+  /**
+   * The prefix of the line of saved state holding the most recently
+   * computed value.
+   */
+  private static final String LAST_PREFIX = "LAST ";
+  /**
+   * The most digits in the count of a REPEAT command, so that it fits in a long.
+   */
+  private static final int MAX_COUNT_DIGITS = 18;
+  /**
+   * The argument to a mode command that turns the mode on.
+   */
+  static final String MODE_ON = "ON";
+  /**
+   * The argument to a mode command that turns the mode off.
+   */
+  static final String MODE_OFF = "OFF";
+  /**
+   * The text separating statements on one line.
+   */
+  static final char STATEMENT_SEPARATOR = ';';
   /**
    * The text for the QUIT command.
    */
-  private static final String QUIT_COMMAND = "QUIT";
+  static final String QUIT_COMMAND = "QUIT";
 
   /**
    * The registers for this set of commands.
@@ -23,104 +88,994 @@ public class CommandExecutor {
   private final BFRegisterSet registers = new BFRegisterSet();
   /**
    * The calculator for this set of commands,
-   * which will be replaced at the start of every expression.
+   * which will be reset at the start of every expression.
+   */
+  private final BFCalculator calculator = new BFCalculator();
+  /**
+   * The largest denominator that computed values may have before being
+   * approximated, or null if computed values are kept exact.
+   */
+  private BigInteger maxDenominator = null;
+  /**
+   * Whether decimal operands are added, subtracted, and multiplied as
+   * scaled integers rather than as fractions.
+   */
+  private boolean decimalMode = false;
+  /**
+   * The pipeline receiving the output of the command being executed,
+   * or null if output is printed directly.
+   */
+  private OutputPipeline pipeline = null;
+  /**
+   * The writer receiving the output of the command being executed,
+   * or null if output goes to a pipeline.
+   */
+  private PrintWriter currentPen = null;
+  /**
+   * The number of commands this executor has started.
+   */
+  private long commandCount = 0;
+  /**
+   * The flight recorder event for the command being executed, or null if
+   * it is not being recorded.
+   */
+  private CommandEvent event = null;
+  /**
+   * The budget of the command being executed, or null if there is none.
+   */
+  private Budget budget = null;
+  /**
+   * The sink receiving errors when output is printed directly.
+   */
+  private final ErrorSink errors;
+  /**
+   * The cache of parsed expressions, or null if expressions are always parsed.
+   */
+  private final ParseCache parseCache;
+  /**
+   * Whether the QUIT command exits the program, rather than only this executor.
+   */
+  private final boolean exitOnQuit;
+  /**
+   * Whether the QUIT command has been executed.
+   */
+  private boolean quit = false;
+
+  /**
+   * Creates a CommandExecutor that reports errors to System.err.
+   */
+  public CommandExecutor() {
+    this(new BufferedErrorSink(System.err));
+  } // CommandExecutor()
+
+  /**
+   * Creates a CommandExecutor that reports errors to errors1.
+   * @param errors1 The sink to which to report errors.
+   */
+  public CommandExecutor(ErrorSink errors1) {
+    this(errors1, null, true);
+  } // CommandExecutor(ErrorSink)
+
+  /**
+   * Creates a CommandExecutor that reports errors to errors1 and parses
+   * expressions through parseCache1.
+   * @param errors1 The sink to which to report errors.
+   * @param parseCache1 The cache of parsed expressions to use, or null to
+   *   always parse expressions.
+   * @param exitOnQuit1 Whether the QUIT command exits the program. If not,
+   *   QUIT only stops this executor, which then ignores further statements
+   *   on the same line and reports that it has quit.
+   */
+  public CommandExecutor(ErrorSink errors1, ParseCache parseCache1, boolean exitOnQuit1) {
+    this.errors = errors1;
+    this.parseCache = parseCache1;
+    this.exitOnQuit = exitOnQuit1;
+  } // CommandExecutor(ErrorSink, ParseCache, boolean)
+
+
+  /**
+   * Returns whether the QUIT command has been executed.
+   * @return Whether the QUIT command has been executed.
+   */
+  public boolean hasQuit() {
+    return this.quit;
+  } // hasQuit()
+
+  /**
+   * Writes the state of this executor: its modes, its most recently
+   * computed value, and every register that is not zero, one per line.
+   * @param out The writer to which to write the state.
+   * @throws IOException If the state cannot be written.
+   */
+  public void saveState(Writer out) throws IOException {
+    if (this.maxDenominator != null) {
+      out.write(CommandExecutor.LIMIT_PREFIX + this.maxDenominator + "\n");
+    } // if
+    if (this.decimalMode) {
+      out.write(CommandExecutor.DECIMAL_PREFIX + CommandExecutor.MODE_ON + "\n");
+    } // if
+    BigFraction last = this.calculator.get();
+    if (last.numerator().signum() != 0) {
+      out.write(CommandExecutor.LAST_PREFIX + last + "\n");
+    } // if
+    for (int slot = 0; slot < this.registers.size(); slot++) {
+      BigFraction value = this.registers.get(slot);
+      if (value.signum() != 0) {
+        out.write(SymbolTable.name(slot) + " " + value + "\n");
+      } // if
+    } // for
+  } // saveState(Writer)
+
+  /**
+   * Restores state written by saveState.
+   * @param in The reader from which to read the state.
+   * @throws IOException If the state cannot be read.
+   * @throws BudgetExceededException If the state names more registers than
+   *   BFRegisterSet.getMaxNames allows.
+   */
+  public void restoreState(BufferedReader in) throws IOException {
+    String line = in.readLine();
+    while (line != null) {
+      if (line.startsWith(CommandExecutor.LIMIT_PREFIX)) {
+        this.maxDenominator =
+            new BigInteger(line.substring(CommandExecutor.LIMIT_PREFIX.length()));
+      } else if (line.startsWith(CommandExecutor.DECIMAL_PREFIX)) {
+        this.decimalMode = true;
+      } else if (line.startsWith(CommandExecutor.LAST_PREFIX)) {
+        this.calculator.reset(
+            new BigFraction(line.substring(CommandExecutor.LAST_PREFIX.length())),
+            this.maxDenominator);
+      } else if (!line.isEmpty()) {
+        int space = line.indexOf(' ');
+        this.registers.store(SymbolTable.intern(line.substring(0, space)),
+            new BigFraction(line.substring(space + 1)));
+      } // if-else chain
+      line = in.readLine();
+    } // while
+    this.registers.publish();
+  } // restoreState(BufferedReader)
+
+  /**
+   * Returns the registers as of the end of the most recent command. May be
+   * called from any thread, even while a command runs, without waiting for it.
+   * @return A snapshot of every register.
    */
-  private BFCalculator calculator = null;
+  public BFRegisterSet.Snapshot snapshot() {
+    return this.registers.snapshot();
+  } // snapshot()
+
+  /**
+   * Runs a DET, INV, or SOLVE command, reporting any errors. DET leaves the
+   * determinant as the most recently computed value, so it can be stored.
+   * @param command The command to be run.
+   * @param trimmed The command, without leading and trailing whitespace.
+   * @param offset The index in command at which trimmed starts.
+   * @return The determinant, inverse, or solution, or null if the command fails.
+   */
+  private Object runMatrix(String command, String trimmed, int offset) {
+    String prefix;
+    if (trimmed.startsWith(CommandExecutor.DETERMINANT_PREFIX)) {
+      prefix = CommandExecutor.DETERMINANT_PREFIX;
+    } else if (trimmed.startsWith(CommandExecutor.INVERSE_PREFIX)) {
+      prefix = CommandExecutor.INVERSE_PREFIX;
+    } else {
+      prefix = CommandExecutor.SOLVE_PREFIX;
+    } // if-else chain
+    int start = offset + prefix.length();
+    int end = offset + trimmed.length();
+    BigFraction[][] rows = this.parseMatrix(command, start, end);
+    if (rows == null) {
+      return null;
+    } // if
+
+    int n = rows.length;
+    boolean solve = prefix.equals(CommandExecutor.SOLVE_PREFIX);
+    if (rows[0].length != (solve ? n + 1 : n)) {
+      this.reportError(CommandError.MATRIX_FORMAT, command, start, end);
+      return null;
+    } // if
+    try {
+      if (prefix.equals(CommandExecutor.DETERMINANT_PREFIX)) {
+        this.calculator.reset(new Matrix(rows).determinant(), this.maxDenominator);
+        return this.calculator.get();
+      } else if (!solve) {
+        return new Matrix(rows).inverse();
+      } // if-else
+      BigFraction[][] left = new BigFraction[n][];
+      BigFraction[][] right = new BigFraction[n][];
+      for (int i = 0; i < n; i++) {
+        left[i] = Arrays.copyOf(rows[i], n);
+        right[i] = new BigFraction[] {rows[i][n]};
+      } // for
+      return new Matrix(left).solve(new Matrix(right));
+    } catch (ArithmeticException err) {
+      this.reportError(CommandError.SINGULAR_MATRIX, command, start, end);
+      return null;
+    } // try-catch
+  } // runMatrix(String, String, int)
 
   /**
-   * Creates a CommandExecutor.
+   * Parses the rows of a matrix, separated by bars, from part of a command,
+   * reporting any errors. Entries may be numbers or registers.
+   * @param command The command containing the matrix.
+   * @param start The index in command at which the matrix starts.
+   * @param end The index in command just past the end of the matrix.
+   * @return The entries of the matrix, by row, or null if they are not
+   *   rows of numbers of equal length.
    */
-  public CommandExecutor() { } // CommandExecutor()
+  private BigFraction[][] parseMatrix(String command, int start, int end) {
+    List<BigFraction[]> rows = new ArrayList<>();
+    int rowStart = start;
+    while (rowStart <= end) {
+      int bar = command.indexOf(Matrix.ROW_SEPARATOR, rowStart);
+      int rowEnd = (bar == -1 || bar > end) ? end : bar;
+      int from = rowStart;
+      int to = rowEnd;
+      while (from < to && command.charAt(from) == ' ') {
+        from++;
+      } // while
+      while (to > from && command.charAt(to - 1) == ' ') {
+        to--;
+      } // while
+      if (from == to) {
+        this.reportError(CommandError.MATRIX_FORMAT, command, start, end);
+        return null;
+      } // if
 
+      BigFraction[] row = this.parseRow(command, from, to);
+      if (row == null) {
+        return null;
+      } // if
+      if (!rows.isEmpty() && row.length != rows.get(0).length) {
+        this.reportError(CommandError.MATRIX_FORMAT, command, from, to);
+        return null;
+      } // if
+      rows.add(row);
+      rowStart = rowEnd + 1;
+    } // while
+    return rows.toArray(new BigFraction[rows.size()][]);
+  } // parseMatrix(String, int, int)
 
   /**
-   * Applies the operation represented by token on first and second.
+   * Parses a row of numbers or registers, separated by spaces, from part of
+   * a command, reporting any errors.
+   * @param command The command containing the row.
+   * @param start The index in command at which the row starts.
+   * @param end The index in command just past the end of the row.
+   * @return The numbers, which are none if the row is blank, or null if
+   *   the row holds anything else.
+   */
+  private BigFraction[] parseRow(String command, int start, int end) {
+    int from = start;
+    int to = end;
+    while (from < to && command.charAt(from) == ' ') {
+      from++;
+    } // while
+    while (to > from && command.charAt(to - 1) == ' ') {
+      to--;
+    } // while
+    if (from == to) {
+      return new BigFraction[0];
+    } // if
+
+    int base = from;
+    Token[] tokens = Token.parse(command.substring(from, to),
+        (code, row, rowFrom, rowTo) ->
+            this.reportError(code, command, base + rowFrom, base + rowTo));
+    if (tokens == null) {
+      return null;
+    } // if
+    BigFraction[] row = new BigFraction[tokens.length];
+    for (int j = 0; j < tokens.length; j++) {
+      if (!tokens[j].isNumeric()) {
+        this.reportError(CommandError.EXPECTED_NUMERIC, command,
+            base + tokens[j].getStart(), base + tokens[j].getEnd());
+        return null;
+      } // if
+      row[j] = tokens[j].getAsFraction(this.registers);
+    } // for
+    return row;
+  } // parseRow(String, int, int)
+
+  /**
+   * Runs a POLY command, reporting any errors. The coefficients, from the
+   * highest power down, come before a bar and the points after it. With one
+   * point, its value is left as the most recently computed value, so it can
+   * be stored; with several, their values are given as a row.
+   * @param command The command to be run.
+   * @param trimmed The command, without leading and trailing whitespace.
+   * @param offset The index in command at which trimmed starts.
+   * @return The value at the point, a Matrix of the values at the points,
+   *   or null if the command fails.
+   */
+  private Object runPolynomial(String command, String trimmed, int offset) {
+    int start = offset + CommandExecutor.POLY_PREFIX.length();
+    int end = offset + trimmed.length();
+    int bar = command.indexOf(Matrix.ROW_SEPARATOR, start);
+    if (bar == -1 || bar >= end || command.indexOf(Matrix.ROW_SEPARATOR, bar + 1) != -1) {
+      this.reportError(CommandError.POLY_FORMAT, command, start, end);
+      return null;
+    } // if
+    BigFraction[] coefficients = this.parseRow(command, start, bar);
+    if (coefficients == null) {
+      return null;
+    } // if
+    BigFraction[] points = this.parseRow(command, bar + 1, end);
+    if (points == null) {
+      return null;
+    } else if (coefficients.length == 0 || points.length == 0) {
+      this.reportError(CommandError.POLY_FORMAT, command, start, end);
+      return null;
+    } // if-else chain
+
+    Polynomial polynomial = new Polynomial(coefficients);
+    if (points.length == 1) {
+      this.calculator.reset(polynomial.evaluate(points[0]), this.maxDenominator);
+      return this.calculator.get();
+    } // if
+    return new Matrix(new BigFraction[][] {polynomial.evaluate(points)});
+  } // runPolynomial(String, String, int)
+
+  /**
+   * Determines whether val may be used as an exponent.
+   * @param val The proposed exponent.
+   * @return Whether val is a whole number small enough to be an exponent.
+   */
+  static boolean isValidExponent(BigFraction val) {
+    return val.isInteger() && val.numerator().bitLength() < Integer.SIZE;
+  } // isValidExponent(BigFraction)
+
+  /**
+   * Converts a valid exponent to an int.
+   * @param val The exponent, for which isValidExponent holds.
+   * @return The exponent.
+   */
+  static int exponent(BigFraction val) {
+    return val.numerator().intValue() * val.denominator().signum();
+  } // exponent(BigFraction)
+
+  /**
+   * Applies the operation represented by token on the value in calculator and second.
+   * @param calculator The calculator holding the first fraction in the operation.
    * @param token The token reperesenting the operation.
    * @param second The second fraction in the operation.
    */
-  private void applyOperation(Token token, BigFraction second) {
+  static void applyOperation(BFCalculator calculator, Token token, BigFraction second) {
+    if (token.getType() == Token.TokenType.ADD) {
+      calculator.add(second);
+    } else if (token.getType() == Token.TokenType.SUBTRACT) {
+      calculator.subtract(second);
+    } else if (token.getType() == Token.TokenType.MULTIPLY) {
+      calculator.multiply(second);
+    } else if (token.getType() == Token.TokenType.DIVIDE) {
+      calculator.divide(second);
+    } else if (token.getType() == Token.TokenType.POWER) {
+      calculator.power(CommandExecutor.exponent(second));
+    } else if (token.getType() == Token.TokenType.LESS) {
+      calculator.lessThan(second);
+    } else if (token.getType() == Token.TokenType.GREATER) {
+      calculator.greaterThan(second);
+    } else if (token.getType() == Token.TokenType.EQUAL) {
+      calculator.equalTo(second);
+    } else if (token.getType() == Token.TokenType.MIN) {
+      calculator.min(second);
+    } else if (token.getType() == Token.TokenType.MAX) {
+      calculator.max(second);
+    } // if-else chain
+  } // applyOperation(BFCalculator, Token, BigFraction)
+
+  /**
+   * Applies the operation represented by token on the most recently computed
+   * value and operand, whose value fits in longs, if there is a kernel for it.
+   * @param token The token reperesenting the operation.
+   * @param operand The token holding the second number in the operation.
+   * @return Whether the operation was applied.
+   */
+  private boolean applySmallOperation(Token token, Token operand) {
+    long numerator = operand.smallNumerator(this.registers);
+    long denominator = operand.smallDenominator(this.registers);
+    if (token.getType() == Token.TokenType.ADD) {
+      this.calculator.add(numerator, denominator);
+    } else if (token.getType() == Token.TokenType.SUBTRACT) {
+      this.calculator.subtract(numerator, denominator);
+    } else if (token.getType() == Token.TokenType.MULTIPLY) {
+      this.calculator.multiply(numerator, denominator);
+    } else if (token.getType() == Token.TokenType.DIVIDE) {
+      this.calculator.divide(numerator, denominator);
+    } else {
+      return false;
+    } // if-else chain
+    return true;
+  } // applySmallOperation(Token, Token)
+
+  /**
+   * Applies the operation represented by token on the most recently computed
+   * value and second, in decimal form, if the operation is exact in decimal form.
+   * @param token The token reperesenting the operation.
+   * @param second The second number in the operation.
+   * @return Whether the operation was applied.
+   */
+  private boolean applyDecimalOperation(Token token, BigDecimal second) {
     if (token.getType() == Token.TokenType.ADD) {
       this.calculator.add(second);
     } else if (token.getType() == Token.TokenType.SUBTRACT) {
       this.calculator.subtract(second);
     } else if (token.getType() == Token.TokenType.MULTIPLY) {
       this.calculator.multiply(second);
-    } else if (token.getType() == Token.TokenType.DIVIDE) {
-      this.calculator.divide(second);
+    } else {
+      return false;
     } // if-else chain
-  } // applyOperation(Token, BigFraction)
+    return true;
+  } // applyDecimalOperation(Token, BigDecimal)
 
   /**
-   * Executes a command.
+   * Reports an error in the current command.
+   * @param code The kind of error.
+   * @param command The command that caused the error.
+   * @param start The index in command at which the offending text starts.
+   * @param end The index in command just past the end of the offending text.
+   */
+  private void reportError(CommandError code, String command, int start, int end) {
+    if (this.pipeline == null) {
+      this.errors.error(code, command, start, end);
+    } else {
+      this.pipeline.error(code, command, start, end);
+    } // if-else
+  } // reportError(CommandError, String, int, int)
+
+  /**
+   * Executes a command, which may hold several statements separated by
+   * semicolons. Output is flushed once, after every statement has run.
    * @param command The command to be executed.
    * @param printCommand Whether to print the command before the command output.
    * @param pen The PrintWriter to use to print output, if needed.
    */
   public void execute(String command, boolean printCommand, PrintWriter pen) {
+    this.currentPen = pen;
+    this.event = CommandEvent.start(command, ++this.commandCount);
+    this.budget = Budget.start();
+    try {
+      this.executeStatements(command, printCommand);
+    } finally {
+      this.registers.publish();
+      this.finishBudget();
+      this.currentPen = null;
+      this.finishEvent();
+    } // try-finally
+    this.errors.flush();
+    pen.flush();
+  } // execute(String, boolean, PrintWriter)
+
+  /**
+   * Executes a command, handing its output and errors to an output pipeline
+   * to be formatted and written on another thread.
+   * @param command The command to be executed.
+   * @param printCommand Whether to print the command before the command output.
+   * @param output The pipeline to which to send output and errors.
+   */
+  public void execute(String command, boolean printCommand, OutputPipeline output) {
+    this.pipeline = output;
+    this.event = CommandEvent.start(command, ++this.commandCount);
+    this.budget = Budget.start();
+    try {
+      this.executeStatements(command, printCommand);
+    } finally {
+      this.registers.publish();
+      this.finishBudget();
+      this.pipeline = null;
+      this.finishEvent();
+    } // try-finally
+  } // execute(String, boolean, OutputPipeline)
+
+  /**
+   * Records the event for the command being executed, if there is one.
+   */
+  private void finishEvent() {
+    if (this.event != null) {
+      this.event.finish();
+      this.event = null;
+    } // if
+  } // finishEvent()
+
+  /**
+   * Ends the budget of the command being executed, if there is one.
+   */
+  private void finishBudget() {
+    if (this.budget != null) {
+      this.budget.finish();
+      this.budget = null;
+    } // if
+  } // finishBudget()
+
+  /**
+   * Returns the current time, if the command being executed is being recorded.
+   * @return The current time in nanoseconds, or 0 if there is no event.
+   */
+  private long eventTime() {
+    return (this.event == null) ? 0 : System.nanoTime();
+  } // eventTime()
+
+  /**
+   * Runs each statement of a command in turn, sending each result to the
+   * current output. Blank statements are skipped, and a REPEAT statement
+   * takes the rest of the command as its body. A command over budget stops
+   * with an error covering the whole command.
+   * @param command The command to be executed.
+   * @param printCommand Whether to print each statement before its output.
+   */
+  private void executeStatements(String command, boolean printCommand) {
+    try {
+      this.runStatements(command, printCommand);
+    } catch (BudgetExceededException e) {
+      this.reportError(e.getCode(), command, 0, command.length());
+    } // try-catch
+  } // executeStatements(String, boolean)
+
+  /**
+   * Runs each statement of a command in turn, as executeStatements does,
+   * letting an exceeded budget propagate.
+   * @param command The command to be executed.
+   * @param printCommand Whether to print each statement before its output.
+   */
+  private void runStatements(String command, boolean printCommand) {
+    int separator = command.indexOf(CommandExecutor.STATEMENT_SEPARATOR);
+    if (separator == -1 && !CommandExecutor.isRepeat(command, 0)) {
+      this.output(command.trim(), printCommand, this.run(command));
+      return;
+    } // if
+
+    int start = 0;
+    while (start <= command.length() && !this.quit) {
+      if (CommandExecutor.isRepeat(command, start)) {
+        String statement = command.substring(start);
+        this.output(statement.trim(), printCommand, this.repeat(statement, printCommand));
+        return;
+      } // if
+      int end = (separator == -1) ? command.length() : separator;
+      String statement = command.substring(start, end).trim();
+      if (!statement.isEmpty()) {
+        this.output(statement, printCommand, this.run(statement));
+      } // if
+      start = end + 1;
+      separator = command.indexOf(CommandExecutor.STATEMENT_SEPARATOR, start);
+    } // while
+  } // runStatements(String, boolean)
+
+  /**
+   * Sends the result of a statement to the current output.
+   * @param statement The trimmed statement.
+   * @param printCommand Whether to print the statement before its result.
+   * @param result The result of the statement, a BigFraction or a Matrix,
+   *   or null if it has none.
+   */
+  private void output(String statement, boolean printCommand, Object result) {
+    if (result == null) {
+      return;
+    } // if
+    long start = this.eventTime();
+    String prefix = printCommand ? (statement + " = ") : "";
+    if (this.pipeline == null) {
+      this.currentPen.println(prefix + result.toString());
+    } else if (result instanceof Matrix) {
+      this.pipeline.result(prefix, (Matrix) result);
+    } else {
+      this.pipeline.result(prefix, (BigFraction) result);
+    } // if-else chain
+    if (this.event != null) {
+      this.event.addOutput(System.nanoTime() - start);
+      if (result instanceof BigFraction) {
+        this.event.result((BigFraction) result);
+      } // if
+    } // if
+  } // output(String, boolean, Object)
+
+  /**
+   * Runs a command, reporting any errors.
+   * @param command The command to be run.
+   * @return The value computed by the command, a BigFraction or a Matrix,
+   *   or null if the command computes no value or fails.
+   */
+  private Object run(String command) {
     String trimmed = command.trim();
+    int offset = 0;
+    while (offset < command.length() && command.charAt(offset) <= ' ') {
+      offset++;
+    } // while
 
     if (trimmed.equals(CommandExecutor.QUIT_COMMAND)) {
+      this.quit = true;
+      if (!this.exitOnQuit) {
+        return null;
+      } else if (this.pipeline != null) {
+        this.pipeline.close();
+      } else {
+        this.errors.flush();
+        this.currentPen.flush();
+      } // if-else chain
       System.exit(0);
     } else if (trimmed.startsWith(CommandExecutor.STORE_PREFIX)) {
-      String remaining = trimmed.substring(CommandExecutor.STORE_PREFIX.length());
-      if (remaining.length() != 1) {
-        System.err.println("Error: STORE command not in format STORE <register>.");
-        return;
+      int slot = this.storeSlot(command, trimmed, offset);
+      if (slot >= 0) {
+        this.registers.store(slot, this.calculator.get());
+      } // if
+    } else if (trimmed.startsWith(CommandExecutor.LIMIT_PREFIX)) {
+      String remaining = trimmed.substring(CommandExecutor.LIMIT_PREFIX.length());
+      if (remaining.equals(CommandExecutor.MODE_OFF)) {
+        this.maxDenominator = null;
+        return null;
       } // if
 
-      char register = remaining.charAt(0);
-      if (register < 'a' || register > 'z') {
-        System.err.println("Error: Invalid register in STORE command.");
-        return;
+      if (!Token.isInteger(remaining, 0, remaining.length())) {
+        this.reportError(CommandError.LIMIT_FORMAT, command,
+            offset + CommandExecutor.LIMIT_PREFIX.length(), offset + trimmed.length());
+        return null;
+      } // if
+      BigInteger limit = new BigInteger(remaining);
+      if (limit.signum() <= 0) {
+        this.reportError(CommandError.NONPOSITIVE_LIMIT, command,
+            offset + CommandExecutor.LIMIT_PREFIX.length(), offset + trimmed.length());
+        return null;
       } // if
 
-      this.registers.store(register, this.calculator.get());
+      this.maxDenominator = limit;
+    } else if (trimmed.startsWith(CommandExecutor.DECIMAL_PREFIX)) {
+      String remaining = trimmed.substring(CommandExecutor.DECIMAL_PREFIX.length());
+      if (remaining.equals(CommandExecutor.MODE_ON)) {
+        this.decimalMode = true;
+      } else if (remaining.equals(CommandExecutor.MODE_OFF)) {
+        this.decimalMode = false;
+      } else {
+        this.reportError(CommandError.DECIMAL_FORMAT, command,
+            offset + CommandExecutor.DECIMAL_PREFIX.length(), offset + trimmed.length());
+      } // if-else chain
+    } else if (trimmed.startsWith(CommandExecutor.DETERMINANT_PREFIX)
+        || trimmed.startsWith(CommandExecutor.INVERSE_PREFIX)
+        || trimmed.startsWith(CommandExecutor.SOLVE_PREFIX)) {
+      return this.runMatrix(command, trimmed, offset);
+    } else if (trimmed.startsWith(CommandExecutor.POLY_PREFIX)) {
+      return this.runPolynomial(command, trimmed, offset);
     } else {
-      Token[] tokens;
-      try {
-        tokens = Token.parse(command);
-      } catch (NumberFormatException err) {
-        System.err.println("Error: Expected number but found non-number.");
-        return;
-      } // try-catch
-
-      this.calculator = null;
-      for (int i = 0; i < tokens.length; i++) {
-        Token token = tokens[i];
-        if (this.calculator == null) {
-          if (token.isNumeric()) {
-            this.calculator = new BFCalculator(token.getAsFraction(this.registers));
-            continue;
-          } else {
-            System.err.println("Error: First token is not numeric.");
-            return;
-          } // if-else
+      long start = this.eventTime();
+      ErrorSink sink = (this.pipeline == null) ? this.errors : this.pipeline;
+      Token[] tokens = (this.parseCache == null)
+          ? Token.parse(command, sink)
+          : this.parseCache.parse(command, sink);
+      if (this.event != null) {
+        long parsed = System.nanoTime();
+        this.event.addParse(parsed - start);
+        start = parsed;
+      } // if
+      if (tokens == null) {
+        return null;
+      } // if
+
+      BigFraction result = this.evaluate(command, tokens, 0, tokens.length);
+      if (this.event != null) {
+        this.event.addEvaluate(System.nanoTime() - start);
+      } // if
+      return result;
+    } // if-else chain
+    return null;
+  } // run(String)
+
+  /**
+   * Finds the register named by a STORE command, reporting any errors.
+   * @param command The command.
+   * @param trimmed The command without leading or trailing spaces.
+   * @param offset The index in command at which trimmed starts.
+   * @return The slot of the register, or -1 if the command is malformed.
+   */
+  private int storeSlot(String command, String trimmed, int offset) {
+    String remaining = trimmed.substring(CommandExecutor.STORE_PREFIX.length());
+    if (remaining.isEmpty() || remaining.indexOf(' ') != -1) {
+      this.reportError(CommandError.STORE_FORMAT, command,
+          offset + CommandExecutor.STORE_PREFIX.length(), offset + trimmed.length());
+      return -1;
+    } // if
+
+    if (!Token.isName(remaining, 0, remaining.length())) {
+      this.reportError(CommandError.INVALID_REGISTER, command,
+          offset + CommandExecutor.STORE_PREFIX.length(), offset + trimmed.length());
+      return -1;
+    } // if
+    return SymbolTable.intern(remaining);
+  } // storeSlot(String, String, int)
+
+  /**
+   * Determines whether the statement starting at an index of a command is
+   * a REPEAT command.
+   * @param command The command.
+   * @param start The index at which the statement starts.
+   * @return Whether the statement, after any spaces, starts with REPEAT.
+   */
+  static boolean isRepeat(String command, int start) {
+    int i = start;
+    while (i < command.length() && command.charAt(i) <= ' ') {
+      i++;
+    } // while
+    return command.startsWith(CommandExecutor.REPEAT_PREFIX, i);
+  } // isRepeat(String, int)
+
+  /**
+   * Runs a REPEAT command, reporting any errors. The statements of the body
+   * are parsed once and then run count times. When the body computes an
+   * affine function of one register and stores it back, as in
+   * "x * 3 + 1 ; STORE x", the loop is fast-forwarded in O(log count) steps.
+   * @param command The command, whose body runs to the end of the line.
+   * @param printCommand Whether to print each statement before its output.
+   * @return The last value computed by the body, or null if there is none,
+   *   the body fails, or PRINT was given and every result was already printed.
+   */
+  private Object repeat(String command, boolean printCommand) {
+    int offset = 0;
+    while (offset < command.length() && command.charAt(offset) <= ' ') {
+      offset++;
+    } // while
+    int countStart = offset + CommandExecutor.REPEAT_PREFIX.length();
+    int countEnd = command.indexOf(' ', countStart);
+    if (countEnd == -1 || countEnd == countStart || command.charAt(countStart) == '-'
+        || countEnd - countStart > CommandExecutor.MAX_COUNT_DIGITS
+        || !Token.isInteger(command, countStart, countEnd)) {
+      this.reportError(CommandError.REPEAT_FORMAT, command, countStart,
+          (countEnd == -1) ? command.length() : countEnd);
+      return null;
+    } // if
+    long count = Long.parseLong(command.substring(countStart, countEnd));
+    int bodyStart = countEnd + 1;
+    boolean print = command.startsWith(CommandExecutor.PRINT_PREFIX, bodyStart);
+    if (print) {
+      bodyStart += CommandExecutor.PRINT_PREFIX.length();
+    } // if
+
+    List<String> statements = new ArrayList<>();
+    int start = bodyStart;
+    while (start < command.length()) {
+      int end = CommandExecutor.isRepeat(command, start)
+          ? -1
+          : command.indexOf(CommandExecutor.STATEMENT_SEPARATOR, start);
+      if (end == -1) {
+        end = command.length();
+      } // if
+      String statement = command.substring(start, end).trim();
+      if (!statement.isEmpty()) {
+        statements.add(statement);
+      } // if
+      start = end + 1;
+    } // while
+    if (statements.isEmpty()) {
+      this.reportError(CommandError.REPEAT_FORMAT, command, bodyStart, command.length());
+      return null;
+    } // if
+
+    // Parse each expression and resolve each STORE once. Any other
+    // statement is run as usual on every pass.
+    int size = statements.size();
+    Token[][] expressions = new Token[size][];
+    int[] stores = new int[size];
+    ErrorSink sink = (this.pipeline == null) ? this.errors : this.pipeline;
+    for (int j = 0; j < size; j++) {
+      String statement = statements.get(j);
+      stores[j] = -1;
+      if (statement.startsWith(CommandExecutor.STORE_PREFIX)) {
+        stores[j] = this.storeSlot(statement, statement, 0);
+        if (stores[j] < 0) {
+          return null;
+        } // if
+      } else if (!statement.equals(CommandExecutor.QUIT_COMMAND)
+          && !statement.startsWith(CommandExecutor.LIMIT_PREFIX)
+          && !statement.startsWith(CommandExecutor.DECIMAL_PREFIX)
+          && !statement.startsWith(CommandExecutor.DETERMINANT_PREFIX)
+          && !statement.startsWith(CommandExecutor.INVERSE_PREFIX)
+          && !statement.startsWith(CommandExecutor.SOLVE_PREFIX)
+          && !statement.startsWith(CommandExecutor.POLY_PREFIX)
+          && !statement.startsWith(CommandExecutor.REPEAT_PREFIX)) {
+        expressions[j] = (this.parseCache == null)
+            ? Token.parse(statement, sink)
+            : this.parseCache.parse(statement, sink);
+        if (expressions[j] == null) {
+          return null;
         } // if
+      } // if-else chain
+    } // for
 
-        if (token.isOperator()) {
-          if ((i + 1) >= tokens.length) {
-            System.err.println("Error: Command ended mid-instruction.");
-            return;
+    if (count > 0 && !print && size == 2 && expressions[0] != null && stores[1] >= 0
+        && this.maxDenominator == null && !this.decimalMode) {
+      AffineMap map = AffineMap.detect(expressions[0], stores[1], this.registers);
+      BigFraction initial = this.registers.get(stores[1]);
+      if (map != null && initial.denominator().signum() != 0) {
+        if (!map.canPower(count, initial)) {
+          this.reportError(CommandError.POWER_TOO_LARGE, command, bodyStart, command.length());
+          return null;
+        } // if
+        this.calculator.reset(map.power(count).apply(initial), null);
+        this.registers.store(stores[1], this.calculator.get());
+        return this.calculator.get();
+      } // if
+    } // if
+
+    Object last = null;
+    for (long i = 0; i < count && !this.quit; i++) {
+      if (this.budget != null) {
+        this.budget.check();
+      } // if
+      for (int j = 0; j < size && !this.quit; j++) {
+        String statement = statements.get(j);
+        Object result;
+        if (stores[j] >= 0) {
+          this.registers.store(stores[j], this.calculator.get());
+          result = null;
+        } else if (expressions[j] != null) {
+          result = this.evaluate(statement, expressions[j], 0, expressions[j].length);
+          if (result == null) {
+            return null;
           } // if
-          Token nextToken = tokens[++i];
-          if (nextToken.isNumeric()) {
-            this.applyOperation(token, nextToken.getAsFraction(this.registers));
+        } else if (statement.startsWith(CommandExecutor.REPEAT_PREFIX)) {
+          result = this.repeat(statement, printCommand);
+        } else {
+          result = this.run(statement);
+        } // if-else chain
+        if (print) {
+          this.output(statement, printCommand, result);
+        } else if (result != null) {
+          last = result;
+        } // if-else chain
+      } // for
+    } // for
+    return last;
+  } // repeat(String, boolean)
+
+  /**
+   * Evaluates the expression made of some of the tokens of a command,
+   * reporting any errors.
+   * @param command The command containing the expression.
+   * @param tokens The tokens of the command.
+   * @param from The index of the first token of the expression.
+   * @param to The index just past the last token of the expression.
+   * @return The value of the expression, or null if evaluation fails.
+   */
+  private BigFraction evaluate(String command, Token[] tokens, int from, int to) {
+    if (from < to && tokens[from].getType() == Token.TokenType.IF) {
+      return this.evaluateConditional(command, tokens, from, to);
+    } // if
+
+    int first = from;
+    boolean modular = first < to && tokens[first].getType() == Token.TokenType.MODULAR;
+    if (modular) {
+      first++;
+    } // if
+    if (this.maxDenominator == null) {
+      BigFraction result =
+          ModularEvaluator.evaluate(tokens, first, to, this.registers, modular);
+      if (result != null) {
+        Budget.checkResult(result);
+        this.calculator.reset(result, null);
+        return this.calculator.get();
+      } // if
+    } // if
+
+    boolean useDecimal = this.decimalMode && this.maxDenominator == null;
+    boolean started = false;
+    for (int i = first; i < to; i++) {
+      Token token = tokens[i];
+      if (!started) {
+        if (token.isNumeric()) {
+          BigDecimal decimal = useDecimal ? token.getAsDecimal(this.registers) : null;
+          if (decimal != null) {
+            this.calculator.reset(decimal);
+          } else if (this.maxDenominator == null && token.isSmall(this.registers)) {
+            this.calculator.reset(token.smallNumerator(this.registers),
+                token.smallDenominator(this.registers));
           } else {
-            System.err.println("Error: Non-numeric token given when numeric token was expected.");
-            return;
+            this.calculator.reset(token.getAsFraction(this.registers), this.maxDenominator);
           } // if-else
+          started = true;
+          continue;
         } else {
-          System.err.println("Error: Non-operator token given when operator token was expected.");
-          return;
+          this.reportError(CommandError.FIRST_NOT_NUMERIC, command,
+              token.getStart(), token.getEnd());
+          return null;
         } // if-else
-      } // for
-      if (this.calculator == null) {
-        System.err.println("Error: Empty command given.");
+      } // if
+
+      if (token.isOperator()) {
+        if ((i + 1) >= to) {
+          this.reportError(CommandError.UNFINISHED, command,
+              token.getStart(), token.getEnd());
+          return null;
+        } // if
+        if (this.budget != null) {
+          this.budget.check();
+        } // if
+        Token nextToken = tokens[++i];
+        if (nextToken.isNumeric()) {
+          if (useDecimal) {
+            BigDecimal decimal = nextToken.getAsDecimal(this.registers);
+            if (decimal != null && this.applyDecimalOperation(token, decimal)) {
+              continue;
+            } // if
+          } // if
+          if (this.maxDenominator == null && nextToken.isSmall(this.registers)
+              && this.applySmallOperation(token, nextToken)) {
+            continue;
+          } // if
+          BigFraction operand = nextToken.getAsFraction(this.registers);
+          if (token.getType() == Token.TokenType.POWER
+              && !CommandExecutor.isValidExponent(operand)) {
+            this.reportError(CommandError.INVALID_EXPONENT, command,
+                nextToken.getStart(), nextToken.getEnd());
+            return null;
+          } else if (token.getType() == Token.TokenType.POWER
+              && !this.calculator.canPower(CommandExecutor.exponent(operand))) {
+            this.reportError(CommandError.POWER_TOO_LARGE, command,
+                nextToken.getStart(), nextToken.getEnd());
+            return null;
+          } // if-else chain
+          CommandExecutor.applyOperation(this.calculator, token, operand);
+        } else {
+          this.reportError(CommandError.EXPECTED_NUMERIC, command,
+              nextToken.getStart(), nextToken.getEnd());
+          return null;
+        } // if-else
+      } else {
+        this.reportError(CommandError.EXPECTED_OPERATOR, command,
+            token.getStart(), token.getEnd());
+        return null;
+      } // if-else
+    } // for
+    if (!started) {
+      if (to < tokens.length) {
+        this.reportError(CommandError.EMPTY_COMMAND, command,
+            tokens[to].getStart(), tokens[to].getEnd());
+      } else if (first > 0) {
+        this.reportError(CommandError.EMPTY_COMMAND, command,
+            tokens[first - 1].getStart(), tokens[first - 1].getEnd());
       } else {
-        pen.println((printCommand ? (trimmed + " = ") : "")
-            + this.calculator.get().toString());
-        pen.flush();
+        this.reportError(CommandError.EMPTY_COMMAND, command, 0, command.length());
       } // if-else chain
+      return null;
+    } // if
+    return this.calculator.get();
+  } // evaluate(String, Token[], int, int)
+
+  /**
+   * Evaluates a conditional expression, IF condition THEN expression ELSE
+   * expression, made of some of the tokens of a command. Only the branch
+   * that the condition selects is evaluated.
+   * @param command The command containing the expression.
+   * @param tokens The tokens of the command.
+   * @param from The index of the IF token.
+   * @param to The index just past the last token of the expression.
+   * @return The value of the selected branch, or null if evaluation fails.
+   */
+  private BigFraction evaluateConditional(String command, Token[] tokens, int from, int to) {
+    int thenIndex = -1;
+    int elseIndex = -1;
+    int depth = 0;
+    for (int i = from + 1; i < to && elseIndex == -1; i++) {
+      Token.TokenType type = tokens[i].getType();
+      if (type == Token.TokenType.IF) {
+        depth++;
+      } else if (type == Token.TokenType.THEN && depth == 0 && thenIndex == -1) {
+        thenIndex = i;
+      } else if (type == Token.TokenType.ELSE && depth > 0) {
+        depth--;
+      } else if (type == Token.TokenType.ELSE && thenIndex != -1) {
+        elseIndex = i;
+      } // if-else chain
+    } // for
+    if (elseIndex == -1) {
+      this.reportError(CommandError.CONDITIONAL_FORMAT, command,
+          tokens[from].getStart(), tokens[from].getEnd());
+      return null;
+    } // if
+
+    BigFraction condition = this.evaluate(command, tokens, from + 1, thenIndex);
+    if (condition == null) {
+      return null;
+    } else if (condition.signum() != 0) {
+      return this.evaluate(command, tokens, thenIndex + 1, elseIndex);
+    } else {
+      return this.evaluate(command, tokens, elseIndex + 1, to);
     } // if-else chain
-  } // execute(String)
+  } // evaluateConditional(String, Token[], int, int)
 } // class CommandExecutor
@@ -0,0 +1,118 @@
+package edu.grinnell.csc207.util;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * This class reads command frames, as defined by WireFormat, from a channel.
+ *
+ * A frame whose text is longer than the largest frame size, 16 MiB unless
+ * given, is refused as soon as its header is read, so that a bad length
+ * cannot make the reader buffer without limit.
+ *
+ * @author David William Stroud
+ */
+public class CommandFrameReader {
+  /**
+   * The default initial size of the input buffer, in bytes.
+   */
+  private static final int DEFAULT_BUFFER_SIZE = 65536;
+  /**
+   * The default largest length of the text of a frame, in bytes.
+   */
+  private static final int DEFAULT_MAX_FRAME_SIZE = 16_777_216;
+
+  /**
+   * The channel from which frames are read.
+   */
+  private final ReadableByteChannel channel;
+  /**
+   * The bytes read but not yet decoded, between position and limit.
+   */
+  private ByteBuffer buffer;
+  /**
+   * The largest length of the text of a frame, in bytes.
+   */
+  private final int maxFrameSize;
+
+  /**
+   * Creates a reader of command frames from channel1.
+   * @param channel1 The channel from which to read frames.
+   */
+  public CommandFrameReader(ReadableByteChannel channel1) {
+    this(channel1, CommandFrameReader.DEFAULT_BUFFER_SIZE);
+  } // CommandFrameReader(ReadableByteChannel)
+
+  /**
+   * Creates a reader of command frames from channel1.
+   * @param channel1 The channel from which to read frames.
+   * @param bufferSize The initial size of the input buffer, in bytes. The
+   *   buffer grows to fit larger frames.
+   */
+  public CommandFrameReader(ReadableByteChannel channel1, int bufferSize) {
+    this(channel1, bufferSize, CommandFrameReader.DEFAULT_MAX_FRAME_SIZE);
+  } // CommandFrameReader(ReadableByteChannel, int)
+
+  /**
+   * Creates a reader of command frames from channel1.
+   * @param channel1 The channel from which to read frames.
+   * @param bufferSize The initial size of the input buffer, in bytes. The
+   *   buffer grows to fit larger frames.
+   * @param maxFrameSize1 The largest length of the text of a frame, in bytes.
+   */
+  public CommandFrameReader(ReadableByteChannel channel1, int bufferSize, int maxFrameSize1) {
+    this.channel = channel1;
+    this.buffer = ByteBuffer.allocate(bufferSize);
+    this.buffer.flip();
+    this.maxFrameSize = maxFrameSize1;
+  } // CommandFrameReader(ReadableByteChannel, int, int)
+
+  /**
+   * Reads the next command.
+   * @return The next command, or null at the end of the channel.
+   * @throws IOException If the channel cannot be read, or holds a frame
+   *   that is not a command, or is longer than the largest frame size.
+   */
+  public String next() throws IOException {
+    while (true) {
+      if (this.buffer.hasRemaining()) {
+        this.buffer.mark();
+        try {
+          byte kind = this.buffer.get();
+          if (kind != WireFormat.COMMAND) {
+            throw new IOException("Expected a command frame, found kind " + kind);
+          } // if
+          int header = this.buffer.position();
+          long length = WireFormat.getVarint(this.buffer);
+          if (length < 0 || length > this.maxFrameSize) {
+            throw new IOException("Command frame of " + length
+                + " bytes is larger than " + this.maxFrameSize);
+          } // if
+          this.buffer.position(header);
+          return WireFormat.getText(this.buffer);
+        } catch (BufferUnderflowException err) {
+          this.buffer.reset();
+        } // try-catch
+      } // if
+
+      // The buffer holds only part of a frame, so read more
+      this.buffer.compact();
+      if (!this.buffer.hasRemaining()) {
+        ByteBuffer larger = ByteBuffer.allocate(2 * this.buffer.capacity());
+        this.buffer.flip();
+        larger.put(this.buffer);
+        this.buffer = larger;
+      } // if
+      int read = this.channel.read(this.buffer);
+      this.buffer.flip();
+      if (read == -1) {
+        if (this.buffer.hasRemaining()) {
+          throw new IOException("Channel ended inside a frame");
+        } // if
+        return null;
+      } // if
+    } // while
+  } // next()
+} // class CommandFrameReader
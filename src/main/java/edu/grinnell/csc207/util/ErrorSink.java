@@ -0,0 +1,26 @@
+package edu.grinnell.csc207.util;
+
+/**
+ * This interface represents a destination for errors in calculator commands.
+ *
+ * Errors are reported as a code together with the position of the offending
+ * text in the command, so that reporting an error never needs to build a
+ * new string or exception.
+ *
+ * @author David William Stroud
+ */
+public interface ErrorSink {
+  /**
+   * Reports an error.
+   * @param code The kind of error.
+   * @param command The command that caused the error.
+   * @param start The index in command at which the offending text starts.
+   * @param end The index in command just past the end of the offending text.
+   */
+  void error(CommandError code, String command, int start, int end);
+
+  /**
+   * Emits any errors that have been reported but not yet emitted.
+   */
+  default void flush() { } // flush()
+} // interface ErrorSink
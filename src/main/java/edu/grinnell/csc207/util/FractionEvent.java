@@ -0,0 +1,111 @@
+package edu.grinnell.csc207.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This class represents a Java Flight Recorder event for one BigFraction
+ * operation on operands of at least Tracing.getFractionThreshold() bits.
+ *
+ * @author David William Stroud
+ */
+@Name("edu.grinnell.csc207.FractionOperation")
+@Label("Fraction Operation")
+@Category("Calculator")
+@Description("An operation on a large BigFraction")
+final class FractionEvent extends Event {
+  /**
+   * The name of addition.
+   */
+  static final String ADD = "add";
+  /**
+   * The name of multiplication.
+   */
+  static final String MULTIPLY = "multiply";
+  /**
+   * The name of raising to a power.
+   */
+  static final String POWER = "pow";
+
+  /**
+   * The name of the operation.
+   */
+  @Label("Operation")
+  private String operation;
+
+  /**
+   * The bits in the larger part of the first operand.
+   */
+  @Label("Operand Bits")
+  private int operandBits;
+
+  /**
+   * The bits in the larger part of the second operand, or 0 if there is none.
+   */
+  @Label("Other Operand Bits")
+  private int otherBits;
+
+  /**
+   * The bits in the larger part of the result.
+   */
+  @Label("Result Bits")
+  private int resultBits;
+
+  /**
+   * Returns the bits in the larger of the numerator and denominator of a fraction.
+   * @param value The fraction, or null.
+   * @return The bits in value, or 0 if value is null.
+   */
+  private static int bits(BigFraction value) {
+    if (value == null) {
+      return 0;
+    } // if
+    return Math.max(value.numerator().bitLength(), value.denominator().bitLength());
+  } // bits(BigFraction)
+
+  /**
+   * Starts an event for an operation, if an operand is large enough and the
+   * event is enabled.
+   * @param first The first operand.
+   * @param second The second operand, or null if there is none.
+   * @return The started event, or null if the operation is not recorded.
+   */
+  static FractionEvent start(BigFraction first, BigFraction second) {
+    int threshold = Tracing.getFractionThreshold();
+    int firstBits = FractionEvent.bits(first);
+    int secondBits = FractionEvent.bits(second);
+    if (firstBits < threshold && secondBits < threshold) {
+      return null;
+    } // if
+    FractionEvent event = new FractionEvent();
+    if (!event.isEnabled()) {
+      return null;
+    } // if
+    event.operandBits = firstBits;
+    event.otherBits = secondBits;
+    event.begin();
+    return event;
+  } // start(BigFraction, BigFraction)
+
+  /**
+   * Ends an event, if there is one, and records it if it passes the
+   * recording's thresholds.
+   * @param event The event returned by start, or null.
+   * @param operation The name of the operation.
+   * @param result The result of the operation.
+   */
+  static void finish(FractionEvent event, String operation, BigFraction result) {
+    if (event == null) {
+      return;
+    } // if
+    event.end();
+    if (event.shouldCommit()) {
+      event.operation = operation;
+      event.resultBits = FractionEvent.bits(result);
+      event.commit();
+    } // if
+  } // finish(FractionEvent, String, BigFraction)
+} // class FractionEvent
@@ -0,0 +1,331 @@
+package edu.grinnell.csc207.util;
+
+import java.math.BigInteger;
+import java.util.stream.IntStream;
+
+/**
+ * This class represents an immutable matrix of fractions, with exact
+ * determinants, inverses, and solutions of linear systems.
+ *
+ * Rather than eliminating with fractions, whose denominators grow at every
+ * step, each row is first scaled to integers by the least common multiple
+ * of its denominators. Fraction-free (Bareiss) elimination then keeps every
+ * entry an integer no larger than a minor of the scaled matrix, and the
+ * answer is divided into fractions only once, at the end. Once at least the
+ * parallel rows many rows remain below a pivot, they are updated on several
+ * cores at once, and so are the columns of a right-hand side with that many
+ * columns. That setting may also be given with the matrix.parallelRows
+ * system property.
+ *
+ * @author David William Stroud
+ */
+public final class Matrix {
+  /**
+   * The default smallest number of rows updated in parallel.
+   */
+  private static final int DEFAULT_PARALLEL_ROWS = 16;
+  /**
+   * The text separating the rows of a matrix.
+   */
+  static final char ROW_SEPARATOR = '|';
+
+  /**
+   * The smallest number of rows below a pivot that are updated in parallel.
+   */
+  private static volatile int parallelRows =
+      Integer.getInteger("matrix.parallelRows", Matrix.DEFAULT_PARALLEL_ROWS);
+
+  /**
+   * The entries of this matrix, by row.
+   */
+  private final BigFraction[][] entries;
+
+  /**
+   * Creates a matrix holding a copy of entries1.
+   * @param entries1 The entries of the matrix, by row.
+   * @throws IllegalArgumentException If there are no entries, or the rows
+   *   are not all the same length.
+   */
+  public Matrix(BigFraction[][] entries1) {
+    if (entries1.length == 0 || entries1[0].length == 0) {
+      throw new IllegalArgumentException("Matrix has no entries");
+    } // if
+    this.entries = new BigFraction[entries1.length][];
+    for (int i = 0; i < entries1.length; i++) {
+      if (entries1[i].length != entries1[0].length) {
+        throw new IllegalArgumentException("Matrix rows differ in length");
+      } // if
+      this.entries[i] = entries1[i].clone();
+    } // for
+  } // Matrix(BigFraction[][])
+
+  /**
+   * Sets the smallest number of rows below a pivot that are updated in parallel.
+   * @param rows The threshold, or Integer.MAX_VALUE to always update rows in turn.
+   */
+  public static void setParallelRows(int rows) {
+    Matrix.parallelRows = rows;
+  } // setParallelRows(int)
+
+  /**
+   * Returns the smallest number of rows below a pivot that are updated in parallel.
+   * @return The threshold.
+   */
+  public static int getParallelRows() {
+    return Matrix.parallelRows;
+  } // getParallelRows()
+
+  /**
+   * Returns the number of rows in this matrix.
+   * @return The number of rows.
+   */
+  public int rows() {
+    return this.entries.length;
+  } // rows()
+
+  /**
+   * Returns the number of columns in this matrix.
+   * @return The number of columns.
+   */
+  public int columns() {
+    return this.entries[0].length;
+  } // columns()
+
+  /**
+   * Returns one entry of this matrix.
+   * @param row The row of the entry, from 0.
+   * @param column The column of the entry, from 0.
+   * @return The entry.
+   */
+  public BigFraction get(int row, int column) {
+    return this.entries[row][column];
+  } // get(int, int)
+
+  /**
+   * Computes the determinant of this matrix.
+   * @return The determinant.
+   * @throws IllegalArgumentException If this matrix is not square.
+   */
+  public BigFraction determinant() {
+    this.checkSquare();
+    int n = this.rows();
+    BigInteger[] scales = new BigInteger[n];
+    BigInteger[][] rows = Matrix.scale(this.entries, null, scales);
+    int sign = Matrix.eliminate(rows, n);
+    if (sign == 0) {
+      return BigFraction.ZERO;
+    } // if
+    BigInteger scale = BigInteger.ONE;
+    for (BigInteger rowScale : scales) {
+      scale = scale.multiply(rowScale);
+    } // for
+    BigInteger determinant = rows[n - 1][n - 1];
+    return new BigFraction((sign < 0) ? determinant.negate() : determinant, scale);
+  } // determinant()
+
+  /**
+   * Computes the inverse of this matrix.
+   * @return The inverse.
+   * @throws IllegalArgumentException If this matrix is not square.
+   * @throws ArithmeticException If this matrix is singular.
+   */
+  public Matrix inverse() {
+    this.checkSquare();
+    int n = this.rows();
+    BigFraction[][] identity = new BigFraction[n][n];
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        identity[i][j] = (i == j) ? BigFraction.ONE : BigFraction.ZERO;
+      } // for
+    } // for
+    return this.solveAugmented(identity);
+  } // inverse()
+
+  /**
+   * Solves the linear system this * x = rhs.
+   * @param rhs The right-hand side, with one column for each system to solve.
+   * @return The solution x, with one column for each column of rhs.
+   * @throws IllegalArgumentException If this matrix is not square, or rhs
+   *   has a different number of rows.
+   * @throws ArithmeticException If this matrix is singular.
+   */
+  public Matrix solve(Matrix rhs) {
+    this.checkSquare();
+    if (rhs.rows() != this.rows()) {
+      throw new IllegalArgumentException("Right-hand side has the wrong number of rows");
+    } // if
+    return this.solveAugmented(rhs.entries);
+  } // solve(Matrix)
+
+  /**
+   * Solves this * x = rhs, for a square matrix.
+   * @param rhs The entries of the right-hand side, by row.
+   * @return The solution.
+   * @throws ArithmeticException If this matrix is singular.
+   */
+  private Matrix solveAugmented(BigFraction[][] rhs) {
+    int n = this.rows();
+    int m = rhs[0].length;
+    BigInteger[][] rows = Matrix.scale(this.entries, rhs, new BigInteger[n]);
+    if (Matrix.eliminate(rows, n) == 0) {
+      throw new ArithmeticException("Matrix is singular");
+    } // if
+
+    // Back substitution keeps y = d * x in integers, where d is the last
+    // pivot, since d * x is a whole number by Cramer's rule.
+    BigInteger last = rows[n - 1][n - 1];
+    BigFraction[][] solution = new BigFraction[n][m];
+    IntStream columns = IntStream.range(0, m);
+    if (m >= Matrix.parallelRows) {
+      columns = columns.parallel();
+    } // if
+    Budget budget = Budget.current();
+    columns.forEach((column) -> Budget.run(budget, () -> {
+      Budget.checkpoint();
+      BigInteger[] y = new BigInteger[n];
+      for (int i = n - 1; i >= 0; i--) {
+        BigInteger sum = last.multiply(rows[i][n + column]);
+        for (int j = i + 1; j < n; j++) {
+          sum = sum.subtract(rows[i][j].multiply(y[j]));
+        } // for
+        y[i] = sum.divide(rows[i][i]);
+        solution[i][column] = new BigFraction(y[i], last);
+      } // for
+    }));
+    return new Matrix(solution);
+  } // solveAugmented(BigFraction[][])
+
+  /**
+   * Scales each row of a matrix, together with the same row of a
+   * right-hand side, to integers.
+   * @param left The entries of the matrix, by row.
+   * @param right The entries of the right-hand side, by row, or null if there is none.
+   * @param scales The array in which to put the factor by which each row is scaled.
+   * @return The scaled rows, each holding the columns of left then those of right.
+   */
+  private static BigInteger[][] scale(BigFraction[][] left, BigFraction[][] right,
+      BigInteger[] scales) {
+    int leftColumns = left[0].length;
+    int rightColumns = (right == null) ? 0 : right[0].length;
+    BigInteger[][] rows = new BigInteger[left.length][leftColumns + rightColumns];
+    for (int i = 0; i < left.length; i++) {
+      BigInteger scale = BigInteger.ONE;
+      for (int j = 0; j < leftColumns + rightColumns; j++) {
+        BigInteger denominator = Matrix.entry(left, right, i, j).denominator().abs();
+        scale = scale.divide(scale.gcd(denominator)).multiply(denominator);
+      } // for
+      scales[i] = scale;
+      for (int j = 0; j < leftColumns + rightColumns; j++) {
+        BigFraction value = Matrix.entry(left, right, i, j);
+        rows[i][j] = value.numerator().multiply(scale.divide(value.denominator()));
+      } // for
+    } // for
+    return rows;
+  } // scale(BigFraction[][], BigFraction[][], BigInteger[])
+
+  /**
+   * Returns an entry of a matrix beside its right-hand side.
+   * @param left The entries of the matrix, by row.
+   * @param right The entries of the right-hand side, by row, or null if there is none.
+   * @param row The row of the entry.
+   * @param column The column of the entry, counting those of left then those of right.
+   * @return The entry.
+   */
+  private static BigFraction entry(BigFraction[][] left, BigFraction[][] right,
+      int row, int column) {
+    int leftColumns = left[0].length;
+    return (column < leftColumns) ? left[row][column] : right[row][column - leftColumns];
+  } // entry(BigFraction[][], BigFraction[][], int, int)
+
+  /**
+   * Reduces the first n columns of integer rows to upper triangular form by
+   * fraction-free elimination, swapping rows as needed. The last pivot is
+   * then the determinant of the first n columns, up to the returned sign.
+   * @param rows The rows, which are changed in place.
+   * @param n The number of rows, and of columns to reduce.
+   * @return 1 or -1, as the rows were swapped an even or odd number of
+   *   times, or 0 if the first n columns are singular.
+   */
+  private static int eliminate(BigInteger[][] rows, int n) {
+    Budget budget = Budget.current();
+    int sign = 1;
+    BigInteger previous = BigInteger.ONE;
+    for (int k = 0; k < n; k++) {
+      Budget.checkpoint();
+      if (rows[k][k].signum() == 0) {
+        int swap = k + 1;
+        while (swap < n && rows[swap][k].signum() == 0) {
+          swap++;
+        } // while
+        if (swap == n) {
+          return 0;
+        } // if
+        BigInteger[] row = rows[k];
+        rows[k] = rows[swap];
+        rows[swap] = row;
+        sign = -sign;
+      } // if
+
+      int pivotRow = k;
+      BigInteger divisor = previous;
+      IntStream below = IntStream.range(k + 1, n);
+      if (n - k - 1 >= Matrix.parallelRows) {
+        below = below.parallel();
+      } // if
+      below.forEach((i) -> Budget.run(budget,
+          () -> Matrix.reduceRow(rows[pivotRow], rows[i], pivotRow, divisor)));
+      previous = rows[k][k];
+    } // for
+    return sign;
+  } // eliminate(BigInteger[][], int)
+
+  /**
+   * Applies one fraction-free elimination step to a row below a pivot.
+   * @param pivotRow The row of the pivot.
+   * @param row The row to reduce, which is changed in place.
+   * @param k The column of the pivot.
+   * @param previous The previous pivot, which divides every new entry exactly.
+   */
+  private static void reduceRow(BigInteger[] pivotRow, BigInteger[] row, int k,
+      BigInteger previous) {
+    Budget.checkpoint();
+    BigInteger pivot = pivotRow[k];
+    BigInteger factor = row[k];
+    for (int j = k + 1; j < row.length; j++) {
+      BigInteger value = row[j].multiply(pivot).subtract(factor.multiply(pivotRow[j]));
+      row[j] = previous.equals(BigInteger.ONE) ? value : value.divide(previous);
+    } // for
+    row[k] = BigInteger.ZERO;
+  } // reduceRow(BigInteger[], BigInteger[], int, BigInteger)
+
+  /**
+   * Throws an exception unless this matrix is square.
+   * @throws IllegalArgumentException If this matrix is not square.
+   */
+  private void checkSquare() {
+    if (this.rows() != this.columns()) {
+      throw new IllegalArgumentException("Matrix is not square");
+    } // if
+  } // checkSquare()
+
+  /**
+   * Turns this matrix into a string, with the entries of each row separated
+   * by spaces and the rows separated by " | ".
+   * @return The matrix as a string.
+   */
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < this.rows(); i++) {
+      if (i > 0) {
+        result.append(' ').append(Matrix.ROW_SEPARATOR).append(' ');
+      } // if
+      for (int j = 0; j < this.columns(); j++) {
+        if (j > 0) {
+          result.append(' ');
+        } // if
+        result.append(this.entries[i][j]);
+      } // for
+    } // for
+    return result.toString();
+  } // toString()
+} // class Matrix
@@ -0,0 +1,477 @@
+package edu.grinnell.csc207.util;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+/**
+ * This class evaluates long expressions by computing them modulo many
+ * word-sized primes rather than with fractions.
+ *
+ * Only expressions of numbers joined by +, -, *, /, and ^ can be evaluated
+ * this way. Each prime gives the value of the expression modulo that prime
+ * using only long arithmetic, and the primes of a round are evaluated on
+ * several cores at once. The residues are combined by the Chinese remainder
+ * theorem, and the fraction is recovered by rational reconstruction.
+ *
+ * The sizes of the operands give a bound on the size of the result, and
+ * enough primes to pass that bound make the reconstruction certain. Since
+ * the bound is often far too large, a fraction is reconstructed after each
+ * round, and accepted early once every prime of a round of checks agrees
+ * with it. The checks are primes chosen at random between 2^30 and 2^31,
+ * so no expression can be written to agree with a wrong fraction modulo
+ * them: the two differ by a number of at most the bound's bits, which has
+ * only about 2^15 of the 50 million or so primes there as factors. A wrong
+ * fraction thus passes a round of checks with a chance below 2^-40, while
+ * only a modulus past the bound makes the result certain. A prime that
+ * divides a denominator along the way is skipped. If no fraction is found,
+ * or every prime of a round is skipped, evaluation gives up, and the
+ * expression is evaluated exactly instead.
+ *
+ * An expression is evaluated this way when it starts with MODULAR, or when
+ * it has many operations and the bound on its result is at least the
+ * threshold, which may also be given with the calculator.modularThreshold
+ * system property.
+ *
+ * @author David William Stroud
+ */
+public final class ModularEvaluator {
+  /**
+   * The default threshold, in bits.
+   */
+  private static final int DEFAULT_THRESHOLD = 16384;
+  /**
+   * The fewest operations in an expression evaluated this way unless asked.
+   */
+  private static final int MIN_OPERATIONS = 16;
+  /**
+   * Results bounded by more bits than this are always evaluated exactly,
+   * since they would need too many primes.
+   */
+  private static final long MAX_BITS = 1_048_576L;
+  /**
+   * The bits of each prime. Primes are below 2 to this power, so products
+   * of residues fit in a long.
+   */
+  private static final int PRIME_BITS = 31;
+  /**
+   * The fewest primes evaluated in one round.
+   */
+  private static final int MIN_ROUND = 4;
+  /**
+   * The bits of the smallest prime chosen at random for checks.
+   */
+  private static final int CHECK_BITS = 30;
+  /**
+   * The bases for which Miller-Rabin tests are exact below 2^32.
+   */
+  private static final long[] WITNESSES = {2, 7, 61};
+
+  /**
+   * The smallest bound on the result, in bits, for which expressions are
+   * evaluated this way without being asked.
+   */
+  private static volatile int threshold =
+      Integer.getInteger("calculator.modularThreshold", ModularEvaluator.DEFAULT_THRESHOLD);
+
+  /**
+   * The primes found so far, from largest to smallest.
+   */
+  private static long[] primes = new long[0];
+
+  private ModularEvaluator() { } // ModularEvaluator()
+
+  /**
+   * Sets the smallest bound on the result, in bits, for which expressions
+   * are evaluated modulo primes without starting with MODULAR.
+   * @param bits The threshold, or Integer.MAX_VALUE to only do so when asked.
+   */
+  public static void setThreshold(int bits) {
+    ModularEvaluator.threshold = bits;
+  } // setThreshold(int)
+
+  /**
+   * Returns the smallest bound on the result, in bits, for which
+   * expressions are evaluated modulo primes without starting with MODULAR.
+   * @return The threshold.
+   */
+  public static int getThreshold() {
+    return ModularEvaluator.threshold;
+  } // getThreshold()
+
+  /**
+   * Evaluates the expression made of some tokens modulo primes, if it can
+   * and should be.
+   * @param tokens The tokens.
+   * @param from The index of the first token of the expression.
+   * @param to The index just past the last token of the expression.
+   * @param registers The registers to use for register tokens.
+   * @param force Whether to evaluate the expression this way whatever its size.
+   * @return The value of the expression, or null if it must be evaluated exactly.
+   */
+  static BigFraction evaluate(Token[] tokens, int from, int to, BFRegisterSet registers,
+      boolean force) {
+    int operations = (to - from) / 2;
+    if ((!force && operations < ModularEvaluator.MIN_OPERATIONS) || (to - from) % 2 == 0) {
+      return null;
+    } // if
+
+    BigFraction[] operands = new BigFraction[operations + 1];
+    Token.TokenType[] operators = new Token.TokenType[operations];
+    for (int i = 0; i <= operations; i++) {
+      Token operand = tokens[from + 2 * i];
+      if (!operand.isNumeric()) {
+        return null;
+      } // if
+      operands[i] = operand.getAsFraction(registers);
+      if (i > 0) {
+        operators[i - 1] = tokens[from + 2 * i - 1].getType();
+        if (!ModularEvaluator.isSupported(operators[i - 1], operands[i])) {
+          return null;
+        } // if
+      } // if
+    } // for
+
+    long bits = ModularEvaluator.bound(operands, operators);
+    if (bits > ModularEvaluator.MAX_BITS || (!force && bits < ModularEvaluator.threshold)) {
+      return null;
+    } // if
+    return ModularEvaluator.reconstruct(operands, operators, bits);
+  } // evaluate(Token[], int, int, BFRegisterSet, boolean)
+
+  /**
+   * Determines whether an operation can be computed modulo a prime.
+   * @param operator The operation.
+   * @param operand The second operand.
+   * @return Whether the operation is a field operation, or a power with a
+   *   valid exponent.
+   */
+  private static boolean isSupported(Token.TokenType operator, BigFraction operand) {
+    if (operator == Token.TokenType.POWER) {
+      return CommandExecutor.isValidExponent(operand);
+    } // if
+    return operator == Token.TokenType.ADD || operator == Token.TokenType.SUBTRACT
+        || operator == Token.TokenType.MULTIPLY || operator == Token.TokenType.DIVIDE;
+  } // isSupported(Token.TokenType, BigFraction)
+
+  /**
+   * Bounds the size of the modulus needed to reconstruct the value of an expression.
+   * @param operands The operands of the expression.
+   * @param operators The operations of the expression.
+   * @return The number of bits in a modulus that is certainly large enough.
+   */
+  private static long bound(BigFraction[] operands, Token.TokenType[] operators) {
+    long numerator = operands[0].numerator().bitLength();
+    long denominator = operands[0].denominator().bitLength();
+    for (int i = 0; i < operators.length && numerator <= ModularEvaluator.MAX_BITS
+        && denominator <= ModularEvaluator.MAX_BITS; i++) {
+      long otherNumerator = operands[i + 1].numerator().bitLength();
+      long otherDenominator = operands[i + 1].denominator().bitLength();
+      if (operators[i] == Token.TokenType.ADD || operators[i] == Token.TokenType.SUBTRACT) {
+        numerator = Math.max(numerator + otherDenominator, otherNumerator + denominator) + 1;
+        denominator += otherDenominator;
+      } else if (operators[i] == Token.TokenType.MULTIPLY) {
+        numerator += otherNumerator;
+        denominator += otherDenominator;
+      } else if (operators[i] == Token.TokenType.DIVIDE) {
+        numerator += otherDenominator;
+        denominator += otherNumerator;
+      } else {
+        long exponent = operands[i + 1].numerator().longValue();
+        if (operands[i + 1].signum() < 0) {
+          long swap = numerator;
+          numerator = denominator;
+          denominator = swap;
+        } // if
+        numerator *= Math.max(exponent, 1);
+        denominator *= Math.max(exponent, 1);
+      } // if-else chain
+    } // for
+    // Reconstruction needs a modulus above 2 * N * D, where N and D bound
+    // the numerator and denominator alike
+    return 2 * Math.max(numerator, denominator) + 2;
+  } // bound(BigFraction[], Token.TokenType[])
+
+  /**
+   * Evaluates an expression modulo rounds of primes until its value can be
+   * reconstructed.
+   * @param operands The operands of the expression.
+   * @param operators The operations of the expression.
+   * @param bits The number of bits in a modulus that is certainly large enough.
+   * @return The value of the expression, or null if it cannot be reconstructed.
+   */
+  private static BigFraction reconstruct(BigFraction[] operands, Token.TokenType[] operators,
+      long bits) {
+    BigInteger modulus = BigInteger.ONE;
+    BigInteger value = BigInteger.ZERO;
+    BigFraction candidate = null;
+    // The index of the next prime of the rounds that are not checks
+    int next = 0;
+    int check = Math.max(ModularEvaluator.MIN_ROUND, Runtime.getRuntime().availableProcessors());
+    int round = check;
+    while (true) {
+      Budget.checkpoint();
+      long[] batch;
+      if (candidate != null) {
+        batch = ModularEvaluator.randomPrimes(round);
+      } else {
+        batch = ModularEvaluator.primes(next, round);
+        next += round;
+      } // if-else
+      long[] residues = new long[round];
+      IntStream.range(0, round).parallel().forEach((j) ->
+          residues[j] = ModularEvaluator.evaluateModulo(operands, operators, batch[j]));
+
+      boolean lucky = false;
+      boolean agrees = candidate != null;
+      for (int j = 0; j < round; j++) {
+        BigInteger prime = BigInteger.valueOf(batch[j]);
+        long reduced = modulus.mod(prime).longValue();
+        // A random prime may already be part of the modulus
+        if (residues[j] < 0 || reduced == 0) {
+          continue;
+        } // if
+        lucky = true;
+        agrees = agrees && ModularEvaluator.residue(candidate, batch[j]) == residues[j];
+        // Incremental CRT: value + modulus * t is value modulo modulus, and
+        // residues[j] modulo prime
+        long inverse = ModularEvaluator.inverse(reduced, batch[j]);
+        long difference = Math.floorMod(residues[j] - value.mod(prime).longValue(), batch[j]);
+        value = value.add(modulus.multiply(BigInteger.valueOf(difference * inverse % batch[j])));
+        modulus = modulus.multiply(prime);
+      } // for
+      if (!lucky) {
+        return null;
+      } else if (agrees) {
+        return candidate;
+      } // if-else
+
+      candidate = ModularEvaluator.reconstruct(value, modulus);
+      if (modulus.bitLength() > bits) {
+        return candidate;
+      } // if
+      // Check a candidate with one small round of random primes; otherwise
+      // double the primes
+      long remaining = (bits - modulus.bitLength()) / (ModularEvaluator.PRIME_BITS - 1) + 1;
+      round = (candidate != null) ? check : (int) Math.min(next, remaining);
+      round = Math.max(round, ModularEvaluator.MIN_ROUND);
+    } // while
+  } // reconstruct(BigFraction[], Token.TokenType[], long)
+
+  /**
+   * Finds the fraction with numerator and denominator below sqrt(modulus / 2)
+   * that is congruent to value, by the extended Euclidean algorithm.
+   * @param value The value modulo modulus.
+   * @param modulus The modulus.
+   * @return The fraction, or null if there is none.
+   */
+  private static BigFraction reconstruct(BigInteger value, BigInteger modulus) {
+    BigInteger bound = modulus.shiftRight(1).sqrt();
+    BigInteger previous = modulus;
+    BigInteger remainder = value;
+    BigInteger previousFactor = BigInteger.ZERO;
+    BigInteger factor = BigInteger.ONE;
+    while (remainder.compareTo(bound) > 0) {
+      BigInteger[] division = previous.divideAndRemainder(remainder);
+      previous = remainder;
+      remainder = division[1];
+      BigInteger nextFactor = previousFactor.subtract(division[0].multiply(factor));
+      previousFactor = factor;
+      factor = nextFactor;
+    } // while
+    if (factor.signum() == 0 || factor.abs().compareTo(bound) > 0
+        || !remainder.gcd(factor).equals(BigInteger.ONE)) {
+      return null;
+    } // if
+    return new BigFraction(remainder, factor);
+  } // reconstruct(BigInteger, BigInteger)
+
+  /**
+   * Evaluates an expression modulo a prime. The value is kept as a fraction
+   * of two residues, so that only the final value needs an inverse.
+   * @param operands The operands of the expression.
+   * @param operators The operations of the expression.
+   * @param prime The prime.
+   * @return The value modulo prime, or -1 if prime divides a denominator.
+   */
+  private static long evaluateModulo(BigFraction[] operands, Token.TokenType[] operators,
+      long prime) {
+    long numerator = ModularEvaluator.numeratorResidue(operands[0], prime);
+    long denominator = ModularEvaluator.denominatorResidue(operands[0], prime);
+    for (int i = 0; i < operators.length && denominator != 0; i++) {
+      BigFraction operand = operands[i + 1];
+      if (operators[i] == Token.TokenType.POWER) {
+        long exponent = operand.numerator().longValue();
+        if (operand.signum() < 0) {
+          long swap = numerator;
+          numerator = denominator;
+          denominator = swap;
+        } // if
+        numerator = ModularEvaluator.power(numerator, exponent, prime);
+        denominator = ModularEvaluator.power(denominator, exponent, prime);
+        continue;
+      } // if
+
+      long otherNumerator = ModularEvaluator.numeratorResidue(operand, prime);
+      long otherDenominator = ModularEvaluator.denominatorResidue(operand, prime);
+      if (operators[i] == Token.TokenType.ADD) {
+        numerator = (numerator * otherDenominator + otherNumerator * denominator) % prime;
+        denominator = denominator * otherDenominator % prime;
+      } else if (operators[i] == Token.TokenType.SUBTRACT) {
+        numerator = (numerator * otherDenominator % prime
+            + prime - otherNumerator * denominator % prime) % prime;
+        denominator = denominator * otherDenominator % prime;
+      } else if (operators[i] == Token.TokenType.MULTIPLY) {
+        numerator = numerator * otherNumerator % prime;
+        denominator = denominator * otherDenominator % prime;
+      } else {
+        numerator = numerator * otherDenominator % prime;
+        denominator = denominator * otherNumerator % prime;
+      } // if-else chain
+    } // for
+    if (denominator == 0) {
+      return -1;
+    } // if
+    return numerator * ModularEvaluator.inverse(denominator, prime) % prime;
+  } // evaluateModulo(BigFraction[], Token.TokenType[], long)
+
+  /**
+   * Reduces the signed numerator of a fraction modulo a prime.
+   * @param value The fraction.
+   * @param prime The prime.
+   * @return The numerator modulo prime.
+   */
+  private static long numeratorResidue(BigFraction value, long prime) {
+    if (value.isSmall()) {
+      return Math.floorMod(value.smallNumerator(), prime);
+    } // if
+    long residue = value.numerator().mod(BigInteger.valueOf(prime)).longValue();
+    return (value.signum() < 0) ? (prime - residue) % prime : residue;
+  } // numeratorResidue(BigFraction, long)
+
+  /**
+   * Reduces the positive denominator of a fraction modulo a prime.
+   * @param value The fraction.
+   * @param prime The prime.
+   * @return The denominator modulo prime.
+   */
+  private static long denominatorResidue(BigFraction value, long prime) {
+    if (value.isSmall()) {
+      return value.smallDenominator() % prime;
+    } // if
+    return value.denominator().abs().mod(BigInteger.valueOf(prime)).longValue();
+  } // denominatorResidue(BigFraction, long)
+
+  /**
+   * Reduces a fraction modulo a prime.
+   * @param value The fraction.
+   * @param prime The prime.
+   * @return The fraction modulo prime, or -1 if prime divides its denominator.
+   */
+  private static long residue(BigFraction value, long prime) {
+    long denominator = ModularEvaluator.denominatorResidue(value, prime);
+    if (denominator == 0) {
+      return -1;
+    } // if
+    return ModularEvaluator.numeratorResidue(value, prime)
+        * ModularEvaluator.inverse(denominator, prime) % prime;
+  } // residue(BigFraction, long)
+
+  /**
+   * Raises a residue to a power modulo a prime.
+   * @param base The residue.
+   * @param exponent The power, which is not negative.
+   * @param prime The prime.
+   * @return base to the power exponent, modulo prime.
+   */
+  private static long power(long base, long exponent, long prime) {
+    long result = 1;
+    long square = base;
+    for (long remaining = exponent; remaining > 0; remaining >>= 1) {
+      if ((remaining & 1) != 0) {
+        result = result * square % prime;
+      } // if
+      square = square * square % prime;
+    } // for
+    return result;
+  } // power(long, long, long)
+
+  /**
+   * Inverts a nonzero residue modulo a prime.
+   * @param value The residue.
+   * @param prime The prime.
+   * @return The inverse of value modulo prime.
+   */
+  private static long inverse(long value, long prime) {
+    return ModularEvaluator.power(value, prime - 2, prime);
+  } // inverse(long, long)
+
+  /**
+   * Determines whether a number below 2^32 is prime.
+   * @param candidate The odd number to check, which is larger than every witness.
+   * @return Whether candidate is prime.
+   */
+  private static boolean isPrime(long candidate) {
+    long odd = candidate - 1;
+    int twos = Long.numberOfTrailingZeros(odd);
+    odd >>= twos;
+    for (long witness : ModularEvaluator.WITNESSES) {
+      long x = ModularEvaluator.power(witness, odd, candidate);
+      if (x == 1 || x == candidate - 1) {
+        continue;
+      } // if
+      boolean composite = true;
+      for (int i = 1; i < twos && composite; i++) {
+        x = x * x % candidate;
+        composite = x != candidate - 1;
+      } // for
+      if (composite) {
+        return false;
+      } // if
+    } // for
+    return true;
+  } // isPrime(long)
+
+  /**
+   * Returns some of the primes just below 2^31, finding more as needed.
+   * @param from The index of the first prime, counting down from 2^31.
+   * @param count The number of primes.
+   * @return The primes.
+   */
+  private static synchronized long[] primes(int from, int count) {
+    if (ModularEvaluator.primes.length < from + count) {
+      int found = ModularEvaluator.primes.length;
+      long[] more = Arrays.copyOf(ModularEvaluator.primes,
+          Math.max(from + count, 2 * found));
+      long candidate = (found == 0) ? (1L << ModularEvaluator.PRIME_BITS) + 1 : more[found - 1];
+      while (found < more.length) {
+        candidate -= 2;
+        if (ModularEvaluator.isPrime(candidate)) {
+          more[found++] = candidate;
+        } // if
+      } // while
+      ModularEvaluator.primes = more;
+    } // if
+    return Arrays.copyOfRange(ModularEvaluator.primes, from, from + count);
+  } // primes(int, int)
+
+  /**
+   * Chooses primes between 2^30 and 2^31 at random, to check a candidate.
+   * @param count The number of primes.
+   * @return The primes, which may repeat.
+   */
+  private static long[] randomPrimes(int count) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long[] batch = new long[count];
+    for (int i = 0; i < count; i++) {
+      long candidate;
+      do {
+        candidate = random.nextLong(1L << ModularEvaluator.CHECK_BITS,
+            1L << ModularEvaluator.PRIME_BITS) | 1;
+      } while (!ModularEvaluator.isPrime(candidate));
+      batch[i] = candidate;
+    } // for
+    return batch;
+  } // randomPrimes(int)
+} // class ModularEvaluator
@@ -0,0 +1,465 @@
+package edu.grinnell.csc207.util;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class represents a pipeline that formats and writes calculator output
+ * on its own thread, so that slow output does not stall evaluation.
+ *
+ * Results and errors pass from the evaluating thread to the writer thread
+ * through a bounded ring buffer. The evaluating thread is the only producer
+ * and the writer thread is the only consumer. Errors are written only after
+ * every result before them, so the two streams stay in order. If the
+ * writer fails, the producer gets its error on the next entry or on close,
+ * rather than waiting on a ring buffer that never drains.
+ *
+ * In binary mode, results and errors are both written to the channel as
+ * frames in the form defined by WireFormat, and prefixes are dropped.
+ *
+ * @author David William Stroud
+ */
+public class OutputPipeline implements ErrorSink {
+  /**
+   * The default number of entries that may be waiting to be written.
+   */
+  private static final int DEFAULT_CAPACITY = 4096;
+  /**
+   * The default size of the buffer into which output is formatted, in bytes.
+   */
+  private static final int DEFAULT_BUFFER_SIZE = 65536;
+  /**
+   * How long the producer sleeps, while the ring buffer is full, before
+   * checking it again.
+   */
+  private static final long PARK_NANOS = 100_000L;
+  /**
+   * The text that follows every line of output.
+   */
+  private static final String LINE_SEPARATOR = System.lineSeparator();
+
+  /**
+   * The text written before the description of every error.
+   */
+  private static final String ERROR_PREFIX = "Error: ";
+  /**
+   * Results whose numerator or denominator has more bits than this are written
+   * straight into the buffer rather than first being turned into a String.
+   */
+  private static final int LARGE_BITS = 65536;
+  /**
+   * The largest size of a coded error frame, in bytes.
+   */
+  private static final int ERROR_FRAME_SIZE = 31;
+
+  /**
+   * The text of each entry: the prefix of a result, the message of an error,
+   * or the command that caused a coded error.
+   */
+  private final String[] texts;
+  /**
+   * The value of each entry, or null if the entry is an error or a matrix result.
+   */
+  private final BigFraction[] values;
+  /**
+   * The matrix value of each entry, or null if the entry is not a matrix result.
+   */
+  private final Matrix[] matrices;
+  /**
+   * The kind of each coded error entry, or null if the entry is not a coded error.
+   */
+  private final CommandError[] codes;
+  /**
+   * The index in the command at which the offending text of each coded error starts.
+   */
+  private final int[] starts;
+  /**
+   * The index in the command just past the offending text of each coded error.
+   */
+  private final int[] ends;
+  /**
+   * A mask selecting the slot of a position in the ring buffer.
+   */
+  private final int mask;
+
+  /**
+   * The position of the next entry to be written. Only changed by the writer.
+   */
+  private volatile long head = 0;
+  /**
+   * The position of the next entry to be added. Only changed by the producer.
+   */
+  private volatile long tail = 0;
+  /**
+   * Whether the writer is about to sleep, and needs waking up.
+   */
+  private volatile boolean waiting = false;
+  /**
+   * Whether the producer has finished adding entries.
+   */
+  private volatile boolean closed = false;
+  /**
+   * The error that stopped the writer, if any: an IOException or a
+   * RuntimeException.
+   */
+  private volatile Exception failure = null;
+
+  /**
+   * The channel to which results are written.
+   */
+  private final WritableByteChannel channel;
+  /**
+   * The stream to which errors are written.
+   */
+  private final PrintStream errors;
+  /**
+   * Whether results and errors are written as binary frames.
+   */
+  private final boolean binary;
+  /**
+   * The buffer into which results are formatted before being written.
+   */
+  private final ByteBuffer buffer;
+  /**
+   * The encoder used to format results into the buffer.
+   */
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+  /**
+   * A writer that formats text into the buffer, used for large results.
+   */
+  private final Writer bufferWriter = new Writer() {
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+      OutputPipeline.this.format(CharBuffer.wrap(chars, offset, length));
+    } // write(char[], int, int)
+
+    @Override
+    public void write(String text) throws IOException {
+      OutputPipeline.this.format(CharBuffer.wrap(text));
+    } // write(String)
+
+    @Override
+    public void flush() { } // flush()
+
+    @Override
+    public void close() { } // close()
+  };
+  /**
+   * The thread that formats and writes entries.
+   */
+  private final Thread writer;
+
+  /**
+   * Creates a pipeline that writes results to channel1 and errors to System.err.
+   * @param channel1 The channel to which to write results.
+   */
+  public OutputPipeline(WritableByteChannel channel1) {
+    this(channel1, System.err, OutputPipeline.DEFAULT_CAPACITY,
+        OutputPipeline.DEFAULT_BUFFER_SIZE);
+  } // OutputPipeline(WritableByteChannel)
+
+  /**
+   * Creates a pipeline that writes results to channel1 and errors to errors1.
+   * @param channel1 The channel to which to write results.
+   * @param errors1 The stream to which to write errors.
+   * @param capacity The number of entries that may wait to be written before
+   *   the producer blocks. Rounded up to a power of two.
+   * @param bufferSize The size of the output buffer, in bytes.
+   */
+  public OutputPipeline(WritableByteChannel channel1, PrintStream errors1,
+      int capacity, int bufferSize) {
+    this(channel1, errors1, capacity, bufferSize, false);
+  } // OutputPipeline(WritableByteChannel, PrintStream, int, int)
+
+  /**
+   * Creates a pipeline that writes results to channel1 and errors to errors1,
+   * or writes both to channel1 as binary frames.
+   * @param channel1 The channel to which to write results.
+   * @param errors1 The stream to which to write errors, unused in binary mode.
+   * @param capacity The number of entries that may wait to be written before
+   *   the producer blocks. Rounded up to a power of two.
+   * @param bufferSize The size of the output buffer, in bytes.
+   * @param binary1 Whether to write binary frames rather than text.
+   */
+  public OutputPipeline(WritableByteChannel channel1, PrintStream errors1,
+      int capacity, int bufferSize, boolean binary1) {
+    int slots = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+    this.texts = new String[slots];
+    this.values = new BigFraction[slots];
+    this.matrices = new Matrix[slots];
+    this.codes = new CommandError[slots];
+    this.starts = new int[slots];
+    this.ends = new int[slots];
+    this.mask = slots - 1;
+    this.channel = channel1;
+    this.errors = errors1;
+    this.binary = binary1;
+    this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    this.writer = new Thread(this::drain, "calculator-output");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  } // OutputPipeline(WritableByteChannel, PrintStream, int, int, boolean)
+
+  /**
+   * Queues a result to be written.
+   * @param prefix The text to write before the result.
+   * @param value The result.
+   */
+  public void result(String prefix, BigFraction value) {
+    this.put(prefix, value, null, null, 0, 0);
+  } // result(String, BigFraction)
+
+  /**
+   * Queues a matrix result to be written.
+   * @param prefix The text to write before the result.
+   * @param value The result.
+   */
+  public void result(String prefix, Matrix value) {
+    this.put(prefix, null, value, null, 0, 0);
+  } // result(String, Matrix)
+
+  /**
+   * Queues an error to be written after every result queued before it.
+   * @param message The error message.
+   */
+  public void error(String message) {
+    this.put(message, null, null, null, 0, 0);
+  } // error(String)
+
+  /**
+   * Queues a coded error to be written after every result queued before it.
+   * @param code The kind of error.
+   * @param command The command that caused the error.
+   * @param start The index in command at which the offending text starts.
+   * @param end The index in command just past the end of the offending text.
+   */
+  public void error(CommandError code, String command, int start, int end) {
+    this.put(command, null, null, code, start, end);
+  } // error(CommandError, String, int, int)
+
+  /**
+   * Waits for every queued entry to be written, then stops the writer.
+   * Does not close the underlying channel.
+   * @throws UncheckedIOException If the writer could not write output.
+   * @throws RuntimeException If the writer failed in formatting output.
+   */
+  public void close() {
+    this.closed = true;
+    LockSupport.unpark(this.writer);
+    try {
+      this.writer.join();
+    } catch (InterruptedException err) {
+      Thread.currentThread().interrupt();
+    } // try-catch
+    this.checkFailure();
+  } // close()
+
+  /**
+   * Throws the error that stopped the writer, if any.
+   */
+  private void checkFailure() {
+    Exception err = this.failure;
+    if (err instanceof IOException) {
+      throw new UncheckedIOException((IOException) err);
+    } else if (err != null) {
+      throw (RuntimeException) err;
+    } // if-else
+  } // checkFailure()
+
+  /**
+   * Adds an entry to the ring buffer, waiting while it is full. Throws the
+   * error that stopped the writer, if any, as close does.
+   * @param text The text of the entry.
+   * @param value The value of the entry, or null if it is an error or a matrix result.
+   * @param matrix The value of a matrix result, or null if the entry is not one.
+   * @param code The kind of error, or null if the entry is not a coded error.
+   * @param start The index at which the offending text of a coded error starts.
+   * @param end The index just past the offending text of a coded error.
+   */
+  private void put(String text, BigFraction value, Matrix matrix, CommandError code,
+      int start, int end) {
+    this.checkFailure();
+    long position = this.tail;
+    while (position - this.head > this.mask) {
+      this.checkFailure();
+      LockSupport.parkNanos(OutputPipeline.PARK_NANOS);
+    } // while
+    int slot = (int) (position & this.mask);
+    this.texts[slot] = text;
+    this.values[slot] = value;
+    this.matrices[slot] = matrix;
+    this.codes[slot] = code;
+    this.starts[slot] = start;
+    this.ends[slot] = end;
+    this.tail = position + 1;
+    if (this.waiting) {
+      LockSupport.unpark(this.writer);
+    } // if
+  } // put(String, BigFraction, Matrix, CommandError, int, int)
+
+  /**
+   * Writes entries until the producer closes the pipeline.
+   * Runs on the writer thread.
+   */
+  private void drain() {
+    try {
+      while (true) {
+        long position = this.head;
+        long end = this.tail;
+        if (position == end) {
+          this.writeBuffer();
+          if (this.closed && this.tail == position) {
+            return;
+          } // if
+          // The producer reads waiting after moving tail, and this thread
+          // reads tail after setting waiting, so one of them sees the other.
+          // An unpark that comes before the park makes it return at once.
+          this.waiting = true;
+          if (this.tail == position && !this.closed) {
+            LockSupport.park(this);
+          } // if
+          this.waiting = false;
+          continue;
+        } // if
+
+        for (; position < end; position++) {
+          int slot = (int) (position & this.mask);
+          if (this.binary) {
+            this.writeFrame(slot);
+          } else if (this.codes[slot] != null) {
+            this.writeBuffer();
+            this.errors.print(OutputPipeline.ERROR_PREFIX);
+            this.errors.println(this.codes[slot].getMessage());
+          } else if (this.matrices[slot] != null) {
+            this.format(CharBuffer.wrap(this.texts[slot]));
+            this.format(CharBuffer.wrap(this.matrices[slot].toString()));
+            this.format(CharBuffer.wrap(OutputPipeline.LINE_SEPARATOR));
+          } else if (this.values[slot] == null) {
+            this.writeBuffer();
+            this.errors.println(this.texts[slot]);
+          } else {
+            BigFraction value = this.values[slot];
+            this.format(CharBuffer.wrap(this.texts[slot]));
+            if (value.numerator().bitLength() > OutputPipeline.LARGE_BITS
+                || value.denominator().bitLength() > OutputPipeline.LARGE_BITS) {
+              BigFractionText.write(value, this.bufferWriter);
+            } else {
+              this.format(CharBuffer.wrap(value.toString()));
+            } // if-else
+            this.format(CharBuffer.wrap(OutputPipeline.LINE_SEPARATOR));
+          } // if-else
+          this.texts[slot] = null;
+          this.values[slot] = null;
+          this.matrices[slot] = null;
+          this.codes[slot] = null;
+        } // for
+        this.head = end;
+      } // while
+    } catch (IOException | RuntimeException err) {
+      // The producer checks for this while the ring buffer is full
+      this.failure = err;
+    } // try-catch
+  } // drain()
+
+  /**
+   * Encodes an entry into the output buffer as a binary frame.
+   * @param slot The slot of the entry in the ring buffer.
+   * @throws IOException If the buffer cannot be written.
+   */
+  private void writeFrame(int slot) throws IOException {
+    ByteBuffer frame;
+    if (this.codes[slot] != null) {
+      frame = this.reserve(OutputPipeline.ERROR_FRAME_SIZE);
+      frame.put(WireFormat.ERROR);
+      WireFormat.putVarint(frame, this.codes[slot].ordinal());
+      WireFormat.putVarint(frame, this.starts[slot]);
+      WireFormat.putVarint(frame, this.ends[slot]);
+    } else if (this.matrices[slot] != null) {
+      Matrix value = this.matrices[slot];
+      frame = this.reserve(1 + WireFormat.matrixSize(value));
+      frame.put(WireFormat.MATRIX);
+      WireFormat.putMatrix(frame, value);
+    } else if (this.values[slot] == null) {
+      String message = this.texts[slot];
+      frame = this.reserve(OutputPipeline.ERROR_FRAME_SIZE
+          + message.length() * (int) this.encoder.maxBytesPerChar());
+      WireFormat.putText(frame, WireFormat.MESSAGE, message);
+    } else {
+      BigFraction value = this.values[slot];
+      frame = this.reserve(1 + WireFormat.fractionSize(value));
+      frame.put(WireFormat.RESULT);
+      WireFormat.putFraction(frame, value);
+    } // if-else chain
+    this.release(frame);
+  } // writeFrame(int)
+
+  /**
+   * Returns a buffer with room for a frame: the output buffer, written out
+   * first if needed, or a new buffer if the frame is larger than it.
+   * @param size The largest size of the frame, in bytes.
+   * @return The buffer into which to encode the frame.
+   * @throws IOException If the output buffer cannot be written.
+   */
+  private ByteBuffer reserve(int size) throws IOException {
+    if (size > this.buffer.capacity()) {
+      this.writeBuffer();
+      return ByteBuffer.allocate(size);
+    } // if
+    if (size > this.buffer.remaining()) {
+      this.writeBuffer();
+    } // if
+    return this.buffer;
+  } // reserve(int)
+
+  /**
+   * Writes out a frame encoded into a buffer returned by reserve, unless it
+   * is the output buffer.
+   * @param frame The buffer holding the frame.
+   * @throws IOException If the frame cannot be written.
+   */
+  private void release(ByteBuffer frame) throws IOException {
+    if (frame != this.buffer) {
+      frame.flip();
+      while (frame.hasRemaining()) {
+        this.channel.write(frame);
+      } // while
+    } // if
+  } // release(ByteBuffer)
+
+  /**
+   * Encodes text into the output buffer, writing the buffer out whenever it fills.
+   * @param chars The text to encode.
+   * @throws IOException If the buffer cannot be written.
+   */
+  private void format(CharBuffer chars) throws IOException {
+    while (true) {
+      CoderResult result = this.encoder.encode(chars, this.buffer, true);
+      if (!result.isOverflow()) {
+        break;
+      } // if
+      this.writeBuffer();
+    } // while
+    this.encoder.reset();
+  } // format(CharBuffer)
+
+  /**
+   * Writes out everything in the output buffer.
+   * @throws IOException If the buffer cannot be written.
+   */
+  private void writeBuffer() throws IOException {
+    this.buffer.flip();
+    while (this.buffer.hasRemaining()) {
+      this.channel.write(this.buffer);
+    } // while
+    this.buffer.clear();
+  } // writeBuffer()
+} // class OutputPipeline
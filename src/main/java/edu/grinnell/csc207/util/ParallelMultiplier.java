@@ -0,0 +1,191 @@
+package edu.grinnell.csc207.util;
+
+import java.math.BigInteger;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class multiplies very large integers using several cores.
+ *
+ * Parallel arithmetic is off unless the parallel threshold is lowered, either
+ * with setParallelThreshold or the bigfraction.parallelThreshold system
+ * property. Once on, BigFraction computes the independent products in
+ * add and multiply at the same time whenever an operand is at least that
+ * many bits long. Each product whose operands are both at least the split
+ * threshold is itself split into three half-sized products (Karatsuba), which
+ * are also computed at the same time. Each task runs under the budget of
+ * the command that created it.
+ *
+ * @author David William Stroud
+ */
+public final class ParallelMultiplier {
+  /**
+   * The default split threshold, in bits.
+   */
+  private static final int DEFAULT_SPLIT_THRESHOLD = 262144;
+
+  /**
+   * The smallest operand, in bits, for which BigFraction computes its
+   * products in parallel. Integer.MAX_VALUE turns parallel arithmetic off.
+   */
+  private static volatile int parallelThreshold =
+      Integer.getInteger("bigfraction.parallelThreshold", Integer.MAX_VALUE);
+
+  /**
+   * The smallest operands, in bits, which are split into parallel halves.
+   */
+  private static volatile int splitThreshold =
+      Integer.getInteger("bigfraction.splitThreshold",
+          ParallelMultiplier.DEFAULT_SPLIT_THRESHOLD);
+
+  /**
+   * A task computing one product.
+   */
+  private static final class Product extends RecursiveTask<BigInteger> {
+    /**
+     * The version of the serialized form of this class.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The first factor.
+     */
+    private final BigInteger left;
+    /**
+     * The second factor.
+     */
+    private final BigInteger right;
+    /**
+     * The budget of the command that created this task, if any.
+     */
+    private final transient Budget budget = Budget.current();
+
+    /**
+     * Creates a task computing left1 * right1, under the budget of the
+     * command running on the current thread.
+     * @param left1 The first factor.
+     * @param right1 The second factor.
+     */
+    Product(BigInteger left1, BigInteger right1) {
+      this.left = left1;
+      this.right = right1;
+    } // Product(BigInteger, BigInteger)
+
+    /**
+     * Computes the product.
+     * @return The product.
+     */
+    protected BigInteger compute() {
+      return Budget.call(this.budget,
+          () -> ParallelMultiplier.multiply(this.left, this.right));
+    } // compute()
+  } // class Product
+
+  private ParallelMultiplier() { } // ParallelMultiplier()
+
+  /**
+   * Sets the smallest operand, in bits, for which BigFraction computes its
+   * products in parallel.
+   * @param bits The threshold, or Integer.MAX_VALUE to turn parallel arithmetic off.
+   */
+  public static void setParallelThreshold(int bits) {
+    ParallelMultiplier.parallelThreshold = bits;
+  } // setParallelThreshold(int)
+
+  /**
+   * Returns the smallest operand, in bits, for which BigFraction computes
+   * its products in parallel.
+   * @return The threshold, or Integer.MAX_VALUE if parallel arithmetic is off.
+   */
+  public static int getParallelThreshold() {
+    return ParallelMultiplier.parallelThreshold;
+  } // getParallelThreshold()
+
+  /**
+   * Sets the smallest operands, in bits, that are split into parallel halves.
+   * @param bits The threshold.
+   */
+  public static void setSplitThreshold(int bits) {
+    ParallelMultiplier.splitThreshold = bits;
+  } // setSplitThreshold(int)
+
+  /**
+   * Returns the smallest operands, in bits, that are split into parallel halves.
+   * @return The threshold.
+   */
+  public static int getSplitThreshold() {
+    return ParallelMultiplier.splitThreshold;
+  } // getSplitThreshold()
+
+  /**
+   * Determines whether products of these operands should be computed in parallel.
+   * @param first One operand.
+   * @param second Another operand.
+   * @return Whether either operand reaches the parallel threshold.
+   */
+  static boolean isLarge(BigInteger first, BigInteger second) {
+    int threshold = ParallelMultiplier.parallelThreshold;
+    return first.bitLength() >= threshold || second.bitLength() >= threshold;
+  } // isLarge(BigInteger, BigInteger)
+
+  /**
+   * Multiplies two integers, splitting the work across cores if both are
+   * at least the split threshold.
+   * @param left The first factor.
+   * @param right The second factor.
+   * @return The product.
+   */
+  public static BigInteger multiply(BigInteger left, BigInteger right) {
+    int threshold = ParallelMultiplier.splitThreshold;
+    if (left.bitLength() < threshold || right.bitLength() < threshold) {
+      return left.multiply(right);
+    } // if
+
+    Budget.checkpoint();
+    BigInteger leftAbs = left.abs();
+    BigInteger rightAbs = right.abs();
+    int half = Math.max(leftAbs.bitLength(), rightAbs.bitLength()) / 2;
+    BigInteger leftHigh = leftAbs.shiftRight(half);
+    BigInteger leftLow = leftAbs.subtract(leftHigh.shiftLeft(half));
+    BigInteger rightHigh = rightAbs.shiftRight(half);
+    BigInteger rightLow = rightAbs.subtract(rightHigh.shiftLeft(half));
+
+    Product high = new Product(leftHigh, rightHigh);
+    Product low = new Product(leftLow, rightLow);
+    high.fork();
+    low.fork();
+    BigInteger middle = ParallelMultiplier.multiply(leftHigh.add(leftLow),
+        rightHigh.add(rightLow));
+    BigInteger highProduct = high.join();
+    BigInteger lowProduct = low.join();
+    middle = middle.subtract(highProduct).subtract(lowProduct);
+
+    BigInteger result = highProduct.shiftLeft(2 * half)
+        .add(middle.shiftLeft(half))
+        .add(lowProduct);
+    return (left.signum() * right.signum() < 0) ? result.negate() : result;
+  } // multiply(BigInteger, BigInteger)
+
+  /**
+   * Computes several products at the same time.
+   * @param factors The factors, in pairs: the first product is of factors[0]
+   *   and factors[1], the second of factors[2] and factors[3], and so on.
+   * @return The products, in order.
+   */
+  public static BigInteger[] multiplyPairs(BigInteger... factors) {
+    int count = factors.length / 2;
+    Product[] tasks = new Product[count];
+    for (int i = 1; i < count; i++) {
+      tasks[i] = new Product(factors[2 * i], factors[2 * i + 1]);
+      tasks[i].fork();
+    } // for
+
+    BigInteger[] products = new BigInteger[count];
+    if (count > 0) {
+      products[0] = ParallelMultiplier.multiply(factors[0], factors[1]);
+    } // if
+    for (int i = 1; i < count; i++) {
+      products[i] = tasks[i].join();
+    } // for
+    return products;
+  } // multiplyPairs(BigInteger...)
+} // class ParallelMultiplier
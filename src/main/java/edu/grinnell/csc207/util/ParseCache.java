@@ -0,0 +1,64 @@
+package edu.grinnell.csc207.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class represents a cache of parsed expressions, which may be shared
+ * by any number of command executors on any number of threads.
+ *
+ * Parsed tokens never change and refer to registers by name rather than by
+ * value, so one parse of an expression can serve every executor. The cache
+ * holds at most a fixed number of expressions, and is emptied when it fills.
+ *
+ * @author David William Stroud
+ */
+public class ParseCache {
+  /**
+   * The parsed tokens of each cached expression.
+   */
+  private final ConcurrentHashMap<String, Token[]> plans = new ConcurrentHashMap<>();
+  /**
+   * The largest number of expressions to cache.
+   */
+  private final int capacity;
+
+  /**
+   * Creates a cache holding at most capacity1 expressions.
+   * @param capacity1 The largest number of expressions to cache.
+   */
+  public ParseCache(int capacity1) {
+    this.capacity = capacity1;
+  } // ParseCache(int)
+
+  /**
+   * Parses an expression, reusing an earlier parse of the same text if possible.
+   * @param line The expression to be parsed.
+   * @param errors The sink to which to report a word that is not a valid token,
+   *   or null to not report it.
+   * @return The array of tokens in the expression, which must not be modified,
+   *   or null if a word is not a valid token.
+   */
+  public Token[] parse(String line, ErrorSink errors) {
+    Token[] tokens = this.plans.get(line);
+    if (tokens != null) {
+      return tokens;
+    } // if
+
+    tokens = Token.parse(line, errors);
+    if (tokens != null) {
+      if (this.plans.size() >= this.capacity) {
+        this.plans.clear();
+      } // if
+      this.plans.put(line, tokens);
+    } // if
+    return tokens;
+  } // parse(String, ErrorSink)
+
+  /**
+   * Returns the number of cached expressions.
+   * @return The number of cached expressions.
+   */
+  public int size() {
+    return this.plans.size();
+  } // size()
+} // class ParseCache
@@ -0,0 +1,153 @@
+package edu.grinnell.csc207.util;
+
+import java.math.BigInteger;
+import java.util.stream.IntStream;
+
+/**
+ * This class represents an immutable polynomial with fraction coefficients,
+ * which it evaluates exactly by Horner's method.
+ *
+ * Rather than adding and multiplying fractions, which reduces by a gcd at
+ * every step, the coefficients are scaled once to integers by the least
+ * common multiple of their denominators. At a point p/q, Horner's method
+ * then runs on the numerator p alone, multiplying each coefficient by the
+ * matching power of q, so every step is integer arithmetic and the value is
+ * reduced only once, at the end. Evaluating at many points shares the
+ * scaled coefficients, and once there are at least the parallel points many
+ * points, they are evaluated on several cores at once. That setting may also
+ * be given with the polynomial.parallelPoints system property.
+ *
+ * @author David William Stroud
+ */
+public final class Polynomial {
+  /**
+   * The default smallest number of points evaluated in parallel.
+   */
+  private static final int DEFAULT_PARALLEL_POINTS = 16;
+
+  /**
+   * The smallest number of points that are evaluated in parallel.
+   */
+  private static volatile int parallelPoints =
+      Integer.getInteger("polynomial.parallelPoints", Polynomial.DEFAULT_PARALLEL_POINTS);
+
+  /**
+   * The coefficients, from the highest power down to the constant term.
+   */
+  private final BigFraction[] coefficients;
+  /**
+   * The coefficients times the common denominator, or null if a coefficient
+   * has a zero denominator and so cannot be scaled.
+   */
+  private final BigInteger[] scaled;
+  /**
+   * The least common multiple of the denominators of the coefficients.
+   */
+  private final BigInteger common;
+
+  /**
+   * Creates a polynomial with a copy of coefficients1.
+   * @param coefficients1 The coefficients, from the highest power down to
+   *   the constant term.
+   * @throws IllegalArgumentException If there are no coefficients.
+   */
+  public Polynomial(BigFraction[] coefficients1) {
+    if (coefficients1.length == 0) {
+      throw new IllegalArgumentException("Polynomial has no coefficients");
+    } // if
+    this.coefficients = coefficients1.clone();
+
+    BigInteger lcm = BigInteger.ONE;
+    for (BigFraction coefficient : this.coefficients) {
+      BigInteger denominator = coefficient.denominator().abs();
+      if (denominator.signum() == 0) {
+        lcm = null;
+        break;
+      } // if
+      lcm = lcm.divide(lcm.gcd(denominator)).multiply(denominator);
+    } // for
+    this.common = lcm;
+    if (lcm == null) {
+      this.scaled = null;
+    } else {
+      this.scaled = new BigInteger[this.coefficients.length];
+      for (int i = 0; i < this.coefficients.length; i++) {
+        BigFraction coefficient = this.coefficients[i];
+        this.scaled[i] = coefficient.numerator().multiply(lcm.divide(coefficient.denominator()));
+      } // for
+    } // if-else
+  } // Polynomial(BigFraction[])
+
+  /**
+   * Sets the smallest number of points that are evaluated in parallel.
+   * @param points The threshold, or Integer.MAX_VALUE to always evaluate
+   *   points in turn.
+   */
+  public static void setParallelPoints(int points) {
+    Polynomial.parallelPoints = points;
+  } // setParallelPoints(int)
+
+  /**
+   * Returns the smallest number of points that are evaluated in parallel.
+   * @return The threshold.
+   */
+  public static int getParallelPoints() {
+    return Polynomial.parallelPoints;
+  } // getParallelPoints()
+
+  /**
+   * Returns the degree of this polynomial, counting any leading zero
+   * coefficients.
+   * @return The degree.
+   */
+  public int degree() {
+    return this.coefficients.length - 1;
+  } // degree()
+
+  /**
+   * Evaluates this polynomial at a point.
+   * @param x The point.
+   * @return The value of this polynomial at x.
+   */
+  public BigFraction evaluate(BigFraction x) {
+    if (this.scaled == null || x.denominator().signum() == 0) {
+      // Without a common denominator, fall back on fraction arithmetic
+      BigFraction result = this.coefficients[0];
+      for (int i = 1; i < this.coefficients.length; i++) {
+        Budget.checkpoint();
+        result = result.multiply(x).add(this.coefficients[i]);
+      } // for
+      return result;
+    } // if
+
+    // With x = p/q, q^n * P(x) * common = sum of scaled[i] * p^(n-i) * q^i
+    BigInteger p = x.numerator();
+    BigInteger q = x.denominator();
+    BigInteger sum = this.scaled[0];
+    BigInteger power = BigInteger.ONE;
+    for (int i = 1; i < this.scaled.length; i++) {
+      Budget.checkpoint();
+      power = power.multiply(q);
+      sum = sum.multiply(p).add(this.scaled[i].multiply(power));
+    } // for
+    BigFraction result = new BigFraction(sum, this.common.multiply(power));
+    Budget.checkResult(result);
+    return result;
+  } // evaluate(BigFraction)
+
+  /**
+   * Evaluates this polynomial at many points.
+   * @param points The points.
+   * @return The value of this polynomial at each point, in the same order.
+   */
+  public BigFraction[] evaluate(BigFraction[] points) {
+    BigFraction[] values = new BigFraction[points.length];
+    IntStream indices = IntStream.range(0, points.length);
+    if (points.length >= Polynomial.parallelPoints) {
+      indices = indices.parallel();
+    } // if
+    Budget budget = Budget.current();
+    indices.forEach((i) -> Budget.run(budget, () -> values[i] = this.evaluate(points[i])));
+    return values;
+  } // evaluate(BigFraction[])
+} // class Polynomial
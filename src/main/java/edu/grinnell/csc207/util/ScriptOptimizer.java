@@ -0,0 +1,495 @@
+package edu.grinnell.csc207.util;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class rewrites a whole script of commands into a shorter script with
+ * the same output.
+ *
+ * Since expressions are evaluated from left to right, every subexpression
+ * of an expression is one of its prefixes. The optimizer
+ * <ul>
+ *   <li>folds the longest prefix of each expression made only of literals
+ *     into a single literal;</li>
+ *   <li>removes each STORE whose register is stored again before it is
+ *     read;</li>
+ *   <li>replaces a prefix equal to an earlier expression, whose registers
+ *     have not been stored since, with a register holding the earlier
+ *     value. Such registers are ones the script never uses.</li>
+ * </ul>
+ * Only steps that cannot fail are folded or reused, so errors are reported
+ * just as before. Statements separated by semicolons are split onto their
+ * own lines.
+ *
+ * The optimized script must be run by a new CommandExecutor, without
+ * printing commands, since the text of commands changes.
+ *
+ * @author David William Stroud
+ */
+public final class ScriptOptimizer {
+  /**
+   * Literal prefixes are not folded into values with more bits than this,
+   * since long literals are slow to parse.
+   */
+  private static final int MAX_FOLD_BITS = 4096;
+  /**
+   * The number of words in the shortest expression worth reusing.
+   */
+  private static final int MIN_REUSE_WORDS = 3;
+
+  /**
+   * The kinds of statement.
+   */
+  private enum Kind {
+    /**
+     * An expression.
+     */
+    EXPRESSION,
+    /**
+     * A valid STORE command.
+     */
+    STORE,
+    /**
+     * A valid LIMIT command.
+     */
+    LIMIT,
+    /**
+     * The QUIT command.
+     */
+    QUIT,
+    /**
+     * A REPEAT command, or a line kept whole, which may store any register
+     * it names.
+     */
+    REPEAT,
+    /**
+     * Any other statement, which is kept as it is.
+     */
+    OTHER
+  } // enum Kind
+
+  /**
+   * A single statement of a script.
+   */
+  private static class Statement {
+    /**
+     * The text of the statement.
+     */
+    private final String text;
+    /**
+     * The kind of statement.
+     */
+    private Kind kind = Kind.OTHER;
+    /**
+     * The tokens of an expression, or null.
+     */
+    private Token[] tokens = null;
+    /**
+     * The text of each token of a well-formed expression, after folding,
+     * or null if the expression is not rewritten.
+     */
+    private String[] words = null;
+    /**
+     * The slot of the register of a STORE command.
+     */
+    private int register;
+    /**
+     * The new limit of a LIMIT command, or null if the command turns limits off.
+     */
+    private BigInteger limit = null;
+    /**
+     * The slots of the registers read by this statement.
+     */
+    private final BitSet reads = new BitSet();
+    /**
+     * Whether this statement is a STORE that can be removed.
+     */
+    private boolean dead = false;
+    /**
+     * The index of the statement whose value this statement reuses, or -1.
+     */
+    private int source = -1;
+    /**
+     * The number of words replaced by the value of the source statement.
+     */
+    private int reused = 0;
+    /**
+     * The index of the last statement that reuses the value of this one, or -1.
+     */
+    private int lastUse = -1;
+    /**
+     * The register holding the value of this statement for reuse, or 0.
+     */
+    private char temp = 0;
+
+    /**
+     * Creates a statement.
+     * @param text1 The text of the statement.
+     */
+    Statement(String text1) {
+      this.text = text1;
+    } // Statement(String)
+  } // class Statement
+
+  private ScriptOptimizer() { } // ScriptOptimizer()
+
+  /**
+   * Optimizes a script.
+   * @param script The commands of the script, one per line.
+   * @return The commands of the optimized script.
+   */
+  public static List<String> optimize(List<String> script) {
+    List<Statement> statements = ScriptOptimizer.split(script);
+    BitSet used = new BitSet();
+    for (Statement statement : statements) {
+      ScriptOptimizer.classify(statement);
+      used.or(statement.reads);
+      if (statement.kind == Kind.STORE) {
+        used.set(statement.register);
+      } // if
+    } // for
+
+    ScriptOptimizer.removeDeadStores(statements);
+    ScriptOptimizer.foldAndReuse(statements);
+
+    Deque<Character> free = new ArrayDeque<>();
+    for (char register = 'a'; register <= 'z'; register++) {
+      if (!used.get(register - 'a')) {
+        free.push(register);
+      } // if
+    } // for
+
+    List<String> result = new ArrayList<>(statements.size());
+    for (int i = 0; i < statements.size(); i++) {
+      Statement statement = statements.get(i);
+      if (statement.dead) {
+        continue;
+      } // if
+      if (statement.words == null) {
+        result.add(statement.text);
+        continue;
+      } // if
+
+      StringBuilder line = new StringBuilder();
+      int from = 0;
+      if (statement.source != -1) {
+        Statement source = statements.get(statement.source);
+        if (source.temp != 0) {
+          line.append(source.temp);
+          from = statement.reused;
+        } // if
+        if (source.lastUse == i && source.temp != 0) {
+          free.push(source.temp);
+        } // if
+      } // if
+      for (int j = from; j < statement.words.length; j++) {
+        if (line.length() > 0) {
+          line.append(' ');
+        } // if
+        line.append(statement.words[j]);
+      } // for
+      result.add(line.toString());
+
+      if (statement.lastUse != -1 && !free.isEmpty()) {
+        statement.temp = free.pop();
+        result.add(CommandExecutor.STORE_PREFIX + statement.temp);
+      } // if
+    } // for
+    return result;
+  } // optimize(List<String>)
+
+  /**
+   * Splits the lines of a script into statements, as CommandExecutor does,
+   * so that a REPEAT statement keeps the rest of its line.
+   * @param script The lines of the script.
+   * @return The statements of the script.
+   */
+  private static List<Statement> split(List<String> script) {
+    List<Statement> statements = new ArrayList<>(script.size());
+    for (String line : script) {
+      if (line.indexOf(CommandExecutor.STATEMENT_SEPARATOR) == -1) {
+        statements.add(new Statement(line));
+        continue;
+      } else if (!ScriptOptimizer.namesFit(line)) {
+        // A name with no room in the symbol table stops the rest of its
+        // line, so the line is kept whole, and treated as a REPEAT is
+        Statement whole = new Statement(line);
+        whole.kind = Kind.REPEAT;
+        statements.add(whole);
+        continue;
+      } // if-else
+      int start = 0;
+      while (start <= line.length()) {
+        int end = CommandExecutor.isRepeat(line, start)
+            ? -1
+            : line.indexOf(CommandExecutor.STATEMENT_SEPARATOR, start);
+        if (end == -1) {
+          end = line.length();
+        } // if
+        String statement = line.substring(start, end).trim();
+        if (!statement.isEmpty()) {
+          statements.add(new Statement(statement));
+        } // if
+        start = end + 1;
+      } // while
+    } // for
+    return statements;
+  } // split(List<String>)
+
+  /**
+   * Determines whether every word of a line that could name a register has,
+   * or can be given, a slot.
+   * @param line The line.
+   * @return Whether every name in the line fits in the symbol table.
+   */
+  private static boolean namesFit(String line) {
+    int start = 0;
+    for (int i = 0; i <= line.length(); i++) {
+      if (i == line.length() || line.charAt(i) == ' '
+          || line.charAt(i) == CommandExecutor.STATEMENT_SEPARATOR) {
+        if (Token.isName(line, start, i) && SymbolTable.tryIntern(line, start, i) < 0) {
+          return false;
+        } // if
+        start = i + 1;
+      } // if
+    } // for
+    return true;
+  } // namesFit(String)
+
+  /**
+   * Determines the kind of a statement and the registers it reads.
+   * @param statement The statement.
+   */
+  private static void classify(Statement statement) {
+    String trimmed = statement.text.trim();
+    if (statement.kind == Kind.REPEAT) {
+      // A line kept whole by split
+      ScriptOptimizer.readNames(statement, trimmed);
+    } else if (trimmed.equals(CommandExecutor.QUIT_COMMAND)) {
+      statement.kind = Kind.QUIT;
+    } else if (trimmed.startsWith(CommandExecutor.STORE_PREFIX)) {
+      String remaining = trimmed.substring(CommandExecutor.STORE_PREFIX.length());
+      int slot = Token.isName(remaining, 0, remaining.length())
+          ? SymbolTable.tryIntern(remaining, 0, remaining.length())
+          : -1;
+      if (slot >= 0) {
+        statement.kind = Kind.STORE;
+        statement.register = slot;
+      } // if
+    } else if (trimmed.startsWith(CommandExecutor.LIMIT_PREFIX)) {
+      String remaining = trimmed.substring(CommandExecutor.LIMIT_PREFIX.length());
+      if (remaining.equals(CommandExecutor.MODE_OFF)) {
+        statement.kind = Kind.LIMIT;
+      } else if (Token.isInteger(remaining, 0, remaining.length())
+          && new BigInteger(remaining).signum() > 0) {
+        statement.kind = Kind.LIMIT;
+        statement.limit = new BigInteger(remaining);
+      } // if-else
+    } else if (trimmed.startsWith(CommandExecutor.REPEAT_PREFIX)) {
+      statement.kind = Kind.REPEAT;
+      ScriptOptimizer.readNames(statement, trimmed);
+    } else if (!trimmed.startsWith(CommandExecutor.DECIMAL_PREFIX)) {
+      try {
+        statement.tokens = Token.parse(statement.text);
+      } catch (NumberFormatException | BudgetExceededException err) {
+        // Other commands, such as DET, and expressions naming more registers
+        // than fit, may still read registers
+        ScriptOptimizer.readNames(statement, trimmed);
+        return;
+      } // try-catch
+      statement.kind = Kind.EXPRESSION;
+      for (Token token : statement.tokens) {
+        if (token.getType() == Token.TokenType.REGISTER) {
+          statement.reads.set(token.getSlot());
+        } // if
+      } // for
+    } // if-else chain
+  } // classify(Statement)
+
+  /**
+   * Marks every word of a statement that could name a register as read.
+   * @param statement The statement.
+   * @param trimmed The text of the statement, without leading or trailing spaces.
+   */
+  private static void readNames(Statement statement, String trimmed) {
+    int start = 0;
+    for (int i = 0; i <= trimmed.length(); i++) {
+      if (i == trimmed.length() || trimmed.charAt(i) == ' '
+          || trimmed.charAt(i) == CommandExecutor.STATEMENT_SEPARATOR) {
+        int slot = Token.isName(trimmed, start, i)
+            ? SymbolTable.tryIntern(trimmed, start, i)
+            : -1;
+        if (slot >= 0) {
+          statement.reads.set(slot);
+        } // if
+        start = i + 1;
+      } // if
+    } // for
+  } // readNames(Statement, String)
+
+  /**
+   * Marks each STORE whose register is stored again before being read.
+   * @param statements The statements of the script.
+   */
+  private static void removeDeadStores(List<Statement> statements) {
+    // Registers that are stored later on, before being read
+    BitSet overwritten = new BitSet();
+    for (int i = statements.size() - 1; i >= 0; i--) {
+      Statement statement = statements.get(i);
+      if (statement.kind == Kind.STORE) {
+        statement.dead = overwritten.get(statement.register);
+        overwritten.set(statement.register);
+      } else if (statement.kind == Kind.QUIT) {
+        overwritten.clear();
+      } else {
+        overwritten.andNot(statement.reads);
+      } // if-else chain
+    } // for
+  } // removeDeadStores(List<Statement>)
+
+  /**
+   * Determines whether an operation on a value can be applied without failing.
+   * @param operator The operator.
+   * @param operand The second operand.
+   * @return Whether applying operator cannot fail.
+   */
+  private static boolean isSafe(Token operator, Token operand) {
+    if (operator.getType() == Token.TokenType.DIVIDE) {
+      return operand.getType() == Token.TokenType.FRACTION
+          && operand.getAsFraction(null).signum() != 0;
+    } else if (operator.getType() == Token.TokenType.POWER) {
+      return operand.getType() == Token.TokenType.FRACTION
+          && CommandExecutor.isValidExponent(operand.getAsFraction(null))
+          && operand.getAsFraction(null).signum() >= 0;
+    } // if-else
+    return true;
+  } // isSafe(Token, Token)
+
+  /**
+   * Folds literal prefixes and finds prefixes that can reuse earlier values.
+   * @param statements The statements of the script.
+   */
+  private static void foldAndReuse(List<Statement> statements) {
+    BigInteger limit = null;
+    Map<String, Integer> available = new HashMap<>();
+    BFCalculator calculator = new BFCalculator();
+    for (int i = 0; i < statements.size(); i++) {
+      Statement statement = statements.get(i);
+      if (statement.kind == Kind.STORE) {
+        int register = statement.register;
+        available.values().removeIf(s -> statements.get(s).reads.get(register));
+        continue;
+      } else if (statement.kind == Kind.LIMIT) {
+        limit = statement.limit;
+        available.clear();
+        continue;
+      } else if (statement.kind == Kind.QUIT) {
+        available.clear();
+        continue;
+      } else if (statement.kind == Kind.REPEAT) {
+        available.clear();
+        if (statement.text.contains(CommandExecutor.LIMIT_PREFIX)) {
+          // The limit after the loop is unknown, so nothing later is folded
+          return;
+        } // if
+        continue;
+      } else if (statement.kind != Kind.EXPRESSION
+          || !ScriptOptimizer.isWellFormed(statement.tokens)) {
+        continue;
+      } // if-else chain
+
+      Token[] tokens = statement.tokens;
+      boolean safe = true;
+      for (int j = 1; j < tokens.length; j += 2) {
+        safe &= ScriptOptimizer.isSafe(tokens[j], tokens[j + 1]);
+      } // for
+
+      // Fold the longest prefix of literals
+      int folded = 1;
+      BigFraction value = null;
+      if (tokens[0].getType() == Token.TokenType.FRACTION) {
+        calculator.reset(tokens[0].getAsFraction(null), limit);
+        while (folded < tokens.length
+            && tokens[folded + 1].getType() == Token.TokenType.FRACTION
+            && ScriptOptimizer.isSafe(tokens[folded], tokens[folded + 1])
+            && (tokens[folded].getType() != Token.TokenType.POWER
+                || calculator.canPower(
+                    CommandExecutor.exponent(tokens[folded + 1].getAsFraction(null))))) {
+          CommandExecutor.applyOperation(calculator, tokens[folded],
+              tokens[folded + 1].getAsFraction(null));
+          BigFraction next = calculator.get();
+          if (next.numerator().bitLength() + next.denominator().bitLength()
+              > ScriptOptimizer.MAX_FOLD_BITS) {
+            break;
+          } // if
+          value = next;
+          folded += 2;
+        } // while
+      } // if
+
+      String[] words = new String[tokens.length - folded + 1];
+      words[0] = (value == null) ? ScriptOptimizer.text(statement, tokens[0]) : value.toString();
+      for (int j = folded; j < tokens.length; j++) {
+        words[j - folded + 1] = ScriptOptimizer.text(statement, tokens[j]);
+      } // for
+      statement.words = words;
+
+      // Reuse the longest prefix computed by an earlier statement
+      StringBuilder key = new StringBuilder(words[0]);
+      String[] keys = new String[words.length + 1];
+      for (int j = 1; j < words.length; j++) {
+        key.append(' ').append(words[j]);
+        keys[j + 1] = key.toString();
+      } // for
+      for (int length = words.length; length >= ScriptOptimizer.MIN_REUSE_WORDS; length -= 2) {
+        Integer source = available.get(keys[length]);
+        if (source != null) {
+          statement.source = source;
+          statement.reused = length;
+          statements.get(source).lastUse = i;
+          break;
+        } // if
+      } // for
+
+      if (safe && words.length >= ScriptOptimizer.MIN_REUSE_WORDS
+          && statement.reused != words.length) {
+        available.put(keys[words.length], i);
+      } // if
+    } // for
+  } // foldAndReuse(List<Statement>)
+
+  /**
+   * Determines whether tokens alternate between numbers and operators,
+   * starting and ending with a number.
+   * @param tokens The tokens.
+   * @return Whether the tokens form a simple expression.
+   */
+  private static boolean isWellFormed(Token[] tokens) {
+    if (tokens.length % 2 == 0) {
+      return false;
+    } // if
+    for (int i = 0; i < tokens.length; i++) {
+      if ((i % 2 == 0) ? !tokens[i].isNumeric() : !tokens[i].isOperator()) {
+        return false;
+      } // if
+    } // for
+    return true;
+  } // isWellFormed(Token[])
+
+  /**
+   * Returns the text of a token.
+   * @param statement The statement containing the token.
+   * @param token The token.
+   * @return The text of the token.
+   */
+  private static String text(Statement statement, Token token) {
+    return statement.text.substring(token.getStart(), token.getEnd());
+  } // text(Statement, Token)
+} // class ScriptOptimizer
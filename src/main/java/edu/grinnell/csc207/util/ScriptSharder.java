@@ -0,0 +1,402 @@
+package edu.grinnell.csc207.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class splits a script into segments that can be run by separate
+ * executors, each starting from a snapshot of the state it needs.
+ *
+ * A script may only be split before a line whose remaining statements need
+ * no value computed earlier: every register they read before storing it
+ * must hold a value known without running the script, because it was
+ * never stored or was last stored from a single literal, and the line must
+ * not store the result of an earlier statement. The LIMIT and DECIMAL modes
+ * are tracked as well, unless a REPEAT might change them, after which the
+ * script is not split again. Statements after a QUIT are dropped, since
+ * they would never run.
+ *
+ * Running the segments in order, each by a new CommandExecutor restored
+ * from its snapshot, prints what running the whole script would print.
+ *
+ * @author David William Stroud
+ */
+public final class ScriptSharder {
+  /**
+   * One segment of a script.
+   */
+  public static final class Segment {
+    /**
+     * The registers with which the segment starts, in the form read by
+     * CommandExecutor.restoreState.
+     */
+    private final String snapshot;
+    /**
+     * The lines of the segment, after any commands that set its modes.
+     */
+    private final List<String> commands;
+
+    /**
+     * Creates a segment.
+     * @param snapshot1 The registers with which the segment starts.
+     * @param modes The commands that set the modes in which the segment starts.
+     * @param lines The lines of the script in the segment.
+     */
+    private Segment(String snapshot1, List<String> modes, List<String> lines) {
+      this.snapshot = snapshot1;
+      this.commands = new ArrayList<>(modes.size() + lines.size());
+      this.commands.addAll(modes);
+      this.commands.addAll(lines);
+    } // Segment(String, List<String>, List<String>)
+
+    /**
+     * Returns the registers with which this segment starts, in the form
+     * read by CommandExecutor.restoreState. It holds no blank lines.
+     * @return The snapshot.
+     */
+    public String snapshot() {
+      return this.snapshot;
+    } // snapshot()
+
+    /**
+     * Returns the lines of this segment. Any LIMIT or DECIMAL mode in which
+     * the segment starts is set by commands at its start, which print
+     * nothing, so that ScriptOptimizer sees them.
+     * @return The lines.
+     */
+    public List<String> commands() {
+      return this.commands;
+    } // commands()
+  } // class Segment
+
+  /**
+   * The state of a script before one of its lines, as far as it is known
+   * without running the script.
+   */
+  private static final class State {
+    /**
+     * The limit, or null if there is none.
+     */
+    private BigInteger limit = null;
+    /**
+     * Whether decimal mode is on.
+     */
+    private boolean decimal = false;
+    /**
+     * Whether the limit and decimal mode are known.
+     */
+    private boolean modesKnown = true;
+    /**
+     * The value of the last expression, or null if it is not known.
+     */
+    private BigFraction last = BigFraction.ZERO;
+    /**
+     * The known values of the registers that have been stored.
+     */
+    private final Map<Integer, BigFraction> values = new HashMap<>();
+    /**
+     * The registers whose values are not known.
+     */
+    private final BitSet unknown = new BitSet();
+  } // class State
+
+  private ScriptSharder() { } // ScriptSharder()
+
+  /**
+   * Splits a script into at most shards segments of roughly equal length.
+   * @param script The lines of the script.
+   * @param shards The largest number of segments to produce.
+   * @return The segments, in order, of which there may be fewer than shards.
+   */
+  public static List<Segment> shard(List<String> script, int shards) {
+    int n = script.size();
+    List<List<String>> lines = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      List<String> statements = ScriptSharder.split(script.get(i));
+      lines.add(statements);
+      if (statements.contains(CommandExecutor.QUIT_COMMAND)) {
+        n = i + 1;
+        break;
+      } // if
+    } // for
+
+    // Work backwards to find what each line onwards reads before storing
+    BitSet[] live = new BitSet[n + 1];
+    boolean[] lastLive = new boolean[n + 1];
+    live[n] = new BitSet();
+    for (int i = n - 1; i >= 0; i--) {
+      live[i] = (BitSet) live[i + 1].clone();
+      lastLive[i] = lastLive[i + 1];
+      List<String> statements = lines.get(i);
+      try {
+        for (int j = statements.size() - 1; j >= 0; j--) {
+          lastLive[i] = ScriptSharder.readsBefore(statements.get(j), live[i], lastLive[i]);
+        } // for
+      } catch (BudgetExceededException err) {
+        // A name with no room in the symbol table stops the line part way,
+        // so it may store nothing, and read any register it names
+        live[i] = (BitSet) live[i + 1].clone();
+        ScriptSharder.readNames(script.get(i), live[i]);
+        lastLive[i] = true;
+      } // try-catch
+    } // for
+
+    // Then forwards, to choose split points of roughly equal length
+    long total = 0;
+    for (int i = 0; i < n; i++) {
+      total += script.get(i).length() + 1;
+    } // for
+    List<Segment> segments = new ArrayList<>();
+    State state = new State();
+    String snapshot = "";
+    List<String> modes = List.of();
+    int start = 0;
+    long length = 0;
+    for (int i = 0; i < n; i++) {
+      long target = total * (segments.size() + 1) / shards;
+      if (i > start && length >= target && segments.size() < shards - 1
+          && ScriptSharder.canSplit(state, live[i], lastLive[i])) {
+        segments.add(new Segment(snapshot, modes, script.subList(start, i)));
+        snapshot = ScriptSharder.snapshot(state, live[i]);
+        modes = ScriptSharder.modes(state);
+        start = i;
+      } // if
+      try {
+        for (String statement : lines.get(i)) {
+          ScriptSharder.apply(statement, state);
+        } // for
+      } catch (BudgetExceededException err) {
+        // As above, the line is then treated as a whole, as a REPEAT is
+        ScriptSharder.applyOpaque(script.get(i), state);
+      } // try-catch
+      length += script.get(i).length() + 1;
+    } // for
+    if (start < n) {
+      segments.add(new Segment(snapshot, modes, script.subList(start, n)));
+    } // if
+    return segments;
+  } // shard(List<String>, int)
+
+  /**
+   * Splits a line into its statements, as CommandExecutor does.
+   * @param line The line.
+   * @return The trimmed statements of the line, without blank ones.
+   */
+  private static List<String> split(String line) {
+    List<String> statements = new ArrayList<>();
+    int start = 0;
+    while (start <= line.length()) {
+      int end = CommandExecutor.isRepeat(line, start)
+          ? -1
+          : line.indexOf(CommandExecutor.STATEMENT_SEPARATOR, start);
+      if (end == -1) {
+        end = line.length();
+      } // if
+      String statement = line.substring(start, end).trim();
+      if (!statement.isEmpty()) {
+        statements.add(statement);
+      } // if
+      start = end + 1;
+    } // while
+    return statements;
+  } // split(String)
+
+  /**
+   * Updates what is read before being stored, from a statement onwards,
+   * given what is read after the statement.
+   * @param statement The statement.
+   * @param live The registers read after the statement, before being
+   *   stored, which is updated in place.
+   * @param lastLive Whether the value of the last expression is read after
+   *   the statement, before another expression.
+   * @return Whether the value of the last expression is read from the
+   *   statement onwards.
+   */
+  private static boolean readsBefore(String statement, BitSet live, boolean lastLive) {
+    if (statement.startsWith(CommandExecutor.STORE_PREFIX)) {
+      String name = statement.substring(CommandExecutor.STORE_PREFIX.length());
+      if (Token.isName(name, 0, name.length())) {
+        live.clear(SymbolTable.intern(name));
+      } // if
+      return true;
+    } else if (statement.startsWith(CommandExecutor.LIMIT_PREFIX)
+        || statement.startsWith(CommandExecutor.DECIMAL_PREFIX)
+        || statement.equals(CommandExecutor.QUIT_COMMAND)) {
+      return lastLive;
+    } // if-else chain
+
+    Token[] tokens = ScriptSharder.parse(statement);
+    if (tokens == null) {
+      // REPEAT, DET, and the like may read any register they name, and
+      // may store the last value
+      ScriptSharder.readNames(statement, live);
+      return true;
+    } // if
+    for (Token token : tokens) {
+      if (token.getType() == Token.TokenType.REGISTER) {
+        live.set(token.getSlot());
+      } // if
+    } // for
+    // Only an expression starting with a number surely replaces the last value
+    return lastLive && !(tokens.length > 0 && tokens[0].isNumeric());
+  } // readsBefore(String, BitSet, boolean)
+
+  /**
+   * Updates the known state of a script after a statement.
+   * @param statement The statement.
+   * @param state The state before the statement, which is updated in place.
+   */
+  private static void apply(String statement, State state) {
+    if (statement.startsWith(CommandExecutor.STORE_PREFIX)) {
+      String name = statement.substring(CommandExecutor.STORE_PREFIX.length());
+      if (Token.isName(name, 0, name.length())) {
+        int slot = SymbolTable.intern(name);
+        state.unknown.set(slot, state.last == null);
+        state.values.put(slot, state.last);
+      } // if
+      return;
+    } else if (statement.startsWith(CommandExecutor.LIMIT_PREFIX)) {
+      String remaining = statement.substring(CommandExecutor.LIMIT_PREFIX.length());
+      if (remaining.equals(CommandExecutor.MODE_OFF)) {
+        state.limit = null;
+      } else if (Token.isInteger(remaining, 0, remaining.length())
+          && new BigInteger(remaining).signum() > 0) {
+        state.limit = new BigInteger(remaining);
+      } // if-else
+      return;
+    } else if (statement.startsWith(CommandExecutor.DECIMAL_PREFIX)) {
+      String remaining = statement.substring(CommandExecutor.DECIMAL_PREFIX.length());
+      if (remaining.equals(CommandExecutor.MODE_OFF)) {
+        state.decimal = false;
+      } else if (remaining.equals(CommandExecutor.MODE_ON)) {
+        state.decimal = true;
+      } // if-else
+      return;
+    } else if (statement.equals(CommandExecutor.QUIT_COMMAND)) {
+      return;
+    } // if-else chain
+
+    state.last = null;
+    Token[] tokens = ScriptSharder.parse(statement);
+    if (tokens == null) {
+      if (statement.startsWith(CommandExecutor.REPEAT_PREFIX)) {
+        ScriptSharder.applyOpaque(statement, state);
+      } // if
+    } else if (tokens.length == 1 && !state.decimal) {
+      // A lone number or register is the one value known without evaluating,
+      // since only computed values are limited
+      BigFraction value;
+      if (tokens[0].getType() == Token.TokenType.REGISTER) {
+        int slot = tokens[0].getSlot();
+        value = state.unknown.get(slot)
+            ? null
+            : state.values.getOrDefault(slot, BigFraction.ZERO);
+      } else {
+        value = tokens[0].isNumeric() ? tokens[0].getAsFraction(null) : null;
+      } // if-else
+      if (value != null && value.denominator().signum() != 0) {
+        state.last = value;
+      } // if
+    } // if-else chain
+  } // apply(String, State)
+
+  /**
+   * Updates the known state of a script after statements whose effects are
+   * not known, which may store any register they name, and change the modes.
+   * @param statements The statements.
+   * @param state The state before the statements, which is updated in place.
+   */
+  private static void applyOpaque(String statements, State state) {
+    state.last = null;
+    ScriptSharder.readNames(statements, state.unknown);
+    if (statements.contains(CommandExecutor.LIMIT_PREFIX)
+        || statements.contains(CommandExecutor.DECIMAL_PREFIX)) {
+      state.modesKnown = false;
+    } // if
+  } // applyOpaque(String, State)
+
+  /**
+   * Determines whether a script can be split before a line.
+   * @param state The known state before the line.
+   * @param live The registers read from the line onwards, before being stored.
+   * @param lastLive Whether the line stores the value of an earlier expression.
+   * @return Whether a segment can start at the line.
+   */
+  private static boolean canSplit(State state, BitSet live, boolean lastLive) {
+    return state.modesKnown && !lastLive && !live.intersects(state.unknown);
+  } // canSplit(State, BitSet, boolean)
+
+  /**
+   * Returns the commands that set the modes of a known state.
+   * @param state The known state.
+   * @return The LIMIT and DECIMAL commands needed, if any.
+   */
+  private static List<String> modes(State state) {
+    List<String> result = new ArrayList<>();
+    if (state.limit != null) {
+      result.add(CommandExecutor.LIMIT_PREFIX + state.limit);
+    } // if
+    if (state.decimal) {
+      result.add(CommandExecutor.DECIMAL_PREFIX + CommandExecutor.MODE_ON);
+    } // if
+    return result;
+  } // modes(State)
+
+  /**
+   * Writes the registers of a known state read by the rest of a script.
+   * @param state The known state.
+   * @param live The registers read by the rest of the script, before being stored.
+   * @return The registers, in the form read by CommandExecutor.restoreState.
+   */
+  private static String snapshot(State state, BitSet live) {
+    StringBuilder result = new StringBuilder();
+    for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+      BigFraction value = state.values.getOrDefault(slot, BigFraction.ZERO);
+      if (value.signum() != 0) {
+        result.append(SymbolTable.name(slot)).append(' ').append(value).append('\n');
+      } // if
+    } // for
+    return result.toString();
+  } // snapshot(State, BitSet)
+
+  /**
+   * Parses an expression.
+   * @param statement The statement.
+   * @return The tokens of the statement, or null if it is not an expression.
+   */
+  private static Token[] parse(String statement) {
+    if (CommandExecutor.isRepeat(statement, 0)) {
+      return null;
+    } // if
+    try {
+      return Token.parse(statement);
+    } catch (NumberFormatException err) {
+      return null;
+    } // try-catch
+  } // parse(String)
+
+  /**
+   * Marks every word of a statement that could name a register.
+   * @param statement The statement.
+   * @param names The set in which to mark the slots of the names.
+   */
+  private static void readNames(String statement, BitSet names) {
+    int start = 0;
+    for (int i = 0; i <= statement.length(); i++) {
+      if (i == statement.length() || statement.charAt(i) == ' '
+          || statement.charAt(i) == CommandExecutor.STATEMENT_SEPARATOR) {
+        int slot = Token.isName(statement, start, i)
+            ? SymbolTable.tryIntern(statement, start, i)
+            : -1;
+        if (slot >= 0) {
+          names.set(slot);
+        } // if
+        start = i + 1;
+      } // if
+    } // for
+  } // readNames(String, BitSet)
+} // class ScriptSharder
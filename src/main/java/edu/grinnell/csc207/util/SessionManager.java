@@ -0,0 +1,281 @@
+package edu.grinnell.csc207.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class runs many independent calculator sessions in one program,
+ * each identified by a name.
+ *
+ * Sessions are created the first time they are used. Every session shares
+ * one cache of parsed expressions and one error sink, so a session only
+ * holds its own registers, modes, and calculator. Commands in one session
+ * may run at the same time as commands in another, but commands in the same
+ * session run one at a time. The registers of a live session may be read,
+ * as a snapshot, from any thread without waiting for its commands.
+ *
+ * When there are too many sessions, the one used least recently is evicted,
+ * found in constant time from a second map kept in order of use.
+ * Evicted sessions are written to a spill directory, if there is one, and
+ * read back the next time they are used; otherwise, they are dropped. A
+ * session that executes QUIT is dropped along with any spilled state.
+ *
+ * @author David William Stroud
+ */
+public class SessionManager {
+  /**
+   * The suffix of the names of spilled session files.
+   */
+  private static final String SPILL_SUFFIX = ".session";
+
+  /**
+   * A single session.
+   */
+  private static class Session {
+    /**
+     * The executor holding the state of this session.
+     */
+    private final CommandExecutor executor;
+    /**
+     * When this session was last used, according to System.nanoTime.
+     */
+    private volatile long lastUsed = System.nanoTime();
+    /**
+     * Whether this session has been removed from the manager. Guarded by
+     * the session's lock.
+     */
+    private boolean evicted = false;
+
+    /**
+     * Creates a session with the given executor.
+     * @param executor1 The executor holding the state of this session.
+     */
+    Session(CommandExecutor executor1) {
+      this.executor = executor1;
+    } // Session(CommandExecutor)
+  } // class Session
+
+  /**
+   * The live sessions, by name.
+   */
+  private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+  /**
+   * The live sessions, from the one used least recently to the one used
+   * most recently. Guarded by itself, which is never locked while waiting
+   * for a session's lock.
+   */
+  private final LinkedHashMap<String, Session> recent = new LinkedHashMap<>(16, 0.75f, true);
+  /**
+   * The cache of parsed expressions shared by every session.
+   */
+  private final ParseCache parseCache;
+  /**
+   * The sink receiving errors from every session.
+   */
+  private final ErrorSink errors;
+  /**
+   * The largest number of live sessions.
+   */
+  private final int maxSessions;
+  /**
+   * The directory to which evicted sessions are written, or null to drop them.
+   */
+  private final Path spillDirectory;
+
+  /**
+   * Creates a session manager.
+   * @param errors1 The sink receiving errors from every session. It must be
+   *   safe to use from several threads at once.
+   * @param parseCache1 The cache of parsed expressions shared by every session.
+   * @param maxSessions1 The largest number of live sessions.
+   * @param spillDirectory1 The directory to which to write evicted sessions,
+   *   or null to drop them.
+   */
+  public SessionManager(ErrorSink errors1, ParseCache parseCache1, int maxSessions1,
+      Path spillDirectory1) {
+    this.errors = errors1;
+    this.parseCache = parseCache1;
+    this.maxSessions = maxSessions1;
+    this.spillDirectory = spillDirectory1;
+  } // SessionManager(ErrorSink, ParseCache, int, Path)
+
+  /**
+   * Checks that a session name is safe to use as a file name.
+   * @param id The session name.
+   * @throws IllegalArgumentException If the name is empty or contains
+   *   characters other than letters, digits, '-' and '_'.
+   */
+  private static void checkId(String id) {
+    if (id.isEmpty()) {
+      throw new IllegalArgumentException("Empty session name");
+    } // if
+    for (int i = 0; i < id.length(); i++) {
+      char c = id.charAt(i);
+      if (!(Character.isLetterOrDigit(c) || c == '-' || c == '_')) {
+        throw new IllegalArgumentException("Invalid session name: " + id);
+      } // if
+    } // for
+  } // checkId(String)
+
+  /**
+   * Returns the file to which a session is spilled.
+   * @param id The session name.
+   * @return The spill file of the session.
+   */
+  private Path spillFile(String id) {
+    return this.spillDirectory.resolve(id + SessionManager.SPILL_SUFFIX);
+  } // spillFile(String)
+
+  /**
+   * Creates a session, reading it back from the spill directory if it was spilled.
+   * @param id The session name.
+   * @return The new session.
+   */
+  private Session load(String id) {
+    Session session =
+        new Session(new CommandExecutor(this.errors, this.parseCache, false));
+    if (this.spillDirectory != null) {
+      Path file = this.spillFile(id);
+      if (Files.exists(file)) {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+          session.executor.restoreState(in);
+        } catch (IOException err) {
+          throw new UncheckedIOException(err);
+        } // try-catch
+      } // if
+    } // if
+    return session;
+  } // load(String)
+
+  /**
+   * Executes a command in a session, creating the session if needed.
+   * @param id The session name.
+   * @param command The command to be executed.
+   * @param printCommand Whether to print the command before the command output.
+   * @param pen The PrintWriter to use to print output, if needed.
+   */
+  public void execute(String id, String command, boolean printCommand, PrintWriter pen) {
+    SessionManager.checkId(id);
+    while (true) {
+      Session session = this.sessions.computeIfAbsent(id, this::load);
+      synchronized (session) {
+        if (session.evicted) {
+          continue;
+        } // if
+        session.lastUsed = System.nanoTime();
+        synchronized (this.recent) {
+          this.recent.put(id, session);
+        } // synchronized
+        session.executor.execute(command, printCommand, pen);
+        if (session.executor.hasQuit()) {
+          this.remove(id, session, false);
+        } // if
+      } // synchronized
+      break;
+    } // while
+
+    if (this.sessions.size() > this.maxSessions) {
+      this.evictLeastRecentlyUsed();
+    } // if
+  } // execute(String, String, boolean, PrintWriter)
+
+  /**
+   * Returns the registers of a live session as of the end of its most recent
+   * command, without waiting for any command it is running.
+   * @param id The session name.
+   * @return A snapshot of every register of the session, or null if it is
+   *   not live.
+   */
+  public BFRegisterSet.Snapshot snapshot(String id) {
+    Session session = this.sessions.get(id);
+    return (session == null) ? null : session.executor.snapshot();
+  } // snapshot(String)
+
+  /**
+   * Evicts every session that has not been used for at least maxIdleNanos.
+   * @param maxIdleNanos The longest a session may go unused, in nanoseconds.
+   */
+  public void evictIdle(long maxIdleNanos) {
+    long now = System.nanoTime();
+    for (Map.Entry<String, Session> entry : this.sessions.entrySet()) {
+      Session session = entry.getValue();
+      if (now - session.lastUsed >= maxIdleNanos) {
+        synchronized (session) {
+          if (!session.evicted && now - session.lastUsed >= maxIdleNanos) {
+            this.remove(entry.getKey(), session, true);
+          } // if
+        } // synchronized
+      } // if
+    } // for
+  } // evictIdle(long)
+
+  /**
+   * Evicts the session that was used least recently.
+   */
+  private void evictLeastRecentlyUsed() {
+    String oldestId = null;
+    Session oldest = null;
+    synchronized (this.recent) {
+      Iterator<Map.Entry<String, Session>> entries = this.recent.entrySet().iterator();
+      if (entries.hasNext()) {
+        Map.Entry<String, Session> entry = entries.next();
+        oldestId = entry.getKey();
+        oldest = entry.getValue();
+      } // if
+    } // synchronized
+    if (oldest != null) {
+      synchronized (oldest) {
+        if (!oldest.evicted) {
+          this.remove(oldestId, oldest, true);
+        } // if
+      } // synchronized
+    } // if
+  } // evictLeastRecentlyUsed()
+
+  /**
+   * Removes a session, which the caller has locked.
+   * @param id The session name.
+   * @param session The session.
+   * @param spill Whether to write the session to the spill directory, if
+   *   there is one. If not, any spilled copy is deleted.
+   */
+  private void remove(String id, Session session, boolean spill) {
+    if (this.spillDirectory != null) {
+      Path file = this.spillFile(id);
+      try {
+        if (spill) {
+          try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            session.executor.saveState(out);
+          } // try
+        } else {
+          Files.deleteIfExists(file);
+        } // if-else
+      } catch (IOException err) {
+        throw new UncheckedIOException(err);
+      } // try-catch
+    } // if
+    session.evicted = true;
+    this.sessions.remove(id, session);
+    synchronized (this.recent) {
+      this.recent.remove(id, session);
+    } // synchronized
+  } // remove(String, Session, boolean)
+
+  /**
+   * Returns the number of live sessions.
+   * @return The number of live sessions.
+   */
+  public int size() {
+    return this.sessions.size();
+  } // size()
+} // class SessionManager
@@ -0,0 +1,211 @@
+package edu.grinnell.csc207.util;
+
+import java.util.Arrays;
+
+/**
+ * This class interns the names of registers, giving each name a slot index
+ * shared by every BFRegisterSet.
+ *
+ * Parsed tokens are shared between executors, so slots are global rather
+ * than belonging to one register set. The single-letter registers 'a' to
+ * 'z' always have the slots 0 to 25 and are never looked up. Longer names
+ * are kept in an open-addressing table with linear probing, which is only
+ * consulted when an expression is parsed.
+ *
+ * Slots are never given back, since any cached token may still refer to
+ * one, so the number of longer names is bounded, by 65,536 unless the
+ * registers.maxNames system property says otherwise. Once the table is full,
+ * a new name exceeds the budget of the command that uses it, while names
+ * already interned keep working.
+ *
+ * @author David William Stroud
+ */
+final class SymbolTable {
+  /**
+   * The number of single-letter registers, which have the first slots.
+   */
+  static final int LETTERS = 'z' - 'a' + 1;
+  /**
+   * The initial number of entries in the table, which is a power of two.
+   */
+  private static final int INITIAL_CAPACITY = 64;
+  /**
+   * The multiplier used by String.hashCode.
+   */
+  private static final int HASH_MULTIPLIER = 31;
+  /**
+   * The default largest number of names longer than a single letter.
+   */
+  private static final int DEFAULT_MAX_NAMES = 65_536;
+  /**
+   * The name of each single-letter register.
+   */
+  private static final String[] LETTER_NAMES = new String[SymbolTable.LETTERS];
+
+  /**
+   * The name in each entry of the table, or null if the entry is empty.
+   */
+  private static String[] keys = new String[SymbolTable.INITIAL_CAPACITY];
+  /**
+   * The slot of the name in each entry of the table.
+   */
+  private static int[] slots = new int[SymbolTable.INITIAL_CAPACITY];
+  /**
+   * The name of each slot.
+   */
+  private static String[] names = new String[SymbolTable.INITIAL_CAPACITY];
+  /**
+   * The number of slots given out, including those of the single letters.
+   */
+  private static int count = SymbolTable.LETTERS;
+  /**
+   * The largest number of names longer than a single letter.
+   */
+  private static volatile int maxNames =
+      Integer.getInteger("registers.maxNames", SymbolTable.DEFAULT_MAX_NAMES);
+
+  static {
+    for (int i = 0; i < SymbolTable.LETTERS; i++) {
+      SymbolTable.LETTER_NAMES[i] = String.valueOf((char) ('a' + i));
+      SymbolTable.names[i] = SymbolTable.LETTER_NAMES[i];
+    } // for
+  } // static
+
+  private SymbolTable() { } // SymbolTable()
+
+  /**
+   * Sets the largest number of names longer than a single letter. Names
+   * already interned keep their slots, even beyond a lowered limit.
+   * @param limit The limit.
+   */
+  static void setMaxNames(int limit) {
+    SymbolTable.maxNames = limit;
+  } // setMaxNames(int)
+
+  /**
+   * Returns the largest number of names longer than a single letter.
+   * @return The limit.
+   */
+  static int getMaxNames() {
+    return SymbolTable.maxNames;
+  } // getMaxNames()
+
+  /**
+   * Computes the hash of part of a line, as String.hashCode would.
+   * @param line The line containing the name.
+   * @param start The index at which the name starts.
+   * @param end The index just past the end of the name.
+   * @return The hash of the name.
+   */
+  private static int hash(String line, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = SymbolTable.HASH_MULTIPLIER * hash + line.charAt(i);
+    } // for
+    return hash ^ (hash >>> (Integer.SIZE / 2));
+  } // hash(String, int, int)
+
+  /**
+   * Returns the slot of a name, giving it a new slot if it has none.
+   * @param line The line containing the name.
+   * @param start The index at which the name starts.
+   * @param end The index just past the end of the name.
+   * @return The slot of the name.
+   * @throws BudgetExceededException If the name is new and the table is full.
+   */
+  static int intern(String line, int start, int end) {
+    int slot = SymbolTable.tryIntern(line, start, end);
+    if (slot < 0) {
+      throw new BudgetExceededException(CommandError.TOO_MANY_NAMES);
+    } // if
+    return slot;
+  } // intern(String, int, int)
+
+  /**
+   * Returns the slot of a name, giving it a new slot if it has none and the
+   * table is not full. A name that gets no slot has never been stored, so
+   * it holds zero in every register set.
+   * @param line The line containing the name.
+   * @param start The index at which the name starts.
+   * @param end The index just past the end of the name.
+   * @return The slot of the name, or -1 if it is new and the table is full.
+   */
+  static int tryIntern(String line, int start, int end) {
+    if (end - start == 1) {
+      return line.charAt(start) - 'a';
+    } // if
+    synchronized (SymbolTable.class) {
+      int mask = SymbolTable.keys.length - 1;
+      int index = SymbolTable.hash(line, start, end) & mask;
+      while (SymbolTable.keys[index] != null) {
+        String key = SymbolTable.keys[index];
+        if (key.length() == end - start && line.startsWith(key, start)) {
+          return SymbolTable.slots[index];
+        } // if
+        index = (index + 1) & mask;
+      } // while
+
+      if (SymbolTable.count - SymbolTable.LETTERS >= SymbolTable.maxNames) {
+        return -1;
+      } // if
+      int slot = SymbolTable.count++;
+      String name = line.substring(start, end);
+      SymbolTable.keys[index] = name;
+      SymbolTable.slots[index] = slot;
+      if (slot == SymbolTable.names.length) {
+        SymbolTable.names = Arrays.copyOf(SymbolTable.names, 2 * slot);
+      } // if
+      SymbolTable.names[slot] = name;
+      // Keep the table at most half full, so probes stay short
+      if (2 * (SymbolTable.count - SymbolTable.LETTERS) > SymbolTable.keys.length) {
+        SymbolTable.grow();
+      } // if
+      return slot;
+    } // synchronized
+  } // tryIntern(String, int, int)
+
+  /**
+   * Returns the slot of a name, giving it a new slot if it has none.
+   * @param name The name.
+   * @return The slot of the name.
+   * @throws BudgetExceededException If the name is new and the table is full.
+   */
+  static int intern(String name) {
+    return SymbolTable.intern(name, 0, name.length());
+  } // intern(String)
+
+  /**
+   * Doubles the number of entries in the table.
+   */
+  private static void grow() {
+    String[] oldKeys = SymbolTable.keys;
+    int[] oldSlots = SymbolTable.slots;
+    SymbolTable.keys = new String[2 * oldKeys.length];
+    SymbolTable.slots = new int[2 * oldKeys.length];
+    int mask = SymbolTable.keys.length - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != null) {
+        int index = SymbolTable.hash(oldKeys[i], 0, oldKeys[i].length()) & mask;
+        while (SymbolTable.keys[index] != null) {
+          index = (index + 1) & mask;
+        } // while
+        SymbolTable.keys[index] = oldKeys[i];
+        SymbolTable.slots[index] = oldSlots[i];
+      } // if
+    } // for
+  } // grow()
+
+  /**
+   * Returns the name of a slot.
+   * @param slot The slot.
+   * @return The name interned with that slot.
+   */
+  static String name(int slot) {
+    if (slot < SymbolTable.LETTERS) {
+      return SymbolTable.LETTER_NAMES[slot];
+    } // if
+    synchronized (SymbolTable.class) {
+      return SymbolTable.names[slot];
+    } // synchronized
+  } // name(int)
+} // class SymbolTable
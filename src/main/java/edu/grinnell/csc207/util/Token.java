@@ -1,4 +1,7 @@
 package edu.grinnell.csc207.util;
+
+import java.math.BigDecimal;
+
 /**
  * This class represents a token in a calculator expression.
  *
@@ -16,7 +19,7 @@ public class Token {
      */
     FRACTION,
     /**
-     * The token is a register.
+     * The token is a register, named by a single letter or a longer identifier.
      */
     REGISTER,
     /**
@@ -34,9 +37,86 @@ public class Token {
     /**
      * The token is a division operation.
      */
-    DIVIDE;
+    DIVIDE,
+    /**
+     * The token is an exponentiation operation.
+     */
+    POWER,
+    /**
+     * The token is a less-than comparison.
+     */
+    LESS,
+    /**
+     * The token is a greater-than comparison.
+     */
+    GREATER,
+    /**
+     * The token is an equality comparison.
+     */
+    EQUAL,
+    /**
+     * The token is a minimum operation.
+     */
+    MIN,
+    /**
+     * The token is a maximum operation.
+     */
+    MAX,
+    /**
+     * The token starts a conditional expression.
+     */
+    IF,
+    /**
+     * The token separates the condition of a conditional expression from
+     * the expression used when the condition is nonzero.
+     */
+    THEN,
+    /**
+     * The token separates the expression used when the condition of a
+     * conditional expression is nonzero from the expression used otherwise.
+     */
+    ELSE,
+    /**
+     * The token asks for the expression after it to be evaluated modulo primes.
+     */
+    MODULAR;
   } // enum TokenType
 
+  /**
+   * The radix in which numbers are written.
+   */
+  private static final int RADIX = 10;
+  /**
+   * The word for the minimum operation.
+   */
+  private static final String MIN_WORD = "MIN";
+  /**
+   * The word for the maximum operation.
+   */
+  private static final String MAX_WORD = "MAX";
+  /**
+   * The word that starts a conditional expression.
+   */
+  private static final String IF_WORD = "IF";
+  /**
+   * The word that follows the condition of a conditional expression.
+   */
+  private static final String THEN_WORD = "THEN";
+  /**
+   * The word that follows the first branch of a conditional expression.
+   */
+  private static final String ELSE_WORD = "ELSE";
+  /**
+   * The word that asks for an expression to be evaluated modulo primes.
+   */
+  private static final String MODULAR_WORD = "MODULAR";
+  /**
+   * The most digits in the exponent of a decimal number. Larger exponents
+   * would overflow the scale of a BigDecimal, or make numbers too large to
+   * hold.
+   */
+  private static final int MAX_EXPONENT_DIGITS = 5;
+
   /**
    * The type of this token.
    */
@@ -46,52 +126,279 @@ public class Token {
    */
   private final Object value;
 
-  private Token(BigFraction value1) {
-    this.type = Token.TokenType.FRACTION;
+  /**
+   * The slot of the register this token names, or -1 if it is not a register.
+   */
+  private final int slot;
+
+  /**
+   * The index in the parsed line at which this token starts.
+   */
+  private final int start;
+  /**
+   * The index in the parsed line just past the end of this token.
+   */
+  private final int end;
+
+  private Token(Object value1, Token.TokenType type1, int start1, int end1) {
+    this.type = type1;
     this.value = value1;
-  } // Token(BigFraction)
+    this.slot = -1;
+    this.start = start1;
+    this.end = end1;
+  } // Token(Object, Token.TokenType, int, int)
 
-  private Token(char value1) {
+  private Token(int slot1, int start1, int end1) {
     this.type = Token.TokenType.REGISTER;
-    this.value = value1;
-  } // Token(char)
+    this.value = SymbolTable.name(slot1);
+    this.slot = slot1;
+    this.start = start1;
+    this.end = end1;
+  } // Token(int, int, int)
 
-  private Token(Token.TokenType type1) {
-    this.type = type1;
-    this.value = null;
-  } // Token(Token.TokenType)
-
-  private static Token parseSingle(String word) throws NumberFormatException {
-    if (word.equals("+")) {
-      return new Token(Token.TokenType.ADD);
-    } else if (word.equals("-")) {
-      return new Token(Token.TokenType.SUBTRACT);
-    } else if (word.equals("*")) {
-      return new Token(Token.TokenType.MULTIPLY);
-    } else if (word.equals("/")) {
-      return new Token(Token.TokenType.DIVIDE);
-    } else if (word.length() == 1 && word.charAt(0) <= 'z' && word.charAt(0) >= 'a') {
-      return new Token(word.charAt(0));
+  private Token(Token.TokenType type1, int start1, int end1) {
+    this(null, type1, start1, end1);
+  } // Token(Token.TokenType, int, int)
+
+  /**
+   * Determines whether the characters of text from start to end are all digits.
+   * @param text The text to check.
+   * @param start The index at which to start checking.
+   * @param end The index at which to stop checking.
+   * @return Whether there is at least one character, and all are digits.
+   */
+  private static boolean isDigits(String text, int start, int end) {
+    if (start >= end) {
+      return false;
+    } // if
+    for (int i = start; i < end; i++) {
+      if (Character.digit(text.charAt(i), Token.RADIX) < 0) {
+        return false;
+      } // if
+    } // for
+    return true;
+  } // isDigits(String, int, int)
+
+  /**
+   * Skips past a leading sign.
+   * @param text The text to check.
+   * @param start The index at which a sign might be.
+   * @param end The index past which not to look.
+   * @return The index just past the sign, or start if there is no sign.
+   */
+  private static int skipSign(String text, int start, int end) {
+    if (start < end && (text.charAt(start) == '-' || text.charAt(start) == '+')) {
+      return start + 1;
+    } // if
+    return start;
+  } // skipSign(String, int, int)
+
+  /**
+   * Determines whether the characters of text from start to end are a whole
+   * number, as accepted by BigInteger.
+   * @param text The text to check.
+   * @param start The index at which the number starts.
+   * @param end The index just past the end of the number.
+   * @return Whether the text is a whole number.
+   */
+  static boolean isInteger(String text, int start, int end) {
+    return Token.isDigits(text, Token.skipSign(text, start, end), end);
+  } // isInteger(String, int, int)
+
+  /**
+   * Determines whether the characters of text from start to end are a
+   * fraction, as accepted by BigFraction.
+   * @param text The text to check.
+   * @param start The index at which the fraction starts.
+   * @param end The index just past the end of the fraction.
+   * @return Whether the text is a fraction.
+   */
+  static boolean isFraction(String text, int start, int end) {
+    int slash = text.indexOf('/', start);
+    if (slash == -1 || slash >= end) {
+      return Token.isInteger(text, start, end);
+    } // if
+    return Token.isInteger(text, start, slash) && Token.isInteger(text, slash + 1, end);
+  } // isFraction(String, int, int)
+
+  /**
+   * Determines whether the characters of text from start to end are a
+   * decimal number, as accepted by BigDecimal, whose exponent, if any, has
+   * at most MAX_EXPONENT_DIGITS digits.
+   * @param text The text to check.
+   * @param start The index at which the number starts.
+   * @param end The index just past the end of the number.
+   * @return Whether the text is a decimal number.
+   */
+  static boolean isDecimal(String text, int start, int end) {
+    int exponent = end;
+    for (int i = start; i < end; i++) {
+      if (text.charAt(i) == 'e' || text.charAt(i) == 'E') {
+        exponent = i;
+        break;
+      } // if
+    } // for
+    if (exponent != end && (!Token.isInteger(text, exponent + 1, end)
+        || end - Token.skipSign(text, exponent + 1, end) > Token.MAX_EXPONENT_DIGITS)) {
+      return false;
+    } // if
+
+    int digitsStart = Token.skipSign(text, start, exponent);
+    int point = text.indexOf('.', digitsStart);
+    if (point == -1 || point >= exponent) {
+      return Token.isDigits(text, digitsStart, exponent);
+    } // if
+    boolean before = Token.isDigits(text, digitsStart, point);
+    boolean after = Token.isDigits(text, point + 1, exponent);
+    return (before || point == digitsStart) && (after || point + 1 == exponent)
+        && (before || after);
+  } // isDecimal(String, int, int)
+
+  /**
+   * Determines whether the characters of text from start to end are the
+   * name of a register: a lowercase letter followed by any number of
+   * lowercase letters, digits, and underscores.
+   * @param text The text to check.
+   * @param start The index at which the name starts.
+   * @param end The index just past the end of the name.
+   * @return Whether the text is the name of a register.
+   */
+  static boolean isName(String text, int start, int end) {
+    if (start >= end || text.charAt(start) < 'a' || text.charAt(start) > 'z') {
+      return false;
+    } // if
+    for (int i = start + 1; i < end; i++) {
+      char c = text.charAt(i);
+      if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_')) {
+        return false;
+      } // if
+    } // for
+    return true;
+  } // isName(String, int, int)
+
+  /**
+   * Determines whether the characters of line from start to end are word.
+   * @param line The line to check.
+   * @param start The index at which to start checking.
+   * @param end The index at which to stop checking.
+   * @param word The word to look for.
+   * @return Whether the characters are word.
+   */
+  private static boolean isWord(String line, int start, int end, String word) {
+    return end - start == word.length() && line.startsWith(word, start);
+  } // isWord(String, int, int, String)
+
+  /**
+   * Parses a single word of a line.
+   * @param line The line containing the word.
+   * @param start The index at which the word starts.
+   * @param end The index just past the end of the word.
+   * @return The token for the word, or null if the word is not a valid token.
+   */
+  private static Token parseSingle(String line, int start, int end) {
+    char first = (start < end) ? line.charAt(start) : ' ';
+    if (end - start == 1 && first == '+') {
+      return new Token(Token.TokenType.ADD, start, end);
+    } else if (end - start == 1 && first == '-') {
+      return new Token(Token.TokenType.SUBTRACT, start, end);
+    } else if (end - start == 1 && first == '*') {
+      return new Token(Token.TokenType.MULTIPLY, start, end);
+    } else if (end - start == 1 && first == '/') {
+      return new Token(Token.TokenType.DIVIDE, start, end);
+    } else if (end - start == 1 && first == '^') {
+      return new Token(Token.TokenType.POWER, start, end);
+    } else if (end - start == 1 && first == '<') {
+      return new Token(Token.TokenType.LESS, start, end);
+    } else if (end - start == 1 && first == '>') {
+      return new Token(Token.TokenType.GREATER, start, end);
+    } else if (end - start == 1 && first == '=') {
+      return new Token(Token.TokenType.EQUAL, start, end);
+    } else if (Token.isWord(line, start, end, Token.MIN_WORD)) {
+      return new Token(Token.TokenType.MIN, start, end);
+    } else if (Token.isWord(line, start, end, Token.MAX_WORD)) {
+      return new Token(Token.TokenType.MAX, start, end);
+    } else if (Token.isWord(line, start, end, Token.IF_WORD)) {
+      return new Token(Token.TokenType.IF, start, end);
+    } else if (Token.isWord(line, start, end, Token.THEN_WORD)) {
+      return new Token(Token.TokenType.THEN, start, end);
+    } else if (Token.isWord(line, start, end, Token.ELSE_WORD)) {
+      return new Token(Token.TokenType.ELSE, start, end);
+    } else if (Token.isWord(line, start, end, Token.MODULAR_WORD)) {
+      return new Token(Token.TokenType.MODULAR, start, end);
+    } else if (first <= 'z' && first >= 'a' && Token.isName(line, start, end)) {
+      return new Token(SymbolTable.intern(line, start, end), start, end);
+    } else if (line.indexOf('.', start) != -1 && line.indexOf('.', start) < end) {
+      if (!Token.isDecimal(line, start, end)) {
+        return null;
+      } // if
+      return new Token(new BigDecimal(line.substring(start, end)),
+          Token.TokenType.FRACTION, start, end);
     } else {
-      return new Token(new BigFraction(word));
+      if (!Token.isFraction(line, start, end)) {
+        return null;
+      } // if
+      return new Token(new BigFraction(line.substring(start, end)),
+          Token.TokenType.FRACTION, start, end);
     } // if-else
-  } // parseSingle(String)
+  } // parseSingle(String, int, int)
 
   /**
    * Parse a line into an array of tokens.
    * @param line The line to be parsed.
    * @return The array of tokens in the line.
+   * @throws NumberFormatException If a word in the line is not a valid token.
    */
   public static Token[] parse(String line) throws NumberFormatException {
-    String[] words = line.split(" ");
+    Token[] tokens = Token.parse(line, null);
+    if (tokens == null) {
+      throw new NumberFormatException(CommandError.NOT_A_NUMBER.getMessage());
+    } // if
+    return tokens;
+  } // parse(String)
 
-    Token[] tokens = new Token[words.length];
-    for (int i = 0; i < words.length; i++) {
-      tokens[i] = Token.parseSingle(words[i]);
+  /**
+   * Parse a line into an array of tokens, with words separated by single spaces.
+   * @param line The line to be parsed.
+   * @param errors The sink to which to report a word that is not a valid token,
+   *   or null to not report it.
+   * @return The array of tokens in the line, or null if a word is not a valid token.
+   */
+  public static Token[] parse(String line, ErrorSink errors) {
+    boolean hasSpace = line.indexOf(' ') != -1;
+    int length = line.length();
+    while (hasSpace && length > 0 && line.charAt(length - 1) == ' ') {
+      length--;
+    } // while
+
+    int count = 0;
+    if (length > 0 || !hasSpace) {
+      count = 1;
+      for (int i = 0; i < length; i++) {
+        if (line.charAt(i) == ' ') {
+          count++;
+        } // if
+      } // for
+    } // if
+
+    Token[] tokens = new Token[count];
+    int start = 0;
+    for (int i = 0; i < count; i++) {
+      int end = line.indexOf(' ', start);
+      if (end == -1 || end > length) {
+        end = length;
+      } // if
+      tokens[i] = Token.parseSingle(line, start, end);
+      if (tokens[i] == null) {
+        if (errors != null) {
+          errors.error(CommandError.NOT_A_NUMBER, line, start, end);
+        } // if
+        return null;
+      } // if
+      start = end + 1;
     } // for
 
     return tokens;
-  } // parse(String)
+  } // parse(String, ErrorSink)
 
   /**
    * Returns this token as a fraction, converting from a register if needed.
@@ -100,14 +407,93 @@ public class Token {
    */
   public BigFraction getAsFraction(BFRegisterSet registers) {
     if (this.getType() == Token.TokenType.FRACTION) {
+      if (this.value instanceof BigDecimal) {
+        return BigFraction.valueOf((BigDecimal) this.value);
+      } // if
       return (BigFraction) this.value;
     } else if (this.getType() == Token.TokenType.REGISTER) {
-      return registers.get((char) this.value);
+      return registers.get(this.slot);
     } else {
       return null;
     } // if-else chain
   } // getAsFraction(BFRegisterSet)
 
+  /**
+   * Determines whether this token is a number whose value fits in longs.
+   * @param registers The register set to use if the token is a register.
+   * @return Whether smallNumerator and smallDenominator hold this token's value.
+   */
+  boolean isSmall(BFRegisterSet registers) {
+    if (this.getType() == Token.TokenType.REGISTER) {
+      return registers.isSmall(this.slot);
+    } // if
+    return this.value instanceof BigFraction && ((BigFraction) this.value).isSmall();
+  } // isSmall(BFRegisterSet)
+
+  /**
+   * Returns the signed numerator of a number whose value fits in longs.
+   * @param registers The register set to use if the token is a register.
+   * @return The numerator of this token's value.
+   */
+  long smallNumerator(BFRegisterSet registers) {
+    if (this.getType() == Token.TokenType.REGISTER) {
+      return registers.smallNumerator(this.slot);
+    } // if
+    return ((BigFraction) this.value).smallNumerator();
+  } // smallNumerator(BFRegisterSet)
+
+  /**
+   * Returns the positive denominator of a number whose value fits in longs.
+   * @param registers The register set to use if the token is a register.
+   * @return The denominator of this token's value.
+   */
+  long smallDenominator(BFRegisterSet registers) {
+    if (this.getType() == Token.TokenType.REGISTER) {
+      return registers.smallDenominator(this.slot);
+    } // if
+    return ((BigFraction) this.value).smallDenominator();
+  } // smallDenominator(BFRegisterSet)
+
+  /**
+   * Returns this token as an exact decimal, converting from a register if needed.
+   * @param registers The register set to use if the token is a register.
+   * @return This token as a decimal, or null if this token is not numeric or
+   *   its value has no terminating decimal expansion.
+   */
+  public BigDecimal getAsDecimal(BFRegisterSet registers) {
+    if (this.value instanceof BigDecimal) {
+      return (BigDecimal) this.value;
+    } else if (this.isNumeric()) {
+      return this.getAsFraction(registers).toBigDecimal();
+    } else {
+      return null;
+    } // if-else chain
+  } // getAsDecimal(BFRegisterSet)
+
+  /**
+   * Returns the slot of the register this token names.
+   * @return The slot of the register, or -1 if this token is not a register.
+   */
+  int getSlot() {
+    return this.slot;
+  } // getSlot()
+
+  /**
+   * Returns the index in the parsed line at which this token starts.
+   * @return The index at which this token starts.
+   */
+  public int getStart() {
+    return this.start;
+  } // getStart()
+
+  /**
+   * Returns the index in the parsed line just past the end of this token.
+   * @return The index just past the end of this token.
+   */
+  public int getEnd() {
+    return this.end;
+  } // getEnd()
+
   /**
    * Returns the type of this token.
    * @return The type of this token.
@@ -124,7 +510,13 @@ public class Token {
     return this.getType() == Token.TokenType.ADD
         || this.getType() == Token.TokenType.SUBTRACT
         || this.getType() == Token.TokenType.MULTIPLY
-        || this.getType() == Token.TokenType.DIVIDE;
+        || this.getType() == Token.TokenType.DIVIDE
+        || this.getType() == Token.TokenType.POWER
+        || this.getType() == Token.TokenType.LESS
+        || this.getType() == Token.TokenType.GREATER
+        || this.getType() == Token.TokenType.EQUAL
+        || this.getType() == Token.TokenType.MIN
+        || this.getType() == Token.TokenType.MAX;
   } // isOperator()
 
   /**
@@ -151,6 +543,26 @@ public class Token {
       return "*";
     } else if (this.getType() == Token.TokenType.DIVIDE) {
       return "/";
+    } else if (this.getType() == Token.TokenType.POWER) {
+      return "^";
+    } else if (this.getType() == Token.TokenType.LESS) {
+      return "<";
+    } else if (this.getType() == Token.TokenType.GREATER) {
+      return ">";
+    } else if (this.getType() == Token.TokenType.EQUAL) {
+      return "=";
+    } else if (this.getType() == Token.TokenType.MIN) {
+      return Token.MIN_WORD;
+    } else if (this.getType() == Token.TokenType.MAX) {
+      return Token.MAX_WORD;
+    } else if (this.getType() == Token.TokenType.IF) {
+      return Token.IF_WORD;
+    } else if (this.getType() == Token.TokenType.THEN) {
+      return Token.THEN_WORD;
+    } else if (this.getType() == Token.TokenType.ELSE) {
+      return Token.ELSE_WORD;
+    } else if (this.getType() == Token.TokenType.MODULAR) {
+      return Token.MODULAR_WORD;
     } else {
       return "";
     } // else-if chain
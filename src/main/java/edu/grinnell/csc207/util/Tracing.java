@@ -0,0 +1,75 @@
+package edu.grinnell.csc207.util;
+
+/**
+ * This class holds the settings for the Java Flight Recorder events that
+ * the calculator emits.
+ *
+ * Two events are defined: edu.grinnell.csc207.Command, for each command
+ * run by a CommandExecutor, and edu.grinnell.csc207.FractionOperation, for
+ * each BigFraction addition, multiplication, or power whose operand is at
+ * least the fraction threshold many bits long. Neither is recorded unless a
+ * recording enables it, for example with
+ * -XX:StartFlightRecording:settings=profile. Only one in every sample
+ * interval commands of each executor is considered for recording, so that
+ * busy executors stay cheap to trace.
+ *
+ * Both settings may also be given with the calculator.traceSampleInterval
+ * and bigfraction.traceThreshold system properties.
+ *
+ * @author David William Stroud
+ */
+public final class Tracing {
+  /**
+   * The default fraction threshold, in bits.
+   */
+  private static final int DEFAULT_FRACTION_THRESHOLD = 65536;
+
+  /**
+   * One in this many commands of each executor may be recorded.
+   */
+  private static volatile int sampleInterval =
+      Math.max(1, Integer.getInteger("calculator.traceSampleInterval", 1));
+
+  /**
+   * The smallest operand, in bits, for which fraction operations may be recorded.
+   */
+  private static volatile int fractionThreshold =
+      Integer.getInteger("bigfraction.traceThreshold", Tracing.DEFAULT_FRACTION_THRESHOLD);
+
+  private Tracing() { } // Tracing()
+
+  /**
+   * Sets how many commands of each executor pass for each one that may be recorded.
+   * @param interval The sample interval, at least 1. 1 records every command.
+   */
+  public static void setSampleInterval(int interval) {
+    if (interval < 1) {
+      throw new IllegalArgumentException("Sample interval must be positive: " + interval);
+    } // if
+    Tracing.sampleInterval = interval;
+  } // setSampleInterval(int)
+
+  /**
+   * Returns how many commands of each executor pass for each one that may be recorded.
+   * @return The sample interval.
+   */
+  public static int getSampleInterval() {
+    return Tracing.sampleInterval;
+  } // getSampleInterval()
+
+  /**
+   * Sets the smallest operand, in bits, for which fraction operations may be recorded.
+   * @param bits The threshold.
+   */
+  public static void setFractionThreshold(int bits) {
+    Tracing.fractionThreshold = bits;
+  } // setFractionThreshold(int)
+
+  /**
+   * Returns the smallest operand, in bits, for which fraction operations may be recorded.
+   * @return The threshold.
+   */
+  public static int getFractionThreshold() {
+    return Tracing.fractionThreshold;
+  } // getFractionThreshold()
+} // class Tracing
@@ -0,0 +1,292 @@
+package edu.grinnell.csc207.util;
+
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class encodes fractions and commands in a compact binary form, for
+ * passing them between programs without formatting and parsing text.
+ *
+ * Each whole number starts with an unsigned varint header: seven bits per
+ * byte, least significant first, with the high bit set on every byte but the
+ * last. If the low bit of the header is clear, the rest of the header holds
+ * the number itself, zigzag encoded so that small negative numbers stay
+ * short. Otherwise, the rest of the header is the length of the two's
+ * complement bytes of the number, most significant first, which follow.
+ * A fraction is its numerator followed by its denominator.
+ *
+ * Every frame starts with one byte giving its kind. A command frame holds
+ * the length of the command as a varint, followed by its UTF-8 bytes. A
+ * result frame holds a fraction. An error frame holds the ordinal of the
+ * CommandError and the start and end of the offending text, as varints. A
+ * message frame holds a message in the same form as a command. A matrix
+ * frame holds the number of rows and columns as varints, followed by each
+ * entry as a fraction, row by row.
+ *
+ * @author David William Stroud
+ */
+public final class WireFormat {
+  /**
+   * The kind of a frame holding a command.
+   */
+  public static final byte COMMAND = 1;
+  /**
+   * The kind of a frame holding a result.
+   */
+  public static final byte RESULT = 2;
+  /**
+   * The kind of a frame holding a coded error.
+   */
+  public static final byte ERROR = 3;
+  /**
+   * The kind of a frame holding an error message.
+   */
+  public static final byte MESSAGE = 4;
+  /**
+   * The kind of a frame holding a matrix result.
+   */
+  public static final byte MATRIX = 5;
+
+  /**
+   * Whole numbers with at most this many bits are held in their header.
+   */
+  private static final int SMALL_BITS = 62;
+  /**
+   * The number of value bits in each byte of a varint.
+   */
+  private static final int VARINT_SHIFT = 7;
+  /**
+   * The bits holding the value in each byte of a varint.
+   */
+  private static final int VARINT_MASK = 0x7F;
+  /**
+   * The bit marking that more bytes of a varint follow.
+   */
+  private static final int VARINT_MORE = 0x80;
+  /**
+   * The largest number of bytes in a varint.
+   */
+  private static final int VARINT_MAX_BYTES = 10;
+
+  private WireFormat() { } // WireFormat()
+
+  /**
+   * Writes an unsigned varint.
+   * @param buffer The buffer to write to.
+   * @param value The value, treated as unsigned.
+   */
+  public static void putVarint(ByteBuffer buffer, long value) {
+    long remaining = value;
+    while ((remaining & ~WireFormat.VARINT_MASK) != 0) {
+      buffer.put((byte) ((remaining & WireFormat.VARINT_MASK) | WireFormat.VARINT_MORE));
+      remaining >>>= WireFormat.VARINT_SHIFT;
+    } // while
+    buffer.put((byte) remaining);
+  } // putVarint(ByteBuffer, long)
+
+  /**
+   * Reads an unsigned varint.
+   * @param buffer The buffer to read from.
+   * @return The value.
+   * @throws BufferUnderflowException If the buffer ends before the varint.
+   * @throws IllegalArgumentException If the varint is too long.
+   */
+  public static long getVarint(ByteBuffer buffer) {
+    long value = 0;
+    for (int i = 0; i < WireFormat.VARINT_MAX_BYTES; i++) {
+      int next = buffer.get();
+      value |= (long) (next & WireFormat.VARINT_MASK) << (i * WireFormat.VARINT_SHIFT);
+      if ((next & WireFormat.VARINT_MORE) == 0) {
+        return value;
+      } // if
+    } // for
+    throw new IllegalArgumentException("Varint too long");
+  } // getVarint(ByteBuffer)
+
+  /**
+   * Returns the number of bytes in the varint encoding of a value.
+   * @param value The value, treated as unsigned.
+   * @return The number of bytes.
+   */
+  private static int varintSize(long value) {
+    int bits = Long.SIZE - Long.numberOfLeadingZeros(value);
+    return Math.max(1, (bits + WireFormat.VARINT_SHIFT - 1) / WireFormat.VARINT_SHIFT);
+  } // varintSize(long)
+
+  /**
+   * Returns the header of a whole number small enough to be held in it.
+   * @param value The number.
+   * @return The header.
+   */
+  private static long smallHeader(long value) {
+    return ((value << 1) ^ (value >> (Long.SIZE - 1))) << 1;
+  } // smallHeader(long)
+
+  /**
+   * Returns the number of bytes in the encoding of a whole number.
+   * @param value The number.
+   * @return The number of bytes.
+   */
+  private static int integerSize(BigInteger value) {
+    if (value.bitLength() <= WireFormat.SMALL_BITS) {
+      return WireFormat.varintSize(WireFormat.smallHeader(value.longValue()));
+    } // if
+    int length = value.bitLength() / Byte.SIZE + 1;
+    return WireFormat.varintSize(((long) length << 1) | 1) + length;
+  } // integerSize(BigInteger)
+
+  /**
+   * Writes a whole number.
+   * @param buffer The buffer to write to.
+   * @param value The number.
+   */
+  private static void putInteger(ByteBuffer buffer, BigInteger value) {
+    if (value.bitLength() <= WireFormat.SMALL_BITS) {
+      WireFormat.putVarint(buffer, WireFormat.smallHeader(value.longValue()));
+    } else {
+      byte[] bytes = value.toByteArray();
+      WireFormat.putVarint(buffer, ((long) bytes.length << 1) | 1);
+      buffer.put(bytes);
+    } // if-else
+  } // putInteger(ByteBuffer, BigInteger)
+
+  /**
+   * Reads a whole number.
+   * @param buffer The buffer to read from.
+   * @return The number.
+   * @throws BufferUnderflowException If the buffer ends before the number.
+   */
+  private static BigInteger getInteger(ByteBuffer buffer) {
+    long header = WireFormat.getVarint(buffer);
+    if ((header & 1) == 0) {
+      long zigzag = header >>> 1;
+      return BigInteger.valueOf((zigzag >>> 1) ^ -(zigzag & 1));
+    } // if
+    long length = header >>> 1;
+    if (length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    } // if
+    byte[] bytes = new byte[(int) length];
+    buffer.get(bytes);
+    return new BigInteger(bytes);
+  } // getInteger(ByteBuffer)
+
+  /**
+   * Returns the number of bytes in the encoding of a fraction.
+   * @param value The fraction.
+   * @return The number of bytes.
+   */
+  public static int fractionSize(BigFraction value) {
+    return WireFormat.integerSize(value.numerator())
+        + WireFormat.integerSize(value.denominator());
+  } // fractionSize(BigFraction)
+
+  /**
+   * Writes a fraction.
+   * @param buffer The buffer to write to, which must have at least
+   *   fractionSize(value) bytes remaining.
+   * @param value The fraction.
+   */
+  public static void putFraction(ByteBuffer buffer, BigFraction value) {
+    WireFormat.putInteger(buffer, value.numerator());
+    WireFormat.putInteger(buffer, value.denominator());
+  } // putFraction(ByteBuffer, BigFraction)
+
+  /**
+   * Reads a fraction.
+   * @param buffer The buffer to read from.
+   * @return The fraction.
+   * @throws BufferUnderflowException If the buffer ends before the fraction.
+   */
+  public static BigFraction getFraction(ByteBuffer buffer) {
+    BigInteger numerator = WireFormat.getInteger(buffer);
+    BigInteger denominator = WireFormat.getInteger(buffer);
+    return new BigFraction(numerator, denominator);
+  } // getFraction(ByteBuffer)
+
+  /**
+   * Returns the number of bytes in the encoding of a matrix, without its kind.
+   * @param value The matrix.
+   * @return The number of bytes.
+   */
+  public static int matrixSize(Matrix value) {
+    int size = WireFormat.varintSize(value.rows()) + WireFormat.varintSize(value.columns());
+    for (int i = 0; i < value.rows(); i++) {
+      for (int j = 0; j < value.columns(); j++) {
+        size += WireFormat.fractionSize(value.get(i, j));
+      } // for
+    } // for
+    return size;
+  } // matrixSize(Matrix)
+
+  /**
+   * Writes a matrix, without its kind.
+   * @param buffer The buffer to write to, which must have at least
+   *   matrixSize(value) bytes remaining.
+   * @param value The matrix.
+   */
+  public static void putMatrix(ByteBuffer buffer, Matrix value) {
+    WireFormat.putVarint(buffer, value.rows());
+    WireFormat.putVarint(buffer, value.columns());
+    for (int i = 0; i < value.rows(); i++) {
+      for (int j = 0; j < value.columns(); j++) {
+        WireFormat.putFraction(buffer, value.get(i, j));
+      } // for
+    } // for
+  } // putMatrix(ByteBuffer, Matrix)
+
+  /**
+   * Reads a matrix, whose kind has already been read.
+   * @param buffer The buffer to read from.
+   * @return The matrix.
+   * @throws BufferUnderflowException If the buffer ends before the matrix.
+   */
+  public static Matrix getMatrix(ByteBuffer buffer) {
+    long rows = WireFormat.getVarint(buffer);
+    long columns = WireFormat.getVarint(buffer);
+    // Every entry takes at least two bytes. Bounding each dimension first
+    // keeps the product from overflowing.
+    if (rows <= 0 || columns <= 0 || rows > Integer.MAX_VALUE || columns > Integer.MAX_VALUE
+        || rows * columns > buffer.remaining() / 2) {
+      throw new BufferUnderflowException();
+    } // if
+    BigFraction[][] entries = new BigFraction[(int) rows][(int) columns];
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < columns; j++) {
+        entries[i][j] = WireFormat.getFraction(buffer);
+      } // for
+    } // for
+    return new Matrix(entries);
+  } // getMatrix(ByteBuffer)
+
+  /**
+   * Writes a command or message frame.
+   * @param buffer The buffer to write to.
+   * @param kind The kind of frame, COMMAND or MESSAGE.
+   * @param text The command or message.
+   */
+  public static void putText(ByteBuffer buffer, byte kind, String text) {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    buffer.put(kind);
+    WireFormat.putVarint(buffer, bytes.length);
+    buffer.put(bytes);
+  } // putText(ByteBuffer, byte, String)
+
+  /**
+   * Reads the text of a command or message frame, whose kind has already been read.
+   * @param buffer The buffer to read from.
+   * @return The command or message.
+   * @throws BufferUnderflowException If the buffer ends before the text.
+   */
+  public static String getText(ByteBuffer buffer) {
+    long length = WireFormat.getVarint(buffer);
+    if (length < 0 || length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    } // if
+    byte[] bytes = new byte[(int) length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  } // getText(ByteBuffer)
+} // class WireFormat
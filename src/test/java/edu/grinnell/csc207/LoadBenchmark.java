@@ -0,0 +1,500 @@
+package edu.grinnell.csc207;
+
+import edu.grinnell.csc207.util.CommandExecutor;
+import edu.grinnell.csc207.util.ErrorSink;
+import edu.grinnell.csc207.util.ParseCache;
+import edu.grinnell.csc207.util.SessionManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generates a reproducible mix of calculator commands and measures the
+ * throughput, latency, and allocation rate of running it.
+ *
+ * Build with `mvn test-compile`, then run
+ *   java -cp target/classes:target/test-classes edu.grinnell.csc207.LoadBenchmark [options]
+ * Options are given as --name=value:
+ *   --mode=executor   run every command on one CommandExecutor, in this process;
+ *   --mode=sessions   run commands from several threads, each on its own
+ *                     SessionManager sessions, in this process;
+ *   --mode=batch      pipe the whole mix through a BatchCalculator process,
+ *                     which gives throughput only;
+ *   --seed=N          the random seed, so that runs on different builds
+ *                     see the same commands (default 42);
+ *   --commands=N      the number of measured commands (default 100000);
+ *   --warmup=N        the number of commands run first, unmeasured (default 20000);
+ *   --bits=N          the bits in each numerator and denominator (default 32);
+ *   --length=N        the most operations in each expression (default 8);
+ *   --registers=N     the number of registers used (default 8);
+ *   --register-rate=P the chance that an operand is a register, and that a
+ *                     command then stores a new literal in one, so that
+ *                     registers keep values of the given bits (default 0.2);
+ *   --error-rate=P    the chance that a command is malformed (default 0.01);
+ *   --threads=N       the threads of sessions mode (default 4);
+ *   --sessions=N      the sessions of each thread in sessions mode (default 4);
+ *   --rate=N          commands per second for each thread, measuring latency
+ *                     from when each command should have started, or 0 to
+ *                     run each command as soon as the last one ends (default 0);
+ *   --workers=N       the worker processes of batch mode (default 1).
+ *
+ * Latencies are recorded in a histogram with logarithmic buckets, each
+ * split into linear sub-buckets, as HdrHistogram does, so that percentiles
+ * are within 1% of the true latency.
+ *
+ * @author David William Stroud
+ */
+public class LoadBenchmark {
+  /**
+   * The number of nanoseconds in a microsecond.
+   */
+  private static final double NANOS_PER_MICRO = 1_000.0;
+  /**
+   * The number of nanoseconds in a second.
+   */
+  private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+  /**
+   * The number of bytes in a megabyte.
+   */
+  private static final double BYTES_PER_MEGABYTE = 1_048_576.0;
+  /**
+   * The number of parsed commands kept by sessions mode's cache.
+   */
+  private static final int CACHE_SIZE = 1024;
+  /**
+   * The operators used in generated expressions.
+   */
+  private static final String[] OPERATORS = {"+", "-", "*", "/"};
+  /**
+   * The malformed commands used to generate errors.
+   */
+  private static final String[] ERRORS = {"1 + *", "* 1", "1 2", "1 +", "STORE 2b", "LIMIT x"};
+
+  /**
+   * A histogram of latencies, in nanoseconds.
+   */
+  private static final class Histogram {
+    /**
+     * The bits of each value kept within a bucket, so values are recorded
+     * to within one part in 2 to the (SUB_BITS - 1).
+     */
+    private static final int SUB_BITS = 8;
+    /**
+     * Half the number of sub-buckets in each bucket.
+     */
+    private static final int HALF = 1 << (Histogram.SUB_BITS - 1);
+
+    /**
+     * The number of values recorded in each sub-bucket.
+     */
+    private final long[] counts = new long[(Long.SIZE - Histogram.SUB_BITS + 2) * Histogram.HALF];
+    /**
+     * The number of values recorded.
+     */
+    private long total = 0;
+    /**
+     * The largest value recorded.
+     */
+    private long max = 0;
+
+    /**
+     * Records a value.
+     * @param value The value, which must not be negative.
+     */
+    void record(long value) {
+      int shift = Math.max(0, Long.SIZE - Long.numberOfLeadingZeros(value) - Histogram.SUB_BITS);
+      int index = (shift == 0)
+          ? (int) value
+          : shift * Histogram.HALF + (int) (value >>> shift);
+      this.counts[index]++;
+      this.total++;
+      this.max = Math.max(this.max, value);
+    } // record(long)
+
+    /**
+     * Adds every value recorded by another histogram to this one.
+     * @param other The other histogram.
+     */
+    void add(Histogram other) {
+      for (int i = 0; i < this.counts.length; i++) {
+        this.counts[i] += other.counts[i];
+      } // for
+      this.total += other.total;
+      this.max = Math.max(this.max, other.max);
+    } // add(Histogram)
+
+    /**
+     * Returns the value below which a percentage of recorded values fall.
+     * @param percentile The percentage, from 0 to 100.
+     * @return The largest value in the sub-bucket holding that percentile.
+     */
+    long valueAt(double percentile) {
+      long target = Math.max(1, (long) Math.ceil(percentile / 100 * this.total));
+      long seen = 0;
+      for (int index = 0; index < this.counts.length; index++) {
+        seen += this.counts[index];
+        if (seen >= target) {
+          if (index < 2 * Histogram.HALF) {
+            return index;
+          } // if
+          int shift = index / Histogram.HALF - 1;
+          long sub = index - (long) shift * Histogram.HALF;
+          return Math.min(this.max, ((sub + 1) << shift) - 1);
+        } // if
+      } // for
+      return this.max;
+    } // valueAt(double)
+  } // class Histogram
+
+  /**
+   * The settings of one run.
+   */
+  private static final class Options {
+    /**
+     * The way in which commands are run.
+     */
+    private String mode = "executor";
+    /**
+     * The random seed.
+     */
+    private long seed = 42;
+    /**
+     * The number of measured commands.
+     */
+    private int commands = 100_000;
+    /**
+     * The number of unmeasured commands run first.
+     */
+    private int warmup = 20_000;
+    /**
+     * The bits in each numerator and denominator.
+     */
+    private int bits = 32;
+    /**
+     * The most operations in each expression.
+     */
+    private int length = 8;
+    /**
+     * The number of registers used.
+     */
+    private int registers = 8;
+    /**
+     * The chance that an operand is a register, and that a command stores.
+     */
+    private double registerRate = 0.2;
+    /**
+     * The chance that a command is malformed.
+     */
+    private double errorRate = 0.01;
+    /**
+     * The number of threads in sessions mode.
+     */
+    private int threads = 4;
+    /**
+     * The number of sessions of each thread in sessions mode.
+     */
+    private int sessions = 4;
+    /**
+     * The commands per second of each thread, or 0 for no pacing.
+     */
+    private double rate = 0;
+    /**
+     * The number of worker processes in batch mode.
+     */
+    private int workers = 1;
+
+    /**
+     * Reads settings from command-line arguments.
+     * @param args The arguments, each --name=value.
+     * @throws IllegalArgumentException If an argument is not a known setting.
+     */
+    Options(String[] args) {
+      for (String arg : args) {
+        int equals = arg.indexOf('=');
+        if (!arg.startsWith("--") || equals == -1) {
+          throw new IllegalArgumentException("Expected --name=value: " + arg);
+        } // if
+        String name = arg.substring(2, equals);
+        String value = arg.substring(equals + 1);
+        switch (name) {
+          case "mode" -> this.mode = value;
+          case "seed" -> this.seed = Long.parseLong(value);
+          case "commands" -> this.commands = Integer.parseInt(value);
+          case "warmup" -> this.warmup = Integer.parseInt(value);
+          case "bits" -> this.bits = Integer.parseInt(value);
+          case "length" -> this.length = Integer.parseInt(value);
+          case "registers" -> this.registers = Integer.parseInt(value);
+          case "register-rate" -> this.registerRate = Double.parseDouble(value);
+          case "error-rate" -> this.errorRate = Double.parseDouble(value);
+          case "threads" -> this.threads = Integer.parseInt(value);
+          case "sessions" -> this.sessions = Integer.parseInt(value);
+          case "rate" -> this.rate = Double.parseDouble(value);
+          case "workers" -> this.workers = Integer.parseInt(value);
+          default -> throw new IllegalArgumentException("Unknown option: " + name);
+        } // switch
+      } // for
+    } // Options(String[])
+  } // class Options
+
+  /**
+   * Generates a random operand.
+   * @param random The source of randomness.
+   * @param options The settings of the run.
+   * @return A fraction literal or a register name.
+   */
+  private static String operand(Random random, Options options) {
+    if (random.nextDouble() < options.registerRate) {
+      return "r" + random.nextInt(options.registers);
+    } // if
+    return LoadBenchmark.literal(random, options);
+  } // operand(Random, Options)
+
+  /**
+   * Generates a random fraction literal.
+   * @param random The source of randomness.
+   * @param options The settings of the run.
+   * @return A fraction literal.
+   */
+  private static String literal(Random random, Options options) {
+    BigInteger numerator = new BigInteger(options.bits, random);
+    BigInteger denominator = new BigInteger(options.bits, random).add(BigInteger.ONE);
+    return denominator.equals(BigInteger.ONE)
+        ? numerator.toString()
+        : numerator + "/" + denominator;
+  } // literal(Random, Options)
+
+  /**
+   * Generates a mix of commands.
+   * @param random The source of randomness.
+   * @param options The settings of the run.
+   * @param count The number of commands.
+   * @return The commands.
+   */
+  static List<String> generate(Random random, Options options, int count) {
+    List<String> commands = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      if (random.nextDouble() < options.errorRate) {
+        commands.add(LoadBenchmark.ERRORS[random.nextInt(LoadBenchmark.ERRORS.length)]);
+        continue;
+      } // if
+      StringBuilder command = new StringBuilder(LoadBenchmark.operand(random, options));
+      int operations = 1 + random.nextInt(options.length);
+      for (int j = 0; j < operations; j++) {
+        String operator = LoadBenchmark.OPERATORS[random.nextInt(LoadBenchmark.OPERATORS.length)];
+        String operand = LoadBenchmark.operand(random, options);
+        // Keep division by zero, which prints 1/0, out of the mix
+        while (operator.equals("/") && (operand.equals("0") || operand.startsWith("r"))) {
+          operand = LoadBenchmark.operand(random, options);
+        } // while
+        command.append(' ').append(operator).append(' ').append(operand);
+      } // for
+      if (random.nextDouble() < options.registerRate) {
+        // Storing a computed value would let registers, and so later
+        // operands, grow for the whole run, however many bits are asked for
+        command.append(" ; ").append(LoadBenchmark.literal(random, options))
+            .append(" ; STORE r").append(random.nextInt(options.registers));
+      } // if
+      commands.add(command.toString());
+    } // for
+    return commands;
+  } // generate(Random, Options, int)
+
+  /**
+   * Waits until a time, as given by System.nanoTime.
+   * @param time The time.
+   */
+  private static void waitUntil(long time) {
+    long remaining = time - System.nanoTime();
+    while (remaining > 0) {
+      LockSupport.parkNanos(remaining);
+      remaining = time - System.nanoTime();
+    } // while
+  } // waitUntil(long)
+
+  /**
+   * Runs commands on a thread, recording the latency of each.
+   * @param commands The commands.
+   * @param run The action that runs the command with the given index.
+   * @param rate The commands per second, or 0 for no pacing.
+   * @param histogram The histogram in which to record latencies.
+   * @return The bytes allocated by this thread while running the commands,
+   *   or -1 if they cannot be counted.
+   */
+  private static long measure(List<String> commands, java.util.function.IntConsumer run,
+      double rate, Histogram histogram) {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    boolean counted = threads.isThreadAllocatedMemorySupported();
+    long allocated = counted ? threads.getCurrentThreadAllocatedBytes() : 0;
+    long interval = (rate > 0) ? (long) (LoadBenchmark.NANOS_PER_SECOND / rate) : 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < commands.size(); i++) {
+      // With pacing, latency runs from when the command should have started,
+      // so a slow command also counts against the commands queued behind it
+      long intended = (interval > 0) ? start + i * interval : System.nanoTime();
+      LoadBenchmark.waitUntil(intended);
+      run.accept(i);
+      histogram.record(System.nanoTime() - intended);
+    } // for
+    return counted ? threads.getCurrentThreadAllocatedBytes() - allocated : -1;
+  } // measure(List<String>, IntConsumer, double, Histogram)
+
+  /**
+   * Prints the results of a run.
+   * @param options The settings of the run.
+   * @param commands The number of commands measured.
+   * @param nanos The wall time of the run.
+   * @param histogram The latencies, or null if they were not measured.
+   * @param allocated The bytes allocated, or -1 if they were not counted.
+   */
+  private static void report(Options options, long commands, long nanos, Histogram histogram,
+      long allocated) {
+    double seconds = nanos / LoadBenchmark.NANOS_PER_SECOND;
+    System.out.printf("mode %s  seed %d  commands %d  bits %d  length %d%n",
+        options.mode, options.seed, commands, options.bits, options.length);
+    System.out.printf("throughput  %12.1f commands/s%n", commands / seconds);
+    if (histogram != null) {
+      System.out.printf("latency     p50 %9.1f us   p99 %9.1f us   p999 %9.1f us   max %9.1f us%n",
+          histogram.valueAt(50) / LoadBenchmark.NANOS_PER_MICRO,
+          histogram.valueAt(99) / LoadBenchmark.NANOS_PER_MICRO,
+          histogram.valueAt(99.9) / LoadBenchmark.NANOS_PER_MICRO,
+          histogram.max / LoadBenchmark.NANOS_PER_MICRO);
+    } // if
+    if (allocated >= 0) {
+      System.out.printf("allocation  %12.1f MB/s   %10.1f bytes/command%n",
+          allocated / LoadBenchmark.BYTES_PER_MEGABYTE / seconds,
+          (double) allocated / commands);
+    } // if
+  } // report(Options, long, long, Histogram, long)
+
+  /**
+   * Runs the mix on one CommandExecutor in this process.
+   * @param options The settings of the run.
+   */
+  private static void runExecutor(Options options) {
+    Random random = new Random(options.seed);
+    List<String> warmup = LoadBenchmark.generate(random, options, options.warmup);
+    List<String> commands = LoadBenchmark.generate(random, options, options.commands);
+    CommandExecutor executor = new CommandExecutor((code, command, start, end) -> { });
+    PrintWriter pen = new PrintWriter(Writer.nullWriter());
+    for (String command : warmup) {
+      executor.execute(command, false, pen);
+    } // for
+
+    Histogram histogram = new Histogram();
+    long start = System.nanoTime();
+    long allocated = LoadBenchmark.measure(commands,
+        (i) -> executor.execute(commands.get(i), false, pen), options.rate, histogram);
+    LoadBenchmark.report(options, commands.size(), System.nanoTime() - start, histogram,
+        allocated);
+  } // runExecutor(Options)
+
+  /**
+   * Runs the mix on several threads sharing one SessionManager, each
+   * spreading its commands over its own sessions.
+   * @param options The settings of the run.
+   * @throws InterruptedException If interrupted while waiting for the threads.
+   */
+  private static void runSessions(Options options) throws InterruptedException {
+    ErrorSink errors = (code, command, start, end) -> { };
+    SessionManager manager = new SessionManager(errors, new ParseCache(LoadBenchmark.CACHE_SIZE),
+        options.threads * options.sessions, null);
+    Thread[] threads = new Thread[options.threads];
+    Histogram[] histograms = new Histogram[options.threads];
+    long[] allocated = new long[options.threads];
+    List<List<String>> mixes = new ArrayList<List<String>>();
+    for (int t = 0; t < options.threads; t++) {
+      // Each thread has its own seed, derived from the run's, so the mix
+      // does not depend on how the threads are scheduled
+      Random random = new Random(options.seed + t);
+      mixes.add(LoadBenchmark.generate(random, options, options.warmup + options.commands));
+    } // for
+
+    long start = System.nanoTime();
+    for (int t = 0; t < options.threads; t++) {
+      int thread = t;
+      histograms[t] = new Histogram();
+      threads[t] = new Thread(() -> {
+        PrintWriter pen = new PrintWriter(Writer.nullWriter());
+        List<String> mix = mixes.get(thread);
+        for (int i = 0; i < options.warmup; i++) {
+          manager.execute("t" + thread + "s" + (i % options.sessions), mix.get(i), false, pen);
+        } // for
+        List<String> commands = mix.subList(options.warmup, mix.size());
+        allocated[thread] = LoadBenchmark.measure(commands,
+            (i) -> manager.execute("t" + thread + "s" + (i % options.sessions),
+                commands.get(i), false, pen),
+            options.rate, histograms[thread]);
+      });
+      threads[t].start();
+    } // for
+    Histogram histogram = new Histogram();
+    long total = 0;
+    for (int t = 0; t < options.threads; t++) {
+      threads[t].join();
+      histogram.add(histograms[t]);
+      total = (total < 0 || allocated[t] < 0) ? -1 : total + allocated[t];
+    } // for
+    // The wall time includes the warmup, so throughput is a lower bound
+    LoadBenchmark.report(options, histogram.total, System.nanoTime() - start, histogram, total);
+  } // runSessions(Options)
+
+  /**
+   * Pipes the mix through a BatchCalculator process.
+   * @param options The settings of the run.
+   * @throws IOException If the process cannot be run.
+   * @throws InterruptedException If interrupted while waiting for the process.
+   */
+  private static void runBatch(Options options) throws IOException, InterruptedException {
+    Random random = new Random(options.seed);
+    LoadBenchmark.generate(random, options, options.warmup);
+    List<String> commands = LoadBenchmark.generate(random, options, options.commands);
+    File script = File.createTempFile("load", ".txt");
+    script.deleteOnExit();
+    Files.write(script.toPath(), commands);
+
+    List<String> command = new ArrayList<String>(List.of(
+        System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+        "-cp", System.getProperty("java.class.path"),
+        "edu.grinnell.csc207.main.BatchCalculator"));
+    if (options.workers > 1) {
+      command.add("--workers=" + options.workers);
+    } // if
+    long start = System.nanoTime();
+    Process process = new ProcessBuilder(command)
+        .redirectInput(script)
+        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+        .redirectError(ProcessBuilder.Redirect.DISCARD)
+        .start();
+    if (process.waitFor() != 0) {
+      throw new IOException("BatchCalculator failed");
+    } // if
+    // The wall time includes starting the JVM
+    LoadBenchmark.report(options, commands.size(), System.nanoTime() - start, null, -1);
+  } // runBatch(Options)
+
+  /**
+   * Runs the load benchmark.
+   * @param args The command-line arguments, as described above.
+   * @throws IOException If a process cannot be run.
+   * @throws InterruptedException If interrupted while waiting for a thread or process.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Options options = new Options(args);
+    switch (options.mode) {
+      case "executor" -> LoadBenchmark.runExecutor(options);
+      case "sessions" -> LoadBenchmark.runSessions(options);
+      case "batch" -> LoadBenchmark.runBatch(options);
+      default -> throw new IllegalArgumentException("Unknown mode: " + options.mode);
+    } // switch
+  } // main(String[])
+} // class LoadBenchmark
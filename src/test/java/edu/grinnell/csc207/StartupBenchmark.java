@@ -0,0 +1,119 @@
+package edu.grinnell.csc207;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the time from launching QuickCalculator to reading its first
+ * result, for each way of launching it that has been built.
+ *
+ * Build the launch modes with `mvn package`, `mvn -Pappcds package`, and
+ * `mvn -Pnative package`, then run
+ *   java -cp target/test-classes edu.grinnell.csc207.StartupBenchmark
+ * Modes whose artifacts are missing are skipped.
+ *
+ * @author David William Stroud
+ */
+public class StartupBenchmark {
+  /**
+   * The number of times to launch each mode.
+   */
+  private static final int RUNS = 20;
+  /**
+   * The number of nanoseconds in a millisecond.
+   */
+  private static final double NANOS_PER_MILLI = 1_000_000.0;
+  /**
+   * The name of the main class being launched.
+   */
+  private static final String MAIN_CLASS = "edu.grinnell.csc207.main.QuickCalculator";
+  /**
+   * The command given to each launch.
+   */
+  private static final String COMMAND = "1/2 + 1/3";
+
+  /**
+   * Launches a process and waits for its first line of output.
+   * @param command The command line of the process.
+   * @return The number of nanoseconds until the first line was read.
+   * @throws IOException If the process cannot be launched.
+   * @throws InterruptedException If interrupted while waiting for the process.
+   */
+  private static long timeFirstResult(List<String> command)
+      throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    Process process = new ProcessBuilder(command)
+        .redirectError(ProcessBuilder.Redirect.DISCARD)
+        .start();
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(process.getInputStream()));
+    String line = reader.readLine();
+    long elapsed = System.nanoTime() - start;
+    process.waitFor();
+    if (line == null) {
+      throw new IOException("No output from " + command);
+    } // if
+    return elapsed;
+  } // timeFirstResult(List<String>)
+
+  /**
+   * Times one launch mode, if it has been built, and prints the results.
+   * @param name The name of the launch mode.
+   * @param artifact The file the launch mode needs.
+   * @param command The command line, without the calculator command.
+   * @throws IOException If the process cannot be launched.
+   * @throws InterruptedException If interrupted while waiting for the process.
+   */
+  private static void benchmark(String name, File artifact, List<String> command)
+      throws IOException, InterruptedException {
+    if (!artifact.exists()) {
+      System.out.printf("%-8s skipped (%s not found)%n", name, artifact);
+      return;
+    } // if
+
+    List<String> full = new ArrayList<String>(command);
+    full.add(StartupBenchmark.COMMAND);
+    StartupBenchmark.timeFirstResult(full);
+
+    long[] times = new long[StartupBenchmark.RUNS];
+    for (int i = 0; i < times.length; i++) {
+      times[i] = StartupBenchmark.timeFirstResult(full);
+    } // for
+    Arrays.sort(times);
+    System.out.printf("%-8s min %7.1f ms   median %7.1f ms   max %7.1f ms%n", name,
+        times[0] / StartupBenchmark.NANOS_PER_MILLI,
+        times[times.length / 2] / StartupBenchmark.NANOS_PER_MILLI,
+        times[times.length - 1] / StartupBenchmark.NANOS_PER_MILLI);
+  } // benchmark(String, File, List<String>)
+
+  /**
+   * Runs the startup benchmark.
+   * @param args The command-line arguments. An optional first argument names
+   *   the build directory, which defaults to target.
+   * @throws IOException If a process cannot be launched.
+   * @throws InterruptedException If interrupted while waiting for a process.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    File target = new File((args.length > 0) ? args[0] : "target");
+    String java = System.getProperty("java.home") + File.separator + "bin"
+        + File.separator + "java";
+    File classes = new File(target, "classes");
+    File jar = new File(target, "csc207-mp-2-1.0-SNAPSHOT.jar");
+    File archive = new File(target, "quick-calculator.jsa");
+    File executable = new File(target, "quick-calculator");
+
+    StartupBenchmark.benchmark("jvm", classes,
+        List.of(java, "-cp", classes.getPath(), StartupBenchmark.MAIN_CLASS));
+    StartupBenchmark.benchmark("jar", jar,
+        List.of(java, "-Xshare:auto", "-cp", jar.getPath(), StartupBenchmark.MAIN_CLASS));
+    StartupBenchmark.benchmark("appcds", archive,
+        List.of(java, "-XX:SharedArchiveFile=" + archive.getPath(), "-cp", jar.getPath(),
+            StartupBenchmark.MAIN_CLASS));
+    StartupBenchmark.benchmark("native", executable, List.of(executable.getPath()));
+  } // main(String[])
+} // class StartupBenchmark
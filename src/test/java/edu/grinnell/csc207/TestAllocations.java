@@ -0,0 +1,154 @@
+package edu.grinnell.csc207;
+
+import edu.grinnell.csc207.util.BigFraction;
+import edu.grinnell.csc207.util.CommandExecutor;
+import edu.grinnell.csc207.util.Token;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Allocation regression tests. Each test measures the bytes allocated per
+ * call of a hot operation, and fails if that exceeds the stored baseline in
+ * allocation-baselines.properties by more than the allowed tolerance.
+ *
+ * When an operation legitimately needs more (or less) memory, update its
+ * baseline to the measured value printed by the test.
+ *
+ * @author David William Stroud
+ */
+public class TestAllocations {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The resource holding the baselines.
+   */
+  static final String BASELINES = "/allocation-baselines.properties";
+
+  /**
+   * How far above its baseline a measurement may be, as a fraction of the baseline.
+   */
+  static final double TOLERANCE = 0.25;
+
+  /**
+   * The number of calls made before measuring, so that the JIT settles.
+   */
+  static final int WARMUP_CALLS = 50_000;
+
+  /**
+   * The number of calls measured.
+   */
+  static final int MEASURED_CALLS = 20_000;
+
+  /**
+   * 1/3
+   */
+  static final BigFraction ONE_THIRD = new BigFraction(1, 3);
+
+  /**
+   * 5/7
+   */
+  static final BigFraction FIVE_SEVENTHS = new BigFraction(5, 7);
+
+  /**
+   * A typical expression.
+   */
+  static final String EXPRESSION = "1/2 + 1/3 * a - 5/7";
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * The thread bean used to count allocated bytes.
+   */
+  static com.sun.management.ThreadMXBean threads;
+
+  /**
+   * The stored baselines.
+   */
+  static Properties baselines = new Properties();
+
+  /**
+   * Loads the baselines and checks that allocations can be counted.
+   */
+  @BeforeAll
+  static void setUp() throws IOException {
+    try (InputStream in = TestAllocations.class.getResourceAsStream(BASELINES)) {
+      baselines.load(in);
+    } // try
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      threads = (com.sun.management.ThreadMXBean) bean;
+    } // if
+  } // setUp()
+
+  /**
+   * Measures the bytes allocated per call of op, and checks it against the
+   * baseline named key.
+   */
+  static void check(String key, Runnable op) {
+    assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported(),
+        "Allocation counting is not supported");
+    threads.setThreadAllocatedMemoryEnabled(true);
+
+    for (int i = 0; i < WARMUP_CALLS; i++) {
+      op.run();
+    } // for
+    long id = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(id);
+    for (int i = 0; i < MEASURED_CALLS; i++) {
+      op.run();
+    } // for
+    long after = threads.getThreadAllocatedBytes(id);
+
+    double perCall = (double) (after - before) / MEASURED_CALLS;
+    long baseline = Long.parseLong(baselines.getProperty(key));
+    System.out.printf("%s: %.1f bytes per call (baseline %d)%n", key, perCall, baseline);
+    assertTrue(perCall <= baseline * (1 + TOLERANCE),
+        key + " allocates " + perCall + " bytes per call, above its baseline of "
+        + baseline);
+  } // check(String, Runnable)
+
+  // +-------+-------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /**
+   * How much does adding two fractions allocate?
+   */
+  @Test
+  public void testBfAddAllocations() {
+    check("bigfraction.add", () -> ONE_THIRD.add(FIVE_SEVENTHS));
+  } // testBfAddAllocations()
+
+  /**
+   * How much does parsing an expression allocate?
+   */
+  @Test
+  public void testTokenParseAllocations() {
+    check("token.parse", () -> Token.parse(EXPRESSION, null));
+  } // testTokenParseAllocations()
+
+  /**
+   * How much does executing an expression allocate?
+   */
+  @Test
+  public void testExecuteAllocations() {
+    CommandExecutor executor = new CommandExecutor();
+    PrintWriter pen = new PrintWriter(Writer.nullWriter());
+    check("commandexecutor.execute", () -> executor.execute(EXPRESSION, true, pen));
+  } // testExecuteAllocations()
+} // class TestAllocations
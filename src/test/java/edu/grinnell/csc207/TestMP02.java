@@ -1,13 +1,63 @@
 package edu.grinnell.csc207;
 
 import edu.grinnell.csc207.util.BigFraction;
+import edu.grinnell.csc207.util.BigFractionText;
 import edu.grinnell.csc207.util.BFCalculator;
 import edu.grinnell.csc207.util.BFRegisterSet;
-
+import edu.grinnell.csc207.util.Budget;
+import edu.grinnell.csc207.util.BudgetExceededException;
+import edu.grinnell.csc207.util.CommandError;
+import edu.grinnell.csc207.util.CommandExecutor;
+import edu.grinnell.csc207.util.CommandFrameReader;
+import edu.grinnell.csc207.util.Matrix;
+import edu.grinnell.csc207.util.ModularEvaluator;
+import edu.grinnell.csc207.util.OutputPipeline;
+import edu.grinnell.csc207.util.ParallelMultiplier;
+import edu.grinnell.csc207.util.ParseCache;
+import edu.grinnell.csc207.util.Polynomial;
+import edu.grinnell.csc207.util.ScriptOptimizer;
+import edu.grinnell.csc207.util.ScriptSharder;
+import edu.grinnell.csc207.util.SessionManager;
+import edu.grinnell.csc207.util.Tracing;
+import edu.grinnell.csc207.util.WireFormat;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
 
@@ -191,6 +241,208 @@ public class TestMP02 {
         "E: Parse negative number 2");
   } // testBfParseNegative()
 
+  // +---------------------------+-----------------------------------
+  // | Extra tests - BigFraction |
+  // +---------------------------+
+
+  /**
+   * Can we raise BigFraction values to integer powers?
+   */
+  @Test
+  public void testBfPow() {
+    assertEquals("8/27", TWO_THIRDS.pow(3).toString(),
+        "X: Power 1");
+    assertEquals("1", TWO_THIRDS.pow(0).toString(),
+        "X: Power 2");
+    assertEquals("9/4", TWO_THIRDS.pow(-2).toString(),
+        "X: Power 3");
+    assertEquals("-1/8", new BigFraction("-1/2").pow(3).toString(),
+        "X: Power 4");
+    assertEquals("1/4", new BigFraction("-1/2").pow(2).toString(),
+        "X: Power 5");
+    assertEquals("-8", new BigFraction("-1/2").pow(-3).toString(),
+        "X: Power 6");
+  } // testBfPow()
+
+  /**
+   * Are powers too large to compute refused, rather than overflowing or
+   * recursing forever?
+   */
+  @Test
+  public void testBfPowLimits() {
+    assertThrows(ArithmeticException.class, () -> new BigFraction(2, 1).pow(Integer.MAX_VALUE),
+        "X: Power too large");
+    assertThrows(ArithmeticException.class, () -> TWO_THIRDS.pow(Integer.MIN_VALUE),
+        "X: Exponent cannot be negated");
+    assertThrows(ArithmeticException.class, () -> BigFraction.ONE.pow(Integer.MIN_VALUE),
+        "X: Exponent cannot be negated for one");
+    assertEquals("1", BigFraction.NEGATIVE_ONE.pow(Integer.MAX_VALUE - 1).toString(),
+        "X: Huge power of -1");
+    assertEquals("0", BigFraction.ZERO.pow(Integer.MAX_VALUE).toString(),
+        "X: Huge power of 0");
+  } // testBfPowLimits()
+
+  /**
+   * Can we approximate BigFraction values with smaller denominators?
+   */
+  @Test
+  public void testBfApproximate() {
+    BigFraction pi = new BigFraction("314159265/100000000");
+    assertEquals("355/113", pi.limitDenominator(BigInteger.valueOf(1000)).toString(),
+        "X: Limit denominator 1");
+    assertEquals("-355/113",
+        pi.negate().limitDenominator(BigInteger.valueOf(1000)).toString(),
+        "X: Limit denominator 2");
+    assertEquals("2/3", TWO_THIRDS.limitDenominator(BigInteger.valueOf(3)).toString(),
+        "X: Limit denominator 3");
+    assertEquals("1/3", new BigFraction("33/100").limitDenominator(BigInteger.TEN).toString(),
+        "X: Limit denominator 4");
+    assertEquals("22/7", pi.bestApproximation(new BigFraction(1, 100)).toString(),
+        "X: Best approximation 1");
+    assertEquals("-3", pi.negate().bestApproximation(ONE_HALF).toString(),
+        "X: Best approximation 2");
+  } // testBfApproximate()
+
+  /**
+   * Can we convert between BigFraction values and decimals?
+   */
+  @Test
+  public void testBfDecimal() {
+    assertEquals("617/50", BigFraction.valueOf(new BigDecimal("12.34")).toString(),
+        "X: From decimal 1");
+    assertEquals("1200", BigFraction.valueOf(new BigDecimal("1.2E+3")).toString(),
+        "X: From decimal 2");
+    assertEquals(new BigDecimal("0.5"), ONE_HALF.toBigDecimal(),
+        "X: To decimal 1");
+    assertEquals(new BigDecimal("-0.2"), ONE_FIFTH.negate().toBigDecimal(),
+        "X: To decimal 2");
+    assertEquals(new BigDecimal("0.025"), new BigFraction(1, 40).toBigDecimal(),
+        "X: To decimal 3");
+    assertNull(ONE_SIXTH.toBigDecimal(),
+        "X: To decimal 4");
+    assertNull(new BigFraction(1, 0).toBigDecimal(),
+        "X: To decimal 5");
+  } // testBfDecimal()
+
+  /**
+   * Can we compare BigFraction values?
+   */
+  @Test
+  public void testBfCompare() {
+    assertEquals(-1, ONE_THIRD.compareTo(ONE_HALF), "X: Compare 1");
+    assertEquals(1, ONE_HALF.compareTo(ONE_THIRD), "X: Compare 2");
+    assertEquals(0, ONE_HALF.compareTo(new BigFraction(3, 6)), "X: Compare 3");
+    assertEquals(1, ONE_SIXTH.compareTo(ONE_HALF.negate()), "X: Compare 4");
+    assertEquals(-1, ONE_HALF.negate().compareTo(ONE_SIXTH.negate()), "X: Compare 5");
+    assertEquals(1, new BigFraction(1000, 3).compareTo(ONE_FIFTH), "X: Compare 6");
+    assertEquals(1, new BigFraction(-1, 1000).compareTo(new BigFraction(-1000, 1)),
+        "X: Compare 7");
+    assertEquals(0, BigFraction.ZERO.compareTo(ONE_HALF.subtract(ONE_HALF)), "X: Compare 8");
+  } // testBfCompare()
+
+  /**
+   * Does parallel arithmetic give the same results as sequential arithmetic?
+   */
+  @Test
+  public void testBfParallel() {
+    Random random = new Random(207);
+    BigFraction first = new BigFraction(new BigInteger(5000, random),
+        new BigInteger(4000, random).negate());
+    BigFraction second = new BigFraction(new BigInteger(3000, random).negate(),
+        new BigInteger(6000, random));
+    String sum = first.add(second).toString();
+    String product = first.multiply(second).toString();
+    BigInteger big = new BigInteger(9000, random).negate();
+    BigInteger expected = big.multiply(big.add(BigInteger.TEN));
+
+    int parallelThreshold = ParallelMultiplier.getParallelThreshold();
+    int splitThreshold = ParallelMultiplier.getSplitThreshold();
+    try {
+      ParallelMultiplier.setParallelThreshold(1000);
+      ParallelMultiplier.setSplitThreshold(500);
+      assertEquals(sum, first.add(second).toString(), "X: Parallel addition");
+      assertEquals(product, first.multiply(second).toString(), "X: Parallel multiplication");
+      assertEquals(expected, ParallelMultiplier.multiply(big, big.add(BigInteger.TEN)),
+          "X: Parallel split multiplication");
+    } finally {
+      ParallelMultiplier.setParallelThreshold(parallelThreshold);
+      ParallelMultiplier.setSplitThreshold(splitThreshold);
+    } // try-finally
+  } // testBfParallel()
+
+  /**
+   * Can we stream huge fractions in and out as text?
+   */
+  @Test
+  public void testBfText() throws IOException {
+    Random random = new Random(207);
+    BigFraction big = new BigFraction(new BigInteger(40000, random).negate(),
+        new BigInteger(30000, random));
+    String text = big.toString();
+    StringWriter out = new StringWriter();
+    BigFractionText.write(big, out);
+    assertEquals(text, out.toString(), "X: Write huge fraction");
+    assertEquals(text, BigFractionText.read(new StringReader(text + " 1")).toString(),
+        "X: Read huge fraction");
+
+    ByteBuffer bytes = ByteBuffer.wrap("-22/7 100000000000000000000 12/-8"
+        .getBytes(StandardCharsets.US_ASCII));
+    assertEquals("-22/7", BigFractionText.read(bytes).toString(), "X: Read fraction");
+    bytes.get();
+    assertEquals("100000000000000000000", BigFractionText.read(bytes).toString(),
+        "X: Read integer");
+    bytes.get();
+    assertEquals("-3/2", BigFractionText.read(bytes).toString(), "X: Read and simplify");
+    assertEquals(0, bytes.remaining(), "X: Read whole buffer");
+  } // testBfText()
+
+  /**
+   * Can we encode fractions and commands in binary and decode them again?
+   */
+  @Test
+  public void testBfWire() throws IOException {
+    Random random = new Random(207);
+    BigFraction[] values = {BigFraction.ZERO, new BigFraction(-22, 7),
+        new BigFraction(BigInteger.valueOf(Long.MAX_VALUE), BigInteger.valueOf(3)),
+        new BigFraction(new BigInteger(1000, random), new BigInteger(900, random).negate())};
+    int size = 0;
+    for (BigFraction value : values) {
+      size += WireFormat.fractionSize(value);
+    } // for
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    for (BigFraction value : values) {
+      WireFormat.putFraction(buffer, value);
+    } // for
+    assertEquals(0, buffer.remaining(), "X: Exact encoded size");
+    buffer.flip();
+    for (BigFraction value : values) {
+      assertEquals(value.toString(), WireFormat.getFraction(buffer).toString(),
+          "X: Decode " + value);
+    } // for
+    assertEquals(2, WireFormat.fractionSize(new BigFraction(-22, 7)), "X: Small fast path");
+
+    ByteBuffer frames = ByteBuffer.allocate(100);
+    WireFormat.putText(frames, WireFormat.COMMAND, "1/2 + 1/3");
+    WireFormat.putText(frames, WireFormat.COMMAND, "STORE \u00e9");
+    CommandFrameReader reader = new CommandFrameReader(Channels.newChannel(
+        new ByteArrayInputStream(frames.array(), 0, frames.position())), 4);
+    assertEquals("1/2 + 1/3", reader.next(), "X: Read command frame");
+    assertEquals("STORE \u00e9", reader.next(), "X: Read second command frame");
+    assertNull(reader.next(), "X: Read end of frames");
+
+    ByteBuffer huge = ByteBuffer.allocate(100);
+    huge.put(WireFormat.COMMAND);
+    WireFormat.putVarint(huge, 1L << 40);
+    huge.put(new byte[50]);
+    CommandFrameReader hugeReader = new CommandFrameReader(Channels.newChannel(
+        new ByteArrayInputStream(huge.array(), 0, huge.position())), 4);
+    assertThrows(IOException.class, hugeReader::next, "X: Frame too large");
+    WireFormat.putText(frames.clear(), WireFormat.COMMAND, "1/2 + 1/3");
+    CommandFrameReader smallReader = new CommandFrameReader(Channels.newChannel(
+        new ByteArrayInputStream(frames.array(), 0, frames.position())), 4, 8);
+    assertThrows(IOException.class, smallReader::next, "X: Frame over the given limit");
+  } // testBfWire()
+
   // +------------------------+--------------------------------------
   // | R tests - BFCalculator |
   // +------------------------+
@@ -387,6 +639,77 @@ public class TestMP02 {
         "E: Multiple calculators 5c");
   } // testBfcMany()
 
+  // +----------------------------+----------------------------------
+  // | Extra tests - BFCalculator |
+  // +----------------------------+
+
+  /**
+   * Do the long kernels agree with fraction arithmetic, even on overflow?
+   */
+  @Test
+  public void testBfcSmall() {
+    Random random = new Random(207);
+    BFCalculator bfc = new BFCalculator();
+    BigFraction expected = BigFraction.ZERO;
+    for (int i = 0; i < 2000; i++) {
+      int bits = 1 + random.nextInt(40);
+      BigFraction operand = new BigFraction(
+          BigInteger.valueOf(random.nextLong() >> (Long.SIZE - bits)),
+          BigInteger.valueOf(1 + (random.nextLong() >>> (Long.SIZE - bits))));
+      long numerator = operand.numerator().longValue() * operand.denominator().signum();
+      long denominator = operand.denominator().abs().longValue();
+      int op = random.nextInt(4);
+      if (op == 0) {
+        bfc.add(numerator, denominator);
+        expected = expected.add(operand);
+      } else if (op == 1) {
+        bfc.subtract(numerator, denominator);
+        expected = expected.subtract(operand);
+      } else if (op == 2) {
+        bfc.multiply(numerator, denominator);
+        expected = expected.multiply(operand);
+      } else if (numerator != 0) {
+        bfc.divide(numerator, denominator);
+        expected = expected.divide(operand);
+      } // if-else chain
+      assertEquals(expected.toString(), bfc.get().toString(), "X: Long kernel step " + i);
+      if (expected.numerator().bitLength() > 200) {
+        bfc.reset(numerator, denominator);
+        expected = operand;
+      } // if
+    } // for
+  } // testBfcSmall()
+
+  /**
+   * Do the long kernels keep the sign of a result of Long.MIN_VALUE?
+   */
+  @Test
+  public void testBfcSmallMinValue() {
+    String min = Long.toString(Long.MIN_VALUE);
+    BFCalculator bfc = new BFCalculator();
+    bfc.reset(-4611686018427387903L, 1);
+    bfc.add(-4611686018427387903L, 1);
+    bfc.add(-2, 1);
+    assertEquals(min, bfc.get().toString(), "X: Add to Long.MIN_VALUE");
+    bfc.add(1, 1);
+    assertEquals("-9223372036854775807", bfc.get().toString(), "X: Add past Long.MIN_VALUE");
+    bfc.reset(-4611686018427387903L, 1);
+    bfc.subtract(4611686018427387903L, 1);
+    bfc.subtract(2, 1);
+    assertEquals(min, bfc.get().toString(), "X: Subtract to Long.MIN_VALUE");
+    bfc.reset(2147483648L, 1);
+    bfc.multiply(-4294967296L, 1);
+    assertEquals(min, bfc.get().toString(), "X: Multiply to Long.MIN_VALUE");
+    bfc.reset(2147483648L, 1);
+    bfc.divide(-1, 4294967296L);
+    assertEquals(min, bfc.get().toString(), "X: Divide to Long.MIN_VALUE");
+    bfc.divide(-2, 1);
+    assertEquals("4611686018427387904", bfc.get().toString(), "X: Divide Long.MIN_VALUE");
+    assertEquals(min + System.lineSeparator(),
+        runScript(List.of("-4611686018427387903 + -4611686018427387903 + -2")),
+        "X: Script to Long.MIN_VALUE");
+  } // testBfcSmallMinValue()
+
   // +-------------------------+-------------------------------------
   // | R tests - BFRegisterSet |
   // +-------------------------+
@@ -540,5 +863,1154 @@ public class TestMP02 {
 
   } // testBfrsIndependentUpdate()
 
+  // +-----------------------------+---------------------------------
+  // | Extra tests - BFRegisterSet |
+  // +-----------------------------+
+
+  /**
+   * Can we store thousands of named registers alongside the letters?
+   */
+  @Test
+  public void testBfrsNamed() {
+    BFRegisterSet registers = new BFRegisterSet();
+    BFRegisterSet other = new BFRegisterSet();
+    registers.store('a', ONE_HALF);
+    for (int i = 0; i < 5000; i++) {
+      registers.store(BFRegisterSet.slotOf("v" + i), new BigFraction(i, 7));
+    } // for
+    assertEquals(BFRegisterSet.slotOf("v123"), BFRegisterSet.slotOf("v123"),
+        "X: Names interned once");
+    assertEquals("a", BFRegisterSet.nameOf(BFRegisterSet.slotOf("a")), "X: Letter slots");
+    for (String invalid : new String[] {"A", "", "2x", "x-y", "x y", "_x"}) {
+      assertThrows(IllegalArgumentException.class, () -> BFRegisterSet.slotOf(invalid),
+          "X: Invalid name " + invalid);
+    } // for
+    assertEquals("v4999", BFRegisterSet.nameOf(BFRegisterSet.slotOf("v4999")), "X: Named slots");
+    for (int i = 0; i < 5000; i++) {
+      assertEquals(new BigFraction(i, 7).toString(),
+          registers.get(BFRegisterSet.slotOf("v" + i)).toString(),
+          "X: Named register " + i);
+    } // for
+    assertEquals("1/2", registers.get('a').toString(), "X: Letters unaffected");
+    assertEquals("0", other.get(BFRegisterSet.slotOf("v10")).toString(),
+        "X: Unstored named register");
+    assertEquals(0, other.smallNumerator(BFRegisterSet.slotOf("never_stored")),
+        "X: Unstored named register is small");
+  } // testBfrsNamed()
+
+  /**
+   * Once the limit on names is reached, are new names refused while known
+   * names and letters keep working?
+   */
+  @Test
+  public void testBfrsMaxNames() throws IOException {
+    int known = BFRegisterSet.slotOf("limit_known");
+    int limit = BFRegisterSet.getMaxNames();
+    String newline = System.lineSeparator();
+    String output;
+    String scripted;
+    try {
+      BFRegisterSet.setMaxNames(0);
+      assertThrows(BudgetExceededException.class, () -> BFRegisterSet.slotOf("limit_new"),
+          "X: New name refused");
+      assertEquals(known, BFRegisterSet.slotOf("limit_known"), "X: Known name kept");
+      output = runScript(List.of("1/2 ; STORE limit_known", "STORE limit_fresh",
+          "limit_known + limit_other", "limit_known + a + 1"));
+
+      // A name that does not fit stops the rest of its line, which the
+      // optimizer and sharder must allow for rather than fail
+      List<String> script = List.of("1/2 ; STORE limit_known",
+          "limit_known + 1 ; STORE b ; limit_lost * 2 ; STORE c ; 5 ; STORE b",
+          "3 ; STORE d", "b + c + d", "b + c + d ; STORE limit_fresh", "7 ; STORE e",
+          "e * 2", "d + 1 ; STORE limit_fresh", "b + c + d");
+      scripted = runScript(script);
+      assertEquals(scripted, runScript(ScriptOptimizer.optimize(script)),
+          "X: Optimized names over the limit");
+      assertEquals(scripted, runSegments(ScriptSharder.shard(script, 4)),
+          "X: Sharded names over the limit");
+    } finally {
+      BFRegisterSet.setMaxNames(limit);
+    } // try-finally
+    assertEquals("1/2" + newline
+        + "Error: " + CommandError.TOO_MANY_NAMES.getMessage() + newline
+        + "Error: " + CommandError.TOO_MANY_NAMES.getMessage() + newline
+        + "3/2" + newline, output, "X: Names over the limit");
+    assertEquals(String.join(newline, "1/2", "3/2",
+        "Error: " + CommandError.TOO_MANY_NAMES.getMessage(), "3", "9/2", "9/2",
+        "Error: " + CommandError.TOO_MANY_NAMES.getMessage(), "7", "14", "4",
+        "Error: " + CommandError.TOO_MANY_NAMES.getMessage(), "9/2") + newline,
+        scripted, "X: Script with names over the limit");
+    assertEquals("limit_new", BFRegisterSet.nameOf(BFRegisterSet.slotOf("limit_new")),
+        "X: Limit raised again");
+  } // testBfrsMaxNames()
+
+  /**
+   * Do snapshots hold every store made before a publication, and only those?
+   */
+  @Test
+  public void testBfrsSnapshot() {
+    BFRegisterSet registers = new BFRegisterSet();
+    BFRegisterSet.Snapshot empty = registers.snapshot();
+    assertEquals("0", empty.get(BFRegisterSet.slotOf("a")).toString(), "X: Empty snapshot");
+    registers.publish();
+    assertSame(empty, registers.snapshot(), "X: Nothing to publish");
+
+    registers.store('a', ONE_HALF);
+    registers.store(BFRegisterSet.slotOf("snap_total"), ONE_THIRD);
+    assertSame(empty, registers.snapshot(), "X: Stores not yet published");
+    registers.publish();
+    BFRegisterSet.Snapshot first = registers.snapshot();
+    assertEquals(1, first.version(), "X: One publication for two stores");
+    assertEquals("1/2", first.get(BFRegisterSet.slotOf("a")).toString(), "X: Published letter");
+    assertEquals("1/3", first.get(BFRegisterSet.slotOf("snap_total")).toString(),
+        "X: Published name");
+
+    registers.store('a', ONE_SIXTH);
+    registers.publish();
+    assertEquals("1/2", first.get(BFRegisterSet.slotOf("a")).toString(),
+        "X: Old snapshot unchanged");
+    assertEquals("1/6", registers.snapshot().get(BFRegisterSet.slotOf("a")).toString(),
+        "X: New snapshot");
+    assertEquals(2, registers.snapshot().version(), "X: Second publication");
+  } // testBfrsSnapshot()
+
+  // +----------------------+----------------------------------------
+  // | Extra tests - Matrix |
+  // +----------------------+
+
+  /**
+   * Computes a determinant by cofactor expansion along the first row.
+   * @param entries The entries of a square matrix.
+   * @return The determinant.
+   */
+  private static BigFraction cofactorDeterminant(BigFraction[][] entries) {
+    int n = entries.length;
+    if (n == 1) {
+      return entries[0][0];
+    } // if
+    BigFraction result = BigFraction.ZERO;
+    for (int column = 0; column < n; column++) {
+      BigFraction[][] minor = new BigFraction[n - 1][n - 1];
+      for (int i = 1; i < n; i++) {
+        for (int j = 0, k = 0; j < n; j++) {
+          if (j != column) {
+            minor[i - 1][k++] = entries[i][j];
+          } // if
+        } // for
+      } // for
+      BigFraction term = entries[0][column].multiply(cofactorDeterminant(minor));
+      result = (column % 2 == 0) ? result.add(term) : result.subtract(term);
+    } // for
+    return result;
+  } // cofactorDeterminant(BigFraction[][])
+
+  /**
+   * Do determinants, inverses, and solutions agree with their definitions,
+   * whether rows are updated in turn or in parallel?
+   */
+  @Test
+  public void testMatrix() {
+    Random random = new Random(43);
+    int parallelRows = Matrix.getParallelRows();
+    try {
+      for (int trial = 0; trial < 40; trial++) {
+        Matrix.setParallelRows((trial % 2 == 0) ? Integer.MAX_VALUE : 1);
+        int n = 1 + random.nextInt(5);
+        BigFraction[][] entries = new BigFraction[n][n];
+        BigFraction[][] rhs = new BigFraction[n][2];
+        for (int i = 0; i < n; i++) {
+          for (int j = 0; j < n; j++) {
+            // Small entries and many zeros, so that pivots are often zero
+            entries[i][j] = new BigFraction(random.nextInt(7) - 3, 1 + random.nextInt(4));
+          } // for
+          rhs[i][0] = new BigFraction(random.nextInt(11) - 5, 1 + random.nextInt(6));
+          rhs[i][1] = new BigFraction(random.nextInt(11) - 5, 1);
+        } // for
+        Matrix matrix = new Matrix(entries);
+        BigFraction determinant = cofactorDeterminant(entries);
+        assertEquals(determinant.toString(), matrix.determinant().toString(),
+            "X: Determinant " + trial);
+        if (determinant.signum() == 0) {
+          assertThrows(ArithmeticException.class, () -> matrix.inverse(),
+              "X: Singular inverse " + trial);
+          continue;
+        } // if
+
+        Matrix inverse = matrix.inverse();
+        Matrix solution = matrix.solve(new Matrix(rhs));
+        for (int i = 0; i < n; i++) {
+          for (int j = 0; j < n; j++) {
+            BigFraction sum = BigFraction.ZERO;
+            for (int k = 0; k < n; k++) {
+              sum = sum.add(entries[i][k].multiply(inverse.get(k, j)));
+            } // for
+            assertEquals((i == j) ? "1" : "0", sum.toString(),
+                "X: Inverse " + trial + " at " + i + ", " + j);
+          } // for
+          for (int j = 0; j < 2; j++) {
+            BigFraction sum = BigFraction.ZERO;
+            for (int k = 0; k < n; k++) {
+              sum = sum.add(entries[i][k].multiply(solution.get(k, j)));
+            } // for
+            assertEquals(rhs[i][j].toString(), sum.toString(),
+                "X: Solution " + trial + " at " + i + ", " + j);
+          } // for
+        } // for
+      } // for
+    } finally {
+      Matrix.setParallelRows(parallelRows);
+    } // try-finally
+  } // testMatrix()
+
+  /**
+   * Do polynomials take the values of their terms summed one by one,
+   * whether points are evaluated in turn or in parallel?
+   */
+  @Test
+  public void testPolynomial() {
+    Random random = new Random(49);
+    int parallelPoints = Polynomial.getParallelPoints();
+    try {
+      for (int trial = 0; trial < 40; trial++) {
+        Polynomial.setParallelPoints((trial % 2 == 0) ? Integer.MAX_VALUE : 1);
+        BigFraction[] coefficients = new BigFraction[1 + random.nextInt(12)];
+        for (int i = 0; i < coefficients.length; i++) {
+          coefficients[i] = new BigFraction(random.nextInt(2001) - 1000, 1 + random.nextInt(30));
+        } // for
+        BigFraction[] points = new BigFraction[1 + random.nextInt(5)];
+        for (int i = 0; i < points.length; i++) {
+          points[i] = new BigFraction(random.nextInt(41) - 20, 1 + random.nextInt(9));
+        } // for
+        Polynomial polynomial = new Polynomial(coefficients);
+        BigFraction[] values = polynomial.evaluate(points);
+        for (int i = 0; i < points.length; i++) {
+          BigFraction expected = BigFraction.ZERO;
+          for (int j = 0; j < coefficients.length; j++) {
+            int power = coefficients.length - 1 - j;
+            expected = expected.add(coefficients[j].multiply(points[i].pow(power)));
+          } // for
+          assertEquals(expected.toString(), values[i].toString(),
+              "X: Polynomial " + trial + " at " + points[i]);
+          assertEquals(expected.toString(), polynomial.evaluate(points[i]).toString(),
+              "X: Polynomial " + trial + " at one point " + points[i]);
+        } // for
+      } // for
+    } finally {
+      Polynomial.setParallelPoints(parallelPoints);
+    } // try-finally
+    BigFraction[] cubic = {BigFraction.ONE, BigFraction.ZERO, BigFraction.ZERO, BigFraction.ONE};
+    assertEquals(3, new Polynomial(cubic).degree(), "X: Degree");
+    assertThrows(IllegalArgumentException.class, () -> new Polynomial(new BigFraction[0]),
+        "X: No coefficients");
+  } // testPolynomial()
+
+  // +-------------------------------+-------------------------------
+  // | Extra tests - CommandExecutor |
+  // +-------------------------------+
+
+  /**
+   * Does the output pipeline write results and errors in order?
+   */
+  @Test
+  public void testCePipeline() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream stream = new PrintStream(bytes, true);
+    OutputPipeline output = new OutputPipeline(Channels.newChannel(stream), stream, 2, 16);
+    CommandExecutor executor = new CommandExecutor();
+    executor.execute("1/2 + 1/3", true, output);
+    executor.execute("1 +", false, output);
+    executor.execute("2 ^ 100", false, output);
+    executor.execute("1/4 * 2", false, output);
+    output.close();
+
+    String newline = System.lineSeparator();
+    assertEquals("1/2 + 1/3 = 5/6" + newline
+        + "Error: Command ended mid-instruction." + newline
+        + "1267650600228229401496703205376" + newline
+        + "1/2" + newline,
+        bytes.toString(),
+        "X: Pipelined output");
+  } // testCePipeline()
+
+  /**
+   * Does an idle output pipeline sleep until there is output, rather than
+   * polling, and wake up again when there is?
+   */
+  @Test
+  public void testCePipelineIdle() throws InterruptedException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream stream = new PrintStream(bytes, true);
+    OutputPipeline output = new OutputPipeline(Channels.newChannel(stream), stream, 2, 16);
+    CommandExecutor executor = new CommandExecutor();
+    executor.execute("1/2", false, output);
+    for (int round = 0; round < 3; round++) {
+      Thread writer = null;
+      long deadline = System.nanoTime() + 5_000_000_000L;
+      while (writer == null && System.nanoTime() < deadline) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+          if (thread.getName().equals("calculator-output")
+              && thread.getState() == Thread.State.WAITING) {
+            writer = thread;
+          } // if
+        } // for
+        Thread.sleep(1);
+      } // while
+      assertNotNull(writer, "X: Idle writer waits without a timeout " + round);
+      executor.execute("1/3 + " + round, false, output);
+    } // for
+    output.close();
+
+    String newline = System.lineSeparator();
+    assertEquals("1/2" + newline + "1/3" + newline + "4/3" + newline + "7/3" + newline,
+        bytes.toString(),
+        "X: Output after idling");
+  } // testCePipelineIdle()
+
+  /**
+   * Does an output pipeline whose writer fails hand the failure to the
+   * producer, rather than leaving it waiting on a full ring buffer?
+   */
+  @Test
+  public void testCePipelineFailure() {
+    WritableByteChannel broken = new WritableByteChannel() {
+      @Override
+      public int write(ByteBuffer source) {
+        throw new IllegalStateException("broken");
+      } // write(ByteBuffer)
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      } // isOpen()
+
+      @Override
+      public void close() { } // close()
+    };
+    OutputPipeline output = new OutputPipeline(broken, System.err, 2, 16);
+    CommandExecutor executor = new CommandExecutor();
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+      assertThrows(IllegalStateException.class, () -> {
+        for (int i = 0; i < 1000; i++) {
+          executor.execute("1/3 + " + i, false, output);
+        } // for
+      }, "X: Failure on a later result");
+      assertThrows(IllegalStateException.class, output::close, "X: Failure on close");
+    }, "X: Producer does not wait for a failed writer");
+  } // testCePipelineFailure()
+
+  /**
+   * Does the output pipeline write binary frames?
+   */
+  @Test
+  public void testCeBinary() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream stream = new PrintStream(bytes, true);
+    OutputPipeline output = new OutputPipeline(Channels.newChannel(stream), stream, 2, 16, true);
+    CommandExecutor executor = new CommandExecutor();
+    executor.execute("1/2 + 1/3", true, output);
+    executor.execute("1 +", false, output);
+    executor.execute("2 ^ 200", false, output);
+    output.close();
+
+    ByteBuffer frames = ByteBuffer.wrap(bytes.toByteArray());
+    assertEquals(WireFormat.RESULT, frames.get(), "X: Result frame");
+    assertEquals("5/6", WireFormat.getFraction(frames).toString(), "X: Binary result");
+    assertEquals(WireFormat.ERROR, frames.get(), "X: Error frame");
+    assertEquals(CommandError.UNFINISHED.ordinal(), WireFormat.getVarint(frames),
+        "X: Binary error code");
+    assertEquals(2, WireFormat.getVarint(frames), "X: Binary error start");
+    assertEquals(3, WireFormat.getVarint(frames), "X: Binary error end");
+    assertEquals(WireFormat.RESULT, frames.get(), "X: Large result frame");
+    assertEquals(BigInteger.TWO.pow(200).toString(),
+        WireFormat.getFraction(frames).toString(), "X: Large binary result");
+    assertEquals(0, frames.remaining(), "X: No further frames");
+  } // testCeBinary()
+
+  /**
+   * Can we run several statements in one command?
+   */
+  @Test
+  public void testCeStatements() {
+    StringWriter out = new StringWriter();
+    PrintWriter pen = new PrintWriter(out);
+    CommandExecutor executor = new CommandExecutor();
+    executor.execute("1/2 + a ; STORE b ; b * 3", true, pen);
+    executor.execute(" b ;; b + 1 ;", false, pen);
+
+    String newline = System.lineSeparator();
+    assertEquals("1/2 + a = 1/2" + newline
+        + "b * 3 = 3/2" + newline
+        + "1/2" + newline
+        + "3/2" + newline,
+        out.toString(),
+        "X: Several statements");
+  } // testCeStatements()
+
+  /**
+   * Do conditional expressions evaluate only the branch they take?
+   */
+  @Test
+  public void testCeConditional() {
+    StringWriter out = new StringWriter();
+    PrintWriter pen = new PrintWriter(out);
+    CommandExecutor executor = new CommandExecutor();
+    executor.execute("2/3 MAX 1/2 ; STORE a", false, pen);
+    executor.execute("IF a > 1/2 THEN a * 3 ELSE 1 / 0", false, pen);
+    executor.execute("IF a = 0 THEN 1 / 0 ELSE a MIN 1/3", false, pen);
+
+    String newline = System.lineSeparator();
+    assertEquals("2/3" + newline + "2" + newline + "1/3" + newline,
+        out.toString(),
+        "X: Conditional expressions");
+  } // testCeConditional()
+
+  /**
+   * Can commands store, read, save, and restore named registers?
+   */
+  @Test
+  public void testCeNamed() throws IOException {
+    StringWriter out = new StringWriter();
+    PrintWriter pen = new PrintWriter(out);
+    CommandExecutor executor = new CommandExecutor();
+    executor.execute("1/2 ; STORE total ; 3 ; STORE x_2 ; STORE t", false, pen);
+    executor.execute("total + x_2 * t ; total_count + 1", false, pen);
+
+    StringWriter state = new StringWriter();
+    executor.saveState(state);
+    CommandExecutor restored = new CommandExecutor();
+    restored.restoreState(new BufferedReader(new StringReader(state.toString())));
+    restored.execute("total - x_2", false, pen);
+
+    String newline = System.lineSeparator();
+    assertEquals("1/2" + newline + "3" + newline
+        + "21/2" + newline + "1" + newline + "-5/2" + newline,
+        out.toString(),
+        "X: Named registers");
+  } // testCeNamed()
+
+  /**
+   * Do the matrix commands print their results and report their errors?
+   */
+  @Test
+  public void testCeMatrix() throws IOException {
+    List<String> errors = new ArrayList<String>();
+    StringWriter out = new StringWriter();
+    PrintWriter pen = new PrintWriter(out);
+    CommandExecutor executor = new CommandExecutor(
+        (code, command, start, end) -> errors.add(code + " " + command.substring(start, end)));
+    executor.execute("3 ; STORE k", false, pen);
+    executor.execute("DET 1/2 k | 2 4 ; STORE d ; d + 1", true, pen);
+    executor.execute("SOLVE 2 1 5 | 1 3 10", false, pen);
+    executor.execute("INV 2 0 | 0 1/3", false, pen);
+    executor.execute("INV 1 2 | 2 4", false, pen);
+    executor.execute("DET 1 2 | 3", false, pen);
+    executor.execute("SOLVE 1 2 | 3 4", false, pen);
+    executor.execute("DET 1 + | 3 4", false, pen);
+    executor.execute("DET 1 x/2 | 3 4", false, pen);
+
+    String newline = System.lineSeparator();
+    assertEquals("3" + newline
+        + "DET 1/2 k | 2 4 = -4" + newline
+        + "d + 1 = -3" + newline
+        + "1 | 3" + newline
+        + "1/2 0 | 0 3" + newline,
+        out.toString(),
+        "X: Matrix results");
+    assertEquals(List.of(
+        CommandError.SINGULAR_MATRIX + " 1 2 | 2 4",
+        CommandError.MATRIX_FORMAT + " 3",
+        CommandError.MATRIX_FORMAT + " 1 2 | 3 4",
+        CommandError.EXPECTED_NUMERIC + " +",
+        CommandError.NOT_A_NUMBER + " x/2"),
+        errors,
+        "X: Matrix errors");
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    OutputPipeline output =
+        new OutputPipeline(Channels.newChannel(bytes), System.err, 4, 64, true);
+    executor.execute("INV 2 0 | 0 1/3", false, output);
+    output.close();
+    ByteBuffer frames = ByteBuffer.wrap(bytes.toByteArray());
+    assertEquals(WireFormat.MATRIX, frames.get(), "X: Matrix frame");
+    assertEquals("1/2 0 | 0 3", WireFormat.getMatrix(frames).toString(), "X: Matrix frame value");
+
+    // 2^33 rows of 2^31 columns overflow a long when multiplied
+    ByteBuffer huge = ByteBuffer.allocate(100);
+    WireFormat.putVarint(huge, 1L << 33);
+    WireFormat.putVarint(huge, 1L << 31);
+    huge.put(new byte[50]);
+    huge.flip();
+    assertThrows(BufferUnderflowException.class, () -> WireFormat.getMatrix(huge),
+        "X: Matrix too large");
+  } // testCeMatrix()
+
+  /**
+   * Does POLY evaluate a polynomial at one point, leaving its value to be
+   * stored, and at several points, giving a row of values?
+   */
+  @Test
+  public void testCePolynomial() {
+    List<String> errors = new ArrayList<String>();
+    StringWriter out = new StringWriter();
+    PrintWriter pen = new PrintWriter(out);
+    CommandExecutor executor = new CommandExecutor(
+        (code, command, start, end) -> errors.add(code + " " + command.substring(start, end)));
+    executor.execute("1/2 ; STORE h", false, pen);
+    executor.execute("POLY 2 -3 1/3 | h ; STORE v ; v * 6", true, pen);
+    executor.execute("POLY 1 0 -2 | 0 1 -1/2 h 3", false, pen);
+    executor.execute("POLY 7 | 5 6", false, pen);
+    executor.execute("POLY 1 2 3", false, pen);
+    executor.execute("POLY | 1", false, pen);
+    executor.execute("POLY 1 2 | 1 | 2", false, pen);
+    executor.execute("POLY 1 + | 2", false, pen);
+
+    String newline = System.lineSeparator();
+    assertEquals("1/2" + newline
+        + "POLY 2 -3 1/3 | h = -2/3" + newline
+        + "v * 6 = -4" + newline
+        + "-2 -1 -7/4 -7/4 7" + newline
+        + "7 7" + newline,
+        out.toString(),
+        "X: Polynomial results");
+    assertEquals(List.of(
+        CommandError.POLY_FORMAT + " 1 2 3",
+        CommandError.POLY_FORMAT + " | 1",
+        CommandError.POLY_FORMAT + " 1 2 | 1 | 2",
+        CommandError.EXPECTED_NUMERIC + " +"),
+        errors,
+        "X: Polynomial errors");
+  } // testCePolynomial()
+
+  /**
+   * Does evaluation modulo primes, whether asked for or automatic, give the
+   * same results as exact evaluation?
+   */
+  @Test
+  public void testCeModular() {
+    Random random = new Random(44);
+    String[] operators = {"+", "-", "*", "/", "^"};
+    List<String> script = new ArrayList<String>();
+    script.add("-7/3 ; STORE big_a");
+    script.add("1 / 0");
+    script.add("0 ^ -1");
+    script.add("2 + 1/3 ^ -40 * 3 ^ 2");
+    for (int trial = 0; trial < 30; trial++) {
+      StringBuilder expression = new StringBuilder("big_a");
+      for (int i = 0; i < 10 + random.nextInt(60); i++) {
+        String operator = operators[random.nextInt(operators.length)];
+        expression.append(' ').append(operator).append(' ');
+        if (operator.equals("^")) {
+          expression.append(random.nextInt(7) - 3);
+        } else {
+          expression.append(random.nextInt(2000) - 1000).append('/').append(1 + random.nextInt(99));
+        } // if-else
+      } // for
+      script.add(expression.toString());
+    } // for
+
+    int threshold = ModularEvaluator.getThreshold();
+    try {
+      ModularEvaluator.setThreshold(Integer.MAX_VALUE);
+      String exact = runScript(script);
+      List<String> forced = new ArrayList<String>();
+      for (String command : script) {
+        forced.add(command.startsWith("-") ? command : "MODULAR " + command);
+      } // for
+      assertEquals(exact, runScript(forced), "X: Forced modular evaluation");
+      ModularEvaluator.setThreshold(0);
+      assertEquals(exact, runScript(script), "X: Automatic modular evaluation");
+    } finally {
+      ModularEvaluator.setThreshold(threshold);
+    } // try-finally
+  } // testCeModular()
+
+  /**
+   * Does evaluation modulo primes reject a fraction that agrees with the
+   * value modulo every prime it would otherwise check first?
+   */
+  @Test
+  public void testCeModularCrafted() {
+    // The product of the largest primes below 2^31 is 0 modulo each of them
+    BigInteger product = BigInteger.ONE;
+    int found = 0;
+    for (long candidate = Integer.MAX_VALUE; found < 256; candidate -= 2) {
+      if (BigInteger.valueOf(candidate).isProbablePrime(50)) {
+        product = product.multiply(BigInteger.valueOf(candidate));
+        found++;
+      } // if
+    } // for
+    String expression = "1/3 + " + product;
+    assertEquals(runScript(List.of(expression)), runScript(List.of("MODULAR " + expression)),
+        "X: Value that is 1/3 modulo the largest primes");
+  } // testCeModularCrafted()
+
+  /**
+   * Does REPEAT run its body the given number of times, and does
+   * fast-forwarding an affine body match running it in full?
+   */
+  @Test
+  public void testCeRepeat() {
+    String[] bodies = {"x * 3/2 - 1/5", "2 * x + 1", "1/3 - x", "x / 7 + c", "5 ^ 2 - x * 2",
+        "c * 4 / 3 + x", "3"};
+    List<String> fast = new ArrayList<String>();
+    List<String> slow = new ArrayList<String>();
+    for (String script : new String[] {"2/3 ; STORE c"}) {
+      fast.add(script);
+      slow.add(script);
+    } // for
+    for (String body : bodies) {
+      for (int count : new int[] {1, 2, 37}) {
+        fast.add("1/2 ; STORE x ; REPEAT " + count + " " + body + " ; STORE x");
+        // Reading x after the STORE keeps the body from being fast-forwarded
+        slow.add("1/2 ; STORE x ; REPEAT " + count + " " + body + " ; STORE x ; x");
+      } // for
+    } // for
+    assertEquals(runScript(slow), runScript(fast), "X: Fast-forwarded REPEAT");
+
+    List<String> script = List.of(
+        "0 ; STORE x ; REPEAT 1000000000000 x + 1 ; STORE x",
+        "x / 1000000000000",
+        "1 ; STORE y ; REPEAT 3 PRINT y * 2 ; STORE y",
+        "REPEAT 0 7",
+        "1 ; STORE f ; 1 ; STORE g ; REPEAT 10 f + g ; STORE h ; g ; STORE f ; h ; STORE g",
+        "LIMIT 10 ; REPEAT 3 1/3 + 1/3",
+        "REPEAT x 1",
+        "REPEAT 3",
+        "REPEAT 2 1 + ; 2",
+        "REPEAT 2 STORE 2b");
+    String newline = System.lineSeparator();
+    String format = "Error: " + CommandError.REPEAT_FORMAT.getMessage();
+    assertEquals(String.join(newline, "0", "1000000000000", "1",
+        "1", "2", "4", "8",
+        "1", "1", "144",
+        "2/3",
+        format,
+        format,
+        "Error: " + CommandError.UNFINISHED.getMessage(),
+        "Error: " + CommandError.INVALID_REGISTER.getMessage()) + newline,
+        runScript(script),
+        "X: REPEAT output and errors");
+    assertEquals(runScript(script), runScript(ScriptOptimizer.optimize(script)),
+        "X: Optimized REPEAT");
+  } // testCeRepeat()
+
+  /**
+   * Is fast-forwarding refused when the result would be too large, rather
+   * than computed?
+   */
+  @Test
+  public void testCeRepeatLimits() {
+    List<String> script = List.of(
+        "1 ; STORE x ; REPEAT 100000000 x * 3 ; STORE x",
+        "REPEAT 100000000000 x * 2 ; STORE x",
+        "REPEAT 1000000000000000 x / 2 + 1 ; STORE x",
+        "x",
+        "REPEAT 20 x * 3 ; STORE x",
+        "1/2 ; STORE y ; REPEAT 1000000000001 1 - y ; STORE y",
+        "REPEAT 1000000000000000 y + 3 ; STORE y");
+    String newline = System.lineSeparator();
+    String error = "Error: " + CommandError.POWER_TOO_LARGE.getMessage();
+    assertEquals(String.join(newline, "1", error, error, error, "1", "3486784401", "1/2",
+        "1/2", "6000000000000001/2") + newline,
+        runScript(script),
+        "X: REPEAT too large to fast-forward");
+  } // testCeRepeatLimits()
+
+  /**
+   * Are commands over their time, bit, or memory budget stopped with an
+   * error, leaving later commands to run?
+   */
+  @Test
+  public void testCeBudget() {
+    List<String> errors = new ArrayList<String>();
+    CommandExecutor executor = new CommandExecutor(
+        (code, command, start, end) -> errors.add(code + " " + command.substring(start, end)));
+    StringWriter out = new StringWriter();
+    PrintWriter pen = new PrintWriter(out);
+    try {
+      Budget.setMaxBits(1000);
+      executor.execute("3 ^ 100 ^ 100", false, pen);
+      executor.execute("2 ; STORE x ; REPEAT 20 x * x ; STORE x", false, pen);
+      executor.execute("1/2 + 1/3", false, pen);
+      Budget.setMaxBits(0);
+
+      Budget.setMaxMillis(50);
+      executor.execute("0 ; STORE y ; REPEAT 1000000000 y + 1 ; STORE y ; y", false, pen);
+      Budget.setMaxMillis(0);
+
+      Budget.setMaxBytes(1_000_000);
+      executor.execute("1 ; STORE z ; REPEAT 1000000 z * 3 ; STORE z ; z", false, pen);
+      Budget.setMaxBytes(0);
+      executor.execute("2 ^ 10 ; x - x + 1", false, pen);
+    } finally {
+      Budget.setMaxBits(0);
+      Budget.setMaxMillis(0);
+      Budget.setMaxBytes(0);
+    } // try-finally
+
+    String newline = System.lineSeparator();
+    assertEquals(List.of(
+        CommandError.BITS_BUDGET + " 3 ^ 100 ^ 100",
+        CommandError.BITS_BUDGET + " 2 ; STORE x ; REPEAT 20 x * x ; STORE x",
+        CommandError.TIME_BUDGET + " 0 ; STORE y ; REPEAT 1000000000 y + 1 ; STORE y ; y",
+        CommandError.MEMORY_BUDGET + " 1 ; STORE z ; REPEAT 1000000 z * 3 ; STORE z ; z"),
+        errors,
+        "X: Budget errors");
+    assertEquals("2" + newline + "5/6" + newline + "0" + newline + "1" + newline
+        + "1024" + newline + "1" + newline,
+        out.toString(),
+        "X: Output within budget");
+  } // testCeBudget()
+
+  /**
+   * Are budgets enforced on work done on other threads?
+   */
+  @Test
+  public void testCeBudgetParallel() throws ExecutionException, InterruptedException {
+    List<CommandError> errors = new ArrayList<CommandError>();
+    CommandExecutor executor = new CommandExecutor(
+        (code, command, start, end) -> errors.add(code));
+    PrintWriter pen = new PrintWriter(new StringWriter());
+
+    // The thread running the command evaluates the first points itself, so
+    // only the last, which is left to another thread, is large
+    String points = " 1".repeat(63) + " 10000000000000000000";
+    StringBuilder matrix = new StringBuilder("DET");
+    for (int i = 0; i < 30; i++) {
+      matrix.append((i == 0) ? " " : " | ");
+      for (int j = 0; j < 30; j++) {
+        matrix.append(" 1234567890123456789").append((i * j + i + j) % 97 + 1);
+      } // for
+    } // for
+
+    int parallelPoints = Polynomial.getParallelPoints();
+    int parallelRows = Matrix.getParallelRows();
+    try {
+      Polynomial.setParallelPoints(1);
+      Matrix.setParallelRows(1);
+      // Parallel streams started on a worker of a pool run in that pool
+      ForkJoinPool pool = new ForkJoinPool(8);
+      pool.submit(() -> {
+        Budget.setMaxBits(1000);
+        executor.execute("POLY 1" + " 0".repeat(60) + " |" + points, false, pen);
+        Budget.setMaxBits(0);
+
+        Budget.setMaxBytes(1_000_000);
+        executor.execute("POLY 3" + " 1".repeat(400) + " |" + points, false, pen);
+        executor.execute(matrix.toString(), false, pen);
+      }).get();
+      pool.shutdown();
+    } finally {
+      Budget.setMaxBits(0);
+      Budget.setMaxBytes(0);
+      Polynomial.setParallelPoints(parallelPoints);
+      Matrix.setParallelRows(parallelRows);
+    } // try-finally
+    assertEquals(List.of(CommandError.BITS_BUDGET, CommandError.MEMORY_BUDGET,
+        CommandError.MEMORY_BUDGET), errors, "X: Parallel budget errors");
+  } // testCeBudgetParallel()
+
+  /**
+   * Are errors reported with their codes and the offending text?
+   */
+  @Test
+  public void testCeErrors() {
+    List<String> errors = new ArrayList<String>();
+    CommandExecutor executor = new CommandExecutor(
+        (code, command, start, end) -> errors.add(code + " " + command.substring(start, end)));
+    PrintWriter pen = new PrintWriter(new StringWriter());
+    executor.execute("1 + 2/x", false, pen);
+    executor.execute("1 + *", false, pen);
+    executor.execute("* 1", false, pen);
+    executor.execute("1 2", false, pen);
+    executor.execute("1 +", false, pen);
+    executor.execute("  STORE a b", false, pen);
+    executor.execute("STORE 2b", false, pen);
+    executor.execute("2 ^ 1/2", false, pen);
+
+    assertEquals(List.of(
+        CommandError.NOT_A_NUMBER + " 2/x",
+        CommandError.EXPECTED_NUMERIC + " *",
+        CommandError.FIRST_NOT_NUMERIC + " *",
+        CommandError.EXPECTED_OPERATOR + " 2",
+        CommandError.UNFINISHED + " +",
+        CommandError.STORE_FORMAT + " a b",
+        CommandError.INVALID_REGISTER + " 2b",
+        CommandError.INVALID_EXPONENT + " 1/2"),
+        errors,
+        "X: Coded errors");
+  } // testCeErrors()
+
+  /**
+   * Are powers too large to compute reported as errors, in every mode,
+   * rather than escaping as exceptions?
+   */
+  @Test
+  public void testCePowerLimits() {
+    List<String> errors = new ArrayList<String>();
+    StringWriter out = new StringWriter();
+    PrintWriter pen = new PrintWriter(out);
+    CommandExecutor executor = new CommandExecutor(
+        (code, command, start, end) -> errors.add(code + " " + command.substring(start, end)));
+    executor.execute("2 ^ 2147483647", false, pen);
+    executor.execute("1/2 ^ -2147483647", false, pen);
+    executor.execute("-1 ^ 2147483647", false, pen);
+    executor.execute("2 ; STORE p ; REPEAT 3 p ^ 2147483647 ; STORE p", false, pen);
+    executor.execute("DECIMAL ON", false, pen);
+    executor.execute("1.5 ^ 2000000000", false, pen);
+    executor.execute("0.0 ^ 2000000000", false, pen);
+
+    String newline = System.lineSeparator();
+    assertEquals("-1" + newline + "2" + newline + "0" + newline, out.toString(),
+        "X: Small powers still computed");
+    assertEquals(List.of(
+        CommandError.POWER_TOO_LARGE + " 2147483647",
+        CommandError.POWER_TOO_LARGE + " -2147483647",
+        CommandError.POWER_TOO_LARGE + " 2147483647",
+        CommandError.POWER_TOO_LARGE + " 2000000000"),
+        errors,
+        "X: Powers too large");
+
+    List<String> script = List.of("3 ^ 2147483647 + 1", "2 ^ 10");
+    assertEquals(runScript(script), runScript(ScriptOptimizer.optimize(script)),
+        "X: Optimizer leaves large powers unfolded");
+  } // testCePowerLimits()
+
+  /**
+   * Do negative whole numbers keep their sign in DECIMAL mode, so that
+   * comparisons and MIN and MAX order them correctly?
+   */
+  @Test
+  public void testCeDecimalNegative() {
+    List<String> script = List.of(
+        "DECIMAL ON",
+        "-5 < 1",
+        "-5 MIN 1",
+        "-5 + 0 < 1",
+        "-5 > -6",
+        "1 MAX -5 * 2",
+        "-5.5 < -5",
+        "-5 ; STORE n ; n < 0",
+        "-5 - 2.5");
+    String newline = System.lineSeparator();
+    assertEquals("1" + newline + "-5" + newline + "1" + newline + "1" + newline
+        + "2" + newline + "1" + newline + "-5" + newline + "1" + newline + "-15/2" + newline,
+        runScript(script),
+        "X: Negative decimals");
+    assertEquals(-1, BigFraction.valueOf(new BigDecimal("-5")).signum(),
+        "X: Sign of negative whole decimal");
+    assertEquals(-1, BigFraction.valueOf(new BigDecimal("-5")).compareTo(BigFraction.ONE),
+        "X: Order of negative whole decimal");
+  } // testCeDecimalNegative()
+
+  /**
+   * Does DECIMAL mode fall back on fractions for a register holding a
+   * zero denominator, rather than hanging?
+   */
+  @Test
+  public void testCeDecimalZeroDenominator() {
+    List<String> script = List.of("1 / 0", "STORE q", "DECIMAL ON", "q + 1", "q * 2.5");
+    String newline = System.lineSeparator();
+    assertEquals("1/0" + newline + "1/0" + newline + "1/0" + newline,
+        runScript(script),
+        "X: Zero denominator in DECIMAL mode");
+  } // testCeDecimalZeroDenominator()
+
+  /**
+   * Are decimals with exponents too long to hold reported through the
+   * error sink, rather than thrown?
+   */
+  @Test
+  public void testCeDecimalExponent() {
+    List<String> errors = new ArrayList<String>();
+    StringWriter out = new StringWriter();
+    PrintWriter pen = new PrintWriter(out);
+    CommandExecutor executor = new CommandExecutor(
+        (code, command, start, end) -> errors.add(code + " " + command.substring(start, end)));
+    executor.execute("1.0e99999999999 + 1", false, pen);
+    executor.execute("1.0e999999999 + 1", false, pen);
+    executor.execute("DECIMAL ON", false, pen);
+    executor.execute("1 + 2.5e-999999", false, pen);
+    executor.execute("1.5e3 + 2.5e-3", false, pen);
+
+    assertEquals("600001/400" + System.lineSeparator(), out.toString(), "X: Short exponents");
+    assertEquals(List.of(
+        CommandError.NOT_A_NUMBER + " 1.0e99999999999",
+        CommandError.NOT_A_NUMBER + " 1.0e999999999",
+        CommandError.NOT_A_NUMBER + " 2.5e-999999"),
+        errors,
+        "X: Long exponents");
+  } // testCeDecimalExponent()
+
+  /**
+   * Runs a script in a new executor.
+   * @param script The commands of the script.
+   * @return The output and errors of the script.
+   */
+  private static String runScript(List<String> script) {
+    StringWriter out = new StringWriter();
+    PrintWriter pen = new PrintWriter(out);
+    CommandExecutor executor = new CommandExecutor(
+        (code, command, start, end) -> pen.println("Error: " + code.getMessage()));
+    for (String command : script) {
+      try {
+        executor.execute(command, false, pen);
+      } catch (Exception err) {
+        pen.println("Error: Error while executing command");
+      } // try-catch
+    } // for
+    pen.flush();
+    return out.toString();
+  } // runScript(List<String>)
+
+  /**
+   * Runs the segments of a sharded script in turn, each in a new executor
+   * restored from its snapshot.
+   * @param segments The segments.
+   * @return The output and errors of every segment.
+   * @throws IOException If a snapshot cannot be read.
+   */
+  private static String runSegments(List<ScriptSharder.Segment> segments) throws IOException {
+    StringBuilder output = new StringBuilder();
+    for (ScriptSharder.Segment segment : segments) {
+      StringWriter out = new StringWriter();
+      PrintWriter pen = new PrintWriter(out);
+      CommandExecutor executor = new CommandExecutor(
+          (code, command, start, end) -> pen.println("Error: " + code.getMessage()));
+      executor.restoreState(new BufferedReader(new StringReader(segment.snapshot())));
+      for (String command : segment.commands()) {
+        executor.execute(command, false, pen);
+      } // for
+      output.append(out);
+    } // for
+    return output.toString();
+  } // runSegments(List<ScriptSharder.Segment>)
+
+  /**
+   * Does optimizing a script keep its output?
+   */
+  @Test
+  public void testCeOptimize() {
+    List<String> script = List.of(
+        "1/2 + 1/3 * 6",
+        "STORE a",
+        "2 ^ 10 + 1",
+        "STORE a",
+        "a * 3 - 1",
+        "a * 3 - 1 / 2",
+        "1 / 0 + a",
+        "1 + 2 ; STORE b ; b + 1",
+        "LIMIT 10",
+        "1/3 + 1/7 * b",
+        "DECIMAL ON",
+        "0.5 + 0.25 * a",
+        "1 +");
+    List<String> optimized = ScriptOptimizer.optimize(script);
+    assertEquals(List.of(
+        "5",
+        "1025",
+        "STORE a",
+        "a * 3 - 1",
+        "STORE z",
+        "z / 2",
+        "1 / 0 + a",
+        "3",
+        "STORE b",
+        "b + 1",
+        "LIMIT 10",
+        "1/2 * b",
+        "DECIMAL ON",
+        "3/4 * a",
+        "1 +"),
+        optimized,
+        "X: Optimized script");
+    assertEquals(runScript(script), runScript(optimized), "X: Optimized output");
+
+    Random random = new Random(207);
+    String[] operators = {"+", "-", "*", "/", "^", "MIN", "<"};
+    for (int trial = 0; trial < 20; trial++) {
+      List<String> generated = new ArrayList<>();
+      for (int line = 0; line < 50; line++) {
+        if (random.nextInt(4) == 0) {
+          generated.add("STORE " + (char) ('a' + random.nextInt(3)));
+          continue;
+        } // if
+        StringBuilder expression = new StringBuilder();
+        int length = 1 + random.nextInt(4);
+        for (int i = 0; i < length; i++) {
+          if (i > 0) {
+            expression.append(' ').append(operators[random.nextInt(operators.length)]).append(' ');
+          } // if
+          expression.append(random.nextBoolean()
+              ? String.valueOf((char) ('a' + random.nextInt(3)))
+              : String.valueOf(random.nextInt(4)));
+        } // for
+        generated.add(expression.toString());
+      } // for
+      assertEquals(runScript(generated), runScript(ScriptOptimizer.optimize(generated)),
+          "X: Optimized output of generated script " + trial);
+    } // for
+  } // testCeOptimize()
+
+  /**
+   * Do the segments of a sharded script, each run from its snapshot, print
+   * what the whole script prints?
+   */
+  @Test
+  public void testCeShard() throws IOException {
+    Random random = new Random(46);
+    List<String> script = new ArrayList<String>();
+    for (int i = 0; i < 400; i++) {
+      int choice = random.nextInt(40);
+      String register = "r" + random.nextInt(4);
+      if (choice < 4) {
+        script.add(random.nextInt(50) + "/" + (1 + random.nextInt(9)) + " ; STORE " + register);
+      } else if (choice == 4) {
+        script.add(register + " * 3 + 1 ; STORE " + register);
+      } else if (choice == 5) {
+        script.add("LIMIT " + (2 + random.nextInt(30)));
+      } else if (choice == 6) {
+        script.add("LIMIT OFF");
+      } else if (choice == 7) {
+        script.add("STORE " + register);
+      } else if (choice == 8) {
+        script.add("REPEAT 3 " + register + " + 1/2 ; STORE " + register);
+      } else {
+        script.add(random.nextInt(100) + "/" + (1 + random.nextInt(20)) + " - " + register
+            + " * " + random.nextInt(10));
+      } // if-else chain
+    } // for
+
+    List<ScriptSharder.Segment> segments = ScriptSharder.shard(script, 8);
+    assertTrue(segments.size() > 1, "X: Script is split");
+    assertEquals(runScript(script), runSegments(segments), "X: Sharded output");
+
+    // x is computed on the second line, so the script cannot be split
+    // before the third, which reads it
+    List<ScriptSharder.Segment> chained = ScriptSharder.shard(
+        List.of("2 ; STORE x", "x * x ; STORE x", "x + 1", "7 ; STORE y", "y * 2",
+            "QUIT", "5"), 2);
+    assertEquals(2, chained.size(), "X: Chained script is split");
+    assertEquals(List.of("7 ; STORE y", "y * 2", "QUIT"), chained.get(1).commands(),
+        "X: Split after computed register is read, lines after QUIT dropped");
+  } // testCeShard()
+
+  /**
+   * Do sampled commands and large operations show up in flight recordings?
+   */
+  @Test
+  public void testCeTracing() throws IOException {
+    Path file = Files.createTempFile("calculator", ".jfr");
+    int interval = Tracing.getSampleInterval();
+    int threshold = Tracing.getFractionThreshold();
+    try (Recording recording = new Recording()) {
+      recording.enable("edu.grinnell.csc207.Command");
+      recording.enable("edu.grinnell.csc207.FractionOperation");
+      Tracing.setSampleInterval(2);
+      Tracing.setFractionThreshold(1000);
+      recording.start();
+      CommandExecutor executor = new CommandExecutor((code, command, start, end) -> { });
+      PrintWriter pen = new PrintWriter(new StringWriter());
+      for (int i = 0; i < 10; i++) {
+        executor.execute("1/2 + " + i, false, pen);
+      } // for
+      executor.execute("2 ^ 2000 * 3", false, pen);
+      executor.execute("1/3", false, pen);
+      recording.stop();
+      recording.dump(file);
+    } finally {
+      Tracing.setSampleInterval(interval);
+      Tracing.setFractionThreshold(threshold);
+    } // try-finally
+
+    int commands = 0;
+    List<String> operations = new ArrayList<>();
+    for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+      if (event.getEventType().getName().equals("edu.grinnell.csc207.Command")) {
+        commands++;
+      } else if (event.getEventType().getName().equals("edu.grinnell.csc207.FractionOperation")) {
+        operations.add(event.getString("operation") + " " + event.getInt("operandBits"));
+      } // if-else
+    } // for
+    Files.delete(file);
+    assertEquals(6, commands, "X: One in two commands recorded");
+    assertEquals(List.of("multiply 2001"), operations, "X: Large operations recorded");
+  } // testCeTracing()
+
+  /**
+   * Do sessions keep independent state, even after being spilled?
+   */
+  @Test
+  public void testSessions() throws IOException {
+    Path spill = Files.createTempDirectory("sessions");
+    StringWriter out = new StringWriter();
+    PrintWriter pen = new PrintWriter(out);
+    SessionManager manager = new SessionManager(
+        (code, command, start, end) -> { }, new ParseCache(16), 2, spill);
+    manager.execute("alice", "1/2 ; STORE a", false, pen);
+    manager.execute("bob", "1/3 ; STORE a ; LIMIT 10", false, pen);
+    manager.execute("carol", "1/5 ; STORE a", false, pen);
+    assertEquals(2, manager.size(), "X: Session eviction");
+
+    out.getBuffer().setLength(0);
+    manager.execute("alice", "a + 1/7", false, pen);
+    manager.execute("bob", "a + 1/7", false, pen);
+    manager.execute("carol", "a ; QUIT ; a", false, pen);
+    manager.execute("carol", "a", false, pen);
+
+    String newline = System.lineSeparator();
+    assertEquals("9/14" + newline + "1/2" + newline + "1/5" + newline + "0" + newline,
+        out.toString(),
+        "X: Independent sessions");
+
+    // A spilled session keeps its most recently computed value
+    SessionManager single = new SessionManager(
+        (code, command, start, end) -> { }, new ParseCache(16), 1, spill);
+    out.getBuffer().setLength(0);
+    single.execute("erin", "7/3", false, pen);
+    single.execute("frank", "1", false, pen);
+    single.execute("erin", "STORE a", false, pen);
+    single.execute("erin", "a", false, pen);
+    assertEquals(1, single.size(), "X: Single session");
+    assertEquals("7/3" + newline + "1" + newline + "7/3" + newline,
+        out.toString(),
+        "X: Last value after eviction");
+  } // testSessions()
+
+  /**
+   * Does a thread reading snapshots of a busy session only ever see the
+   * registers as they were between commands?
+   */
+  @Test
+  public void testSessionSnapshots() throws InterruptedException {
+    SessionManager manager = new SessionManager(
+        (code, command, start, end) -> { }, new ParseCache(16), 4, null);
+    PrintWriter pen = new PrintWriter(Writer.nullWriter());
+    assertNull(manager.snapshot("dave"), "X: No snapshot before the session exists");
+    manager.execute("dave", "0 ; STORE a ; 0 ; STORE b", false, pen);
+
+    int slotA = BFRegisterSet.slotOf("a");
+    int slotB = BFRegisterSet.slotOf("b");
+    List<String> seen = new ArrayList<String>();
+    Thread reader = new Thread(() -> {
+      long version = 0;
+      while (version < 50) {
+        BFRegisterSet.Snapshot snapshot = manager.snapshot("dave");
+        if (snapshot.version() < version
+            || !snapshot.get(slotA).toString().equals(snapshot.get(slotB).toString())) {
+          seen.add(snapshot.get(slotA) + " " + snapshot.get(slotB));
+        } // if
+        version = snapshot.version();
+      } // while
+    });
+    reader.start();
+    for (int i = 0; i < 50; i++) {
+      // Between the two stores of each pass, a and b differ
+      manager.execute("dave", "REPEAT 100 a + 1 ; STORE a ; a ; STORE b", false, pen);
+    } // for
+    reader.join();
+    assertEquals(List.of(), seen, "X: Consistent snapshots");
+    assertEquals("5000", manager.snapshot("dave").get(slotB).toString(), "X: Final snapshot");
+  } // testSessionSnapshots()
 } // class TestMP02
 